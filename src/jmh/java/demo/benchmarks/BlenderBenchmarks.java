@@ -0,0 +1,79 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.benchmarks;
+
+import com.gurucue.recommendations.ResponseException;
+import com.gurucue.recommendations.blender.BlenderResult;
+import com.gurucue.recommendations.blender.VideoData;
+import demo.tools.BlendReplay;
+import demo.tools.SyntheticCatalogue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmarks of every blender, through its <code>MainBlender</code>,
+ * on the synthetic catalogue. The candidate DataSet is built from the
+ * catalogue on every invocation, as it is built from the database in
+ * production; the recommender is a deterministic stand-in. Every invocation
+ * replays the same consumer and timestamp, so the ranking cache is disabled,
+ * otherwise the recommender blenders would only measure its hits.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-D" + BlendReplay.RANKINGS_TTL_PROPERTY + "=0")
+@State(Scope.Thread)
+public class BlenderBenchmarks {
+    @Param({
+            "recommenders/all", "recommenders/movies", "recommenders/tv-series", "recommenders/episodes", "recommenders/similar",
+            "searchers/all", "searchers/actors"
+    })
+    public String blender;
+
+    private BlendReplay replay;
+
+    @Setup
+    public void setUp(final CatalogueState state) {
+        final int slash = blender.indexOf('/');
+        final String topBlender = blender.substring(0, slash);
+        final String blenderName = blender.substring(slash + 1);
+        final String query;
+        if (!"searchers".equals(topBlender)) query = null;
+        else if ("actors".equals(blenderName)) query = SyntheticCatalogue.personName(7);
+        else query = SyntheticCatalogue.word(2, 0) + " " + SyntheticCatalogue.word(4, 1);
+        replay = new BlendReplay(state.catalogue.request(topBlender, blenderName, query, 20));
+    }
+
+    @Benchmark
+    public BlenderResult<VideoData> blend() throws ResponseException {
+        return replay.blend();
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.benchmarks;
+
+import demo.tools.SyntheticCatalogue;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The synthetic catalogue shared by all benchmarks, generated once per
+ * trial for every catalogue size.
+ */
+@State(Scope.Benchmark)
+public class CatalogueState {
+    public static final long REQUEST_TIMESTAMP_MILLIS = 1500000000000L;
+    public static final long SEED = 42L;
+
+    @Param({"10000", "100000", "1000000"})
+    public int catalogueSize;
+
+    public SyntheticCatalogue catalogue;
+
+    @Setup
+    public void setUp() {
+        catalogue = new SyntheticCatalogue(catalogueSize, SEED, REQUEST_TIMESTAMP_MILLIS);
+    }
+}
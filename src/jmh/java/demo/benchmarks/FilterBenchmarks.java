@@ -0,0 +1,144 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.benchmarks;
+
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.data.DataProvider;
+import com.gurucue.recommendations.blender.VideoData;
+import demo.BasicTagger;
+import demo.EpisodeSorter;
+import demo.VideoDuplicateResolver;
+import demo.filters.AcceptOnlyAnySeries;
+import demo.filters.AcceptOnlyEpisodesOfSeries;
+import demo.filters.ActorsSearchFilter;
+import demo.filters.CommonSearchFilter;
+import demo.filters.GenreWhitelist;
+import demo.filters.MinimumRuntime;
+import demo.filters.RankedSizerObeyingTagRules;
+import demo.recommenders.BlenderMovies;
+import demo.tools.ReplayCandidateSource;
+import demo.tools.StandIns;
+import demo.tools.StandInRank;
+import demo.tools.SyntheticCatalogue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of individual filters, sizers and the duplicate resolver on
+ * the synthetic catalogue. Every benchmark filters a copy of the same
+ * DataSet, the cost of the copy alone is measured by {@link #copy}.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterBenchmarks {
+    private static final int MAX_ITEMS = 20;
+
+    private DataSet<VideoData> all;
+    private DataSet<VideoData> episodes;
+    private DataSet<VideoData> ranked;
+    private String searchQuery;
+    private String actorsQuery;
+    private DataProvider dataProvider;
+
+    @Setup
+    public void setUp(final CatalogueState state) {
+        final SyntheticCatalogue catalogue = state.catalogue;
+        final ReplayCandidateSource source = new ReplayCandidateSource(catalogue.request("recommenders", "all", null, MAX_ITEMS));
+        all = source.newDataSet();
+        episodes = source.newDataSet().filter(new AcceptOnlyEpisodesOfSeries(1L));
+        ranked = source.newDataSet().filter(new BasicTagger(catalogue.requestTimestampMillis, MAX_ITEMS));
+        final Random rnd = new Random(catalogue.seed);
+        for (final VideoData videoData : ranked) videoData.rank = new StandInRank(rnd.nextInt(1000));
+        searchQuery = SyntheticCatalogue.word(2, 0) + " " + SyntheticCatalogue.word(4, 1);
+        actorsQuery = SyntheticCatalogue.personName(7);
+        dataProvider = StandIns.dataProvider(StandIns.attributeCodes());
+    }
+
+    @Benchmark
+    public int copy() {
+        return new DataSet<>(all).size();
+    }
+
+    @Benchmark
+    public int minimumRuntime() {
+        return new DataSet<>(all).filter(new MinimumRuntime(65)).size();
+    }
+
+    @Benchmark
+    public int genreWhitelist() {
+        return new DataSet<>(all).filter(new GenreWhitelist(BlenderMovies.whiteGenres)).size();
+    }
+
+    @Benchmark
+    public int acceptOnlyAnySeries() {
+        return new DataSet<>(all).filter(new AcceptOnlyAnySeries()).size();
+    }
+
+    @Benchmark
+    public int acceptOnlyEpisodesOfSeries() {
+        return new DataSet<>(all).filter(new AcceptOnlyEpisodesOfSeries(1L)).size();
+    }
+
+    @Benchmark
+    public int basicTagger() {
+        return new DataSet<>(all).filter(new BasicTagger(CatalogueState.REQUEST_TIMESTAMP_MILLIS, MAX_ITEMS)).size();
+    }
+
+    @Benchmark
+    public int commonSearchFilter() {
+        return new DataSet<>(all).filter(new CommonSearchFilter(searchQuery, dataProvider)).size();
+    }
+
+    @Benchmark
+    public int actorsSearchFilter() {
+        return new DataSet<>(all).filter(new ActorsSearchFilter(actorsQuery)).size();
+    }
+
+    @Benchmark
+    public int episodeSorter() {
+        return new DataSet<>(episodes).filter(new EpisodeSorter()).size();
+    }
+
+    @Benchmark
+    public int rankedSizerObeyingTagRules() {
+        return new DataSet<>(ranked).filter(new RankedSizerObeyingTagRules(MAX_ITEMS)).size();
+    }
+
+    @Benchmark
+    public int videoDuplicateResolver() {
+        final DataSet.Builder<VideoData> builder = new DataSet.Builder<>(new VideoDuplicateResolver((String) null, CatalogueState.REQUEST_TIMESTAMP_MILLIS), null);
+        for (final VideoData videoData : all) builder.add(videoData);
+        return builder.build().size();
+    }
+}
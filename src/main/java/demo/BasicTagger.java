@@ -23,13 +23,15 @@ import com.gurucue.recommendations.blender.StatelessFilter;
 import com.gurucue.recommendations.blender.VideoData;
 import com.gurucue.recommendations.entity.product.TvProgrammeProduct;
 import com.gurucue.recommendations.entity.product.VideoProduct;
+import demo.stats.FilterStatistics;
+import demo.stats.StatisticsProvider;
 
 import java.util.Set;
 
 /**
  * Basic tagging for all video and tv-programme content.
  */
-public final class BasicTagger implements StatelessFilter<VideoData> {
+public final class BasicTagger implements StatelessFilter<VideoData>, StatisticsProvider {
     public static final String FREE = "FREE";
     public static final String PAID = "PAID";
     public static final String CATCHUP = "CATCHUP";
@@ -39,73 +41,84 @@ public final class BasicTagger implements StatelessFilter<VideoData> {
     public final long recommendTimestampMillis;
     public final int maxItems;
 
+    // indexes of tag counters in the statistics
+    public static final int COUNT_FREE = 2;
+    public static final int COUNT_PAID = 3;
+    public static final int COUNT_CATCHUP = 4;
+    public static final int COUNT_LIVETV = 5;
+    public static final int COUNT_VOD = 6;
+    public static final int COUNT_FREE_CATCHUP = 7;
+    public static final int COUNT_PAID_CATCHUP = 8;
+    public static final int COUNT_FREE_LIVETV = 9;
+    public static final int COUNT_PAID_LIVETV = 10;
+    public static final int COUNT_FREE_VOD = 11;
+    public static final int COUNT_PAID_VOD = 12;
+
     public BasicTagger(final long recommendTimestampMillis, final int maxItems) {
         this.recommendTimestampMillis = recommendTimestampMillis;
         this.maxItems = maxItems;
     }
 
-    public int countFree = 0;
-    public int countPaid = 0;
-    public int countCatchup = 0;
-    public int countLiveTv = 0;
-    public int countVod = 0;
-    public int countFreeCatchup = 0;
-    public int countPaidCatchup = 0;
-    public int countFreeLiveTv = 0;
-    public int countPaidLiveTv = 0;
-    public int countFreeVod = 0;
-    public int countPaidVod = 0;
+    private final FilterStatistics statistics = new FilterStatistics(getClass().getSimpleName(),
+            FREE, PAID, CATCHUP, LIVETV, VOD,
+            FREE + " " + CATCHUP, PAID + " " + CATCHUP,
+            FREE + " " + LIVETV, PAID + " " + LIVETV,
+            FREE + " " + VOD, PAID + " " + VOD);
 
     @Override
     public boolean test(final VideoData videoData) {
         final Set<String> tags = videoData.tags; // use a local variable for faster access
+        final FilterStatistics statistics = this.statistics;
         if (videoData.isTvProgramme) {
             final boolean isFree;
             if (videoData.isSubscribed) {
                 tags.add(FREE);
-                countFree++;
+                statistics.increment(COUNT_FREE);
                 isFree = true;
             }
             else {
                 tags.add(PAID);
-                countPaid++;
+                statistics.increment(COUNT_PAID);
                 isFree = false;
             }
             if (((TvProgrammeProduct)videoData.video).endTimeMillis <= recommendTimestampMillis) {
                 tags.add(CATCHUP);
-                countCatchup++;
-                if (isFree) countFreeCatchup++;
-                else countPaidCatchup++;
+                statistics.increment(COUNT_CATCHUP);
+                statistics.increment(isFree ? COUNT_FREE_CATCHUP : COUNT_PAID_CATCHUP);
             }
             else {
                 tags.add(LIVETV);
-                countLiveTv++;
-                if (isFree) countFreeLiveTv++;
-                else countPaidLiveTv++;
+                statistics.increment(COUNT_LIVETV);
+                statistics.increment(isFree ? COUNT_FREE_LIVETV : COUNT_PAID_LIVETV);
             }
         }
         else {
             tags.add(VOD);
-            countVod++;
+            statistics.increment(COUNT_VOD);
             if (videoData.isSubscribed) {
                 if (((VideoProduct)videoData.video).price > 0.0) {
                     tags.add(PAID);
-                    countPaid++;
-                    countPaidVod++;
+                    statistics.increment(COUNT_PAID);
+                    statistics.increment(COUNT_PAID_VOD);
                 }
                 else {
                     tags.add(FREE);
-                    countFree++;
-                    countFreeVod++;
+                    statistics.increment(COUNT_FREE);
+                    statistics.increment(COUNT_FREE_VOD);
                 }
             }
             else {
                 tags.add(PAID);
-                countPaid++;
-                countPaidVod++;
+                statistics.increment(COUNT_PAID);
+                statistics.increment(COUNT_PAID_VOD);
             }
         }
-        return true;
+        return statistics.accepted(); // this is an all-pass filter
+    }
+
+    @Override
+    public FilterStatistics getStatistics() {
+        return statistics;
     }
 
     private static final String INDENT = "    ";
@@ -116,30 +129,36 @@ public final class BasicTagger implements StatelessFilter<VideoData> {
         final String className = getClass().getSimpleName();
         output.append(className).append(" tagged:\n");
         final int startingLength = output.length();
-        if (countFree > 0) output.append(INDENT).append(countFree).append(" ").append(FREE).append("\n");
-        if (countPaid > 0) output.append(INDENT).append(countPaid).append(" ").append(PAID).append("\n");
-        if (countCatchup > 0) {
-            output.append(INDENT).append(countCatchup).append(" ").append(CATCHUP).append("\n");
-            output.append(INDENT).append(INDENT).append(countFreeCatchup).append(" ").append(FREE).append(" ").append(CATCHUP).append("\n");
-            output.append(INDENT).append(INDENT).append(countPaidCatchup).append(" ").append(PAID).append(" ").append(CATCHUP).append("\n");
+        writeCount(output, COUNT_FREE);
+        writeCount(output, COUNT_PAID);
+        if (writeCount(output, COUNT_CATCHUP)) {
+            output.append(INDENT).append(INDENT).append(statistics.get(COUNT_FREE_CATCHUP)).append(" ").append(FREE).append(" ").append(CATCHUP).append("\n");
+            output.append(INDENT).append(INDENT).append(statistics.get(COUNT_PAID_CATCHUP)).append(" ").append(PAID).append(" ").append(CATCHUP).append("\n");
         }
-        if (countLiveTv > 0) {
-            output.append(INDENT).append(countLiveTv).append(" ").append(LIVETV).append("\n");
-            output.append(INDENT).append(INDENT).append(countFreeLiveTv).append(" ").append(FREE).append(" ").append(LIVETV).append("\n");
-            output.append(INDENT).append(INDENT).append(countPaidLiveTv).append(" ").append(PAID).append(" ").append(LIVETV).append("\n");
+        if (writeCount(output, COUNT_LIVETV)) {
+            output.append(INDENT).append(INDENT).append(statistics.get(COUNT_FREE_LIVETV)).append(" ").append(FREE).append(" ").append(LIVETV).append("\n");
+            output.append(INDENT).append(INDENT).append(statistics.get(COUNT_PAID_LIVETV)).append(" ").append(PAID).append(" ").append(LIVETV).append("\n");
         }
-        if (countVod > 0) {
-            output.append(INDENT).append(countVod).append(" ").append(VOD).append("\n");
-            output.append(INDENT).append(INDENT).append(countFreeVod).append(" ").append(FREE).append(" ").append(VOD).append("\n");
-            output.append(INDENT).append(INDENT).append(countPaidVod).append(" ").append(PAID).append(" ").append(VOD).append("\n");
+        if (writeCount(output, COUNT_VOD)) {
+            output.append(INDENT).append(INDENT).append(statistics.get(COUNT_FREE_VOD)).append(" ").append(FREE).append(" ").append(VOD).append("\n");
+            output.append(INDENT).append(INDENT).append(statistics.get(COUNT_PAID_VOD)).append(" ").append(PAID).append(" ").append(VOD).append("\n");
         }
         if (startingLength == output.length()) output.append(INDENT).append("none\n"); // nothing was tagged
         if (maxTagsLog != null) output.append(maxTagsLog);
     }
 
+    private boolean writeCount(final StringBuilder output, final int counterIndex) {
+        final long count = statistics.get(counterIndex);
+        if (count <= 0L) return false;
+        output.append(INDENT).append(count).append(" ").append(statistics.getCounterName(counterIndex)).append("\n");
+        return true;
+    }
+
     @Override
     public void onEnd(final DataSet<VideoData> dataSet) {
         final int maxRecommendations = dataSet.size() < maxItems ? dataSet.size() : maxItems;
+        final int countPaid = (int) statistics.get(COUNT_PAID);
+        final int countFree = (int) statistics.get(COUNT_FREE);
         final StringBuilder maxTagsLog = new StringBuilder(256);
         this.maxTagsLog = maxTagsLog;
         maxTagsLog.append("  Setting 15:85 PAID:FREE ratio for ").append(maxRecommendations).append(" resulting items\n");
@@ -0,0 +1,81 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo;
+
+import com.gurucue.recommendations.blender.BlendEnvironment;
+import com.gurucue.recommendations.blender.BlendParameters;
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import demo.catalogue.ProgrammeSchedule;
+import demo.filters.AcceptOnlyTimeRange;
+
+import java.util.List;
+
+/**
+ * The source of the content a blender starts from. The default source
+ * builds DataSets from the database, other sources are used to capture
+ * or replay blender inputs.
+ */
+public interface CandidateSource {
+    /**
+     * Builds the DataSet of all videos and tv-programmes available to the
+     * consumer at the request time, including the catch-up window.
+     *
+     * @param environment the blending environment
+     * @param parameters the blending parameters
+     * @param requestedVideoFormat the video format requested by the client, may be <code>null</code>
+     * @return the DataSet of all content
+     */
+    DataSet<VideoData> videosAndTvProgrammes(BlendEnvironment environment, BlendParameters parameters, String requestedVideoFormat);
+
+    /**
+     * Builds the DataSet of the given products.
+     *
+     * @param environment the blending environment
+     * @param parameters the blending parameters
+     * @param requestedVideoFormat the video format requested by the client, may be <code>null</code>
+     * @param products the products to include in the DataSet
+     * @return the DataSet of the given products
+     */
+    DataSet<VideoData> products(BlendEnvironment environment, BlendParameters parameters, String requestedVideoFormat, List<? extends GeneralVideoProduct> products);
+
+    /**
+     * Builds the DataSet of tv-programmes available to the consumer and
+     * airing at least partly within the time range. The programmes are
+     * looked up in the {@link ProgrammeSchedule}; until it is built, they
+     * are looked up in the {@link CatalogueSnapshot} if it is recent, or else filtered from all content.
+     *
+     * @param environment the blending environment
+     * @param parameters the blending parameters
+     * @param requestedVideoFormat the video format requested by the client, may be <code>null</code>
+     * @param fromMillis the start of the range, inclusive
+     * @param toMillis the end of the range, exclusive
+     * @return the DataSet of the tv-programmes
+     */
+    default DataSet<VideoData> tvProgrammes(final BlendEnvironment environment, final BlendParameters parameters, final String requestedVideoFormat, final long fromMillis, final long toMillis) {
+        final ProgrammeSchedule schedule = ProgrammeSchedule.current();
+        final long[] snapshotIds = schedule.isBuilt() ? null : CatalogueSnapshot.current().programmesOverlapping(fromMillis, toMillis, environment.requestTimestampMillis);
+        final DataSet<VideoData> content;
+        if (schedule.isBuilt()) content = products(environment, parameters, requestedVideoFormat, schedule.overlapping(fromMillis, toMillis));
+        else if (snapshotIds != null) content = products(environment, parameters, requestedVideoFormat, Utils.products(environment, snapshotIds));
+        else content = videosAndTvProgrammes(environment, parameters, requestedVideoFormat);
+        return content.filter(new AcceptOnlyTimeRange(fromMillis, toMillis));
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo;
+
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import com.gurucue.recommendations.entity.product.TvProgrammeProduct;
+import demo.catalogue.ProgrammeSchedule;
+import demo.filters.CommonSearchFilter;
+import demo.recommenders.SimilarItems;
+import gnu.trove.list.array.TLongArrayList;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A snapshot of the derived structures of the blenders in a binary file,
+ * so a restarted server starts warm instead of with empty structures.
+ * The file is written periodically in a background thread, to a temporary
+ * file which then replaces the snapshot, so a reader never sees a partial file.
+ * <p>
+ * Products are owned by the REST API and can't be stored, so the snapshot
+ * keeps product IDs and primitive arrays: the word match statistics, the
+ * similar products of products of both variants, and the begin and end times of the programme
+ * schedule. On startup, when there is no previous generation to take the state
+ * from, the file is memory-mapped; the lists and the schedule are read from
+ * the mapping in place, with their products looked up by ID, until the live
+ * structures are built from the database. The schedule misses programmes
+ * added since it was written, so it is only used while it is recent. The blenders of all partners
+ * share the JVM, so every partner has its own file, named after the partner
+ * username. The files are configured with system properties:
+ * <ul>
+ *     <li><code>demo.blenders.snapshot.dir</code>: the directory of the files, the temporary directory by default,</li>
+ *     <li><code>demo.blenders.snapshot.intervalMinutes</code>: how often the file is written, 30 by default, 0 disables the snapshot,</li>
+ *     <li><code>demo.blenders.snapshot.maxAgeMinutes</code>: the age after which a file is ignored on startup, 1440 by default,</li>
+ *     <li><code>demo.blenders.snapshot.scheduleMaxAgeMinutes</code>: the age after which the schedule of a file is not used anymore, 60 by default.</li>
+ * </ul>
+ * The format is versioned, a file of a different version is ignored and
+ * replaced with the next write.
+ */
+public final class CatalogueSnapshot {
+    private static final Logger log = LogManager.getLogger(CatalogueSnapshot.class);
+    private static final int MAGIC = 0x47435342; // "GCSB"
+    public static final int VERSION = 2;
+    private static final int HEADER_BYTES = 16; // magic, version, created
+    private static final int FOOTER_BYTES = 36; // offsets of 4 sections, magic
+
+    private static final String DIRECTORY = System.getProperty("demo.blenders.snapshot.dir", System.getProperty("java.io.tmpdir"));
+    private static final long INTERVAL_MILLIS = Long.getLong("demo.blenders.snapshot.intervalMinutes", 30L) * 60000L;
+    private static final long MAX_AGE_MILLIS = Long.getLong("demo.blenders.snapshot.maxAgeMinutes", 1440L) * 60000L;
+    private static final long SCHEDULE_MAX_AGE_MILLIS = Long.getLong("demo.blenders.snapshot.scheduleMaxAgeMinutes", 60L) * 60000L;
+
+    private static final CatalogueSnapshot EMPTY = new CatalogueSnapshot(null, 0L, -1L, -1L, -1L, -1L);
+    private static volatile CatalogueSnapshot current = EMPTY;
+    private static final AtomicBoolean writing = new AtomicBoolean(false);
+    private static volatile Thread writer = null;
+
+    private final ByteBuffer buffer; // read with absolute methods only, so it can be shared by threads
+    public final long createdMillis;
+    private final int wordsOffset;
+    private final int similarOffset; // of the default variant
+    private final int hdSimilarOffset;
+    private final int scheduleOffset;
+
+    private CatalogueSnapshot(final ByteBuffer buffer, final long createdMillis, final long wordsOffset, final long similarOffset, final long hdSimilarOffset, final long scheduleOffset) {
+        this.buffer = buffer;
+        this.createdMillis = createdMillis;
+        this.wordsOffset = (int) wordsOffset;
+        this.similarOffset = (int) similarOffset;
+        this.hdSimilarOffset = (int) hdSimilarOffset;
+        this.scheduleOffset = (int) scheduleOffset;
+    }
+
+    /**
+     * Returns the mapped snapshot, an empty one if none was loaded.
+     */
+    public static CatalogueSnapshot current() {
+        return current;
+    }
+
+    /**
+     * Returns the snapshot file of the partner.
+     */
+    static Path file(final String partnerUsername) {
+        return Paths.get(DIRECTORY, "blenders-snapshot-" + partnerUsername.replaceAll("[^A-Za-z0-9._-]", "_") + ".bin");
+    }
+
+    /**
+     * Maps the snapshot file of the partner, if there is a valid one, and
+     * imports its word match statistics. Called by the first generation
+     * of the blenders of the partner after a server start.
+     */
+    static void load(final String partnerUsername) {
+        if (INTERVAL_MILLIS <= 0L) return;
+        final Path file = file(partnerUsername);
+        final long start = System.nanoTime();
+        try {
+            final CatalogueSnapshot snapshot = map(file);
+            if (snapshot == null) return;
+            final long ageMillis = System.currentTimeMillis() - snapshot.createdMillis;
+            if (ageMillis > MAX_AGE_MILLIS) {
+                log.info("Ignoring the blenders snapshot " + file + ", it is " + (ageMillis / 60000L) + " minutes old");
+                return;
+            }
+            if (snapshot.wordsOffset >= 0) CommonSearchFilter.getWordStatistics().addAll(snapshot.wordStatistics());
+            current = snapshot;
+            log.info("Mapped the blenders snapshot " + file + " of " + snapshot.buffer.capacity() + " bytes in " + ((System.nanoTime() - start) / 1000000L) + " ms");
+        }
+        catch (IOException | RuntimeException e) {
+            log.error("Failed to load the blenders snapshot " + file + ": " + e.toString(), e);
+        }
+    }
+
+    /**
+     * Starts the thread writing the snapshot of the partner periodically,
+     * it stops when the generation of blenders is replaced by a new one,
+     * see {@link #stopWriter()}.
+     */
+    static void startWriter(final String partnerUsername) {
+        if ((INTERVAL_MILLIS <= 0L) || !writing.compareAndSet(false, true)) return;
+        final Path file = file(partnerUsername);
+        final Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(INTERVAL_MILLIS);
+                    if (!GenerationHandover.isCurrent()) break;
+                    try {
+                        final long start = System.nanoTime();
+                        final long bytes = write(file);
+                        log.info("Wrote the blenders snapshot " + file + " of " + bytes + " bytes in " + ((System.nanoTime() - start) / 1000000L) + " ms");
+                    }
+                    catch (IOException | RuntimeException e) {
+                        log.error("Failed to write the blenders snapshot " + file + ": " + e.toString(), e);
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                log.info("The blenders snapshot writer of " + partnerUsername + " stopped");
+            }
+            finally {
+                writer = null;
+                writing.set(false);
+            }
+        }, "blenders-snapshot");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+    }
+
+    /**
+     * Stops the writer thread, when the state of this generation is taken
+     * over by a new one, which writes the snapshot from then on.
+     */
+    static void stopWriter() {
+        final Thread thread = writer;
+        if (thread != null) thread.interrupt();
+    }
+
+    /**
+     * Returns the IDs of tv-programmes airing at least partly within the
+     * time range when the snapshot was written, in the order of their begin
+     * times, or <code>null</code> if the snapshot has no schedule, or it is
+     * older than <code>demo.blenders.snapshot.scheduleMaxAgeMinutes</code>.
+     *
+     * @param fromMillis the start of the range, inclusive
+     * @param toMillis the end of the range, exclusive
+     * @param nowMillis the current time
+     * @return the IDs of the programmes, or <code>null</code>
+     */
+    public long[] programmesOverlapping(final long fromMillis, final long toMillis, final long nowMillis) {
+        if ((scheduleOffset < 0) || ((nowMillis - createdMillis) > SCHEDULE_MAX_AGE_MILLIS)) return null;
+        final int n = buffer.getInt(scheduleOffset);
+        final long maxDurationMillis = getLong(scheduleOffset + 4L);
+        final long ids = scheduleOffset + 12L;
+        final long begins = ids + (n * 8L);
+        final long ends = begins + (n * 8L);
+        final long earliestBegin = fromMillis - maxDurationMillis;
+        int low = 0;
+        int high = n;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (getLong(begins + (mid * 8L)) < earliestBegin) low = mid + 1;
+            else high = mid;
+        }
+        final TLongArrayList result = new TLongArrayList();
+        for (int i = low; (i < n) && (getLong(begins + (i * 8L)) < toMillis); i++) {
+            if (getLong(ends + (i * 8L)) > fromMillis) result.add(getLong(ids + (i * 8L)));
+        }
+        return result.toArray();
+    }
+
+    /**
+     * Returns the similar products of the product, as they were when the
+     * snapshot was written, or <code>null</code> if the snapshot has none.
+     *
+     * @param variant the variant of the lists, {@link SimilarItems#DEFAULT} or {@link SimilarItems#HD}
+     * @param productId the ID of the product
+     * @return the similar products, or <code>null</code>
+     */
+    public SimilarList similar(final String variant, final long productId) {
+        final int offset = SimilarItems.HD.equals(variant) ? hdSimilarOffset : similarOffset;
+        if (offset < 0) return null;
+        final int n = buffer.getInt(offset);
+        final long ids = offset + 4L;
+        int low = 0;
+        int high = n - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long id = getLong(ids + (mid * 8L));
+            if (id < productId) low = mid + 1;
+            else if (id > productId) high = mid - 1;
+            else {
+                long position = getLong(ids + (n * 8L) + (mid * 8L));
+                final long computedMillis = getLong(position);
+                final int requestedSize = buffer.getInt(Math.toIntExact(position + 8L));
+                final int size = buffer.getInt(Math.toIntExact(position + 12L));
+                position += 16L;
+                final long[] productIds = new long[size];
+                final double[] predictions = new double[size];
+                for (int i = 0; i < size; i++, position += 8L) productIds[i] = getLong(position);
+                for (int i = 0; i < size; i++, position += 8L) predictions[i] = buffer.getDouble(Math.toIntExact(position));
+                return new SimilarList(productIds, predictions, requestedSize, computedMillis);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a long at an offset computed in long arithmetic, failing
+     * instead of wrapping around if it is beyond what can be mapped.
+     */
+    private long getLong(final long offset) {
+        return buffer.getLong(Math.toIntExact(offset));
+    }
+
+    private Map<String, long[]> wordStatistics() {
+        final ByteBuffer in = buffer.duplicate();
+        in.position(wordsOffset);
+        final int n = in.getInt();
+        final Map<String, long[]> result = new HashMap<>(n * 2);
+        for (int i = 0; i < n; i++) {
+            final byte[] word = new byte[in.getInt()];
+            in.get(word);
+            final long[] counts = new long[in.getInt()];
+            for (int j = 0; j < counts.length; j++) counts[j] = in.getLong();
+            result.put(new String(word, StandardCharsets.UTF_8), counts);
+        }
+        return result;
+    }
+
+    private static CatalogueSnapshot map(final Path file) throws IOException {
+        if (!Files.exists(file)) {
+            log.info("No blenders snapshot " + file);
+            return null;
+        }
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if ((size < (HEADER_BYTES + FOOTER_BYTES)) || (size > Integer.MAX_VALUE)) {
+                log.warn("Ignoring the blenders snapshot " + file + " of " + size + " bytes");
+                return null;
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+            final int footer = (int) size - FOOTER_BYTES;
+            if ((buffer.getInt(0) != MAGIC) || (buffer.getInt(footer + 32) != MAGIC)) {
+                log.warn("Ignoring the blenders snapshot " + file + ", it is not a snapshot or it is incomplete");
+                return null;
+            }
+            if (buffer.getInt(4) != VERSION) {
+                log.info("Ignoring the blenders snapshot " + file + " with version " + buffer.getInt(4) + ", the current version is " + VERSION);
+                return null;
+            }
+            return new CatalogueSnapshot(buffer, buffer.getLong(8), buffer.getLong(footer), buffer.getLong(footer + 8), buffer.getLong(footer + 16), buffer.getLong(footer + 24));
+        }
+    }
+
+    /**
+     * Writes the current structures to a temporary file, and moves it over the snapshot.
+     *
+     * @return the size of the file
+     */
+    static long write(final Path file) throws IOException {
+        final Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        final Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        final long size;
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            final long wordsOffset = out.size();
+            writeWordStatistics(out, CommonSearchFilter.getWordStatistics().export());
+            final long similarOffset = out.size();
+            writeSimilar(out, similarOffset, SimilarItems.INSTANCE.export(SimilarItems.DEFAULT));
+            final long hdSimilarOffset = out.size();
+            writeSimilar(out, hdSimilarOffset, SimilarItems.INSTANCE.export(SimilarItems.HD));
+            final ProgrammeSchedule schedule = ProgrammeSchedule.current();
+            final long scheduleOffset = schedule.isBuilt() ? out.size() : -1L;
+            if (schedule.isBuilt()) writeSchedule(out, schedule.programmes());
+            out.writeLong(wordsOffset);
+            out.writeLong(similarOffset);
+            out.writeLong(hdSimilarOffset);
+            out.writeLong(scheduleOffset);
+            out.writeInt(MAGIC);
+            size = out.size();
+        }
+        if (size >= Integer.MAX_VALUE) {
+            Files.delete(temporary);
+            throw new IOException("The snapshot is too large to be mapped: at least " + size + " bytes");
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return size;
+    }
+
+    private static void writeWordStatistics(final DataOutputStream out, final Map<String, long[]> statistics) throws IOException {
+        out.writeInt(statistics.size());
+        for (final Map.Entry<String, long[]> e : statistics.entrySet()) {
+            final byte[] word = e.getKey().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(word.length);
+            out.write(word);
+            final long[] counts = e.getValue();
+            out.writeInt(counts.length);
+            for (final long count : counts) out.writeLong(count);
+        }
+    }
+
+    /**
+     * Writes the sorted product IDs, then the offsets of their lists, then
+     * the lists, so a list is found with a binary search in the mapping.
+     */
+    private static void writeSimilar(final DataOutputStream out, final long sectionOffset, final Map<Long, SimilarItems.Entry> lists) throws IOException {
+        final List<Long> ids = new ArrayList<>(lists.size());
+        for (final Map.Entry<Long, SimilarItems.Entry> e : lists.entrySet()) {
+            if (e.getValue() != null) ids.add(e.getKey());
+        }
+        ids.sort(null);
+        final int n = ids.size();
+        out.writeInt(n);
+        for (final Long id : ids) out.writeLong(id);
+        long position = sectionOffset + 4L + (n * 16L);
+        for (final Long id : ids) {
+            out.writeLong(position);
+            position += 16L + (lists.get(id).products.length * 16L);
+        }
+        for (final Long id : ids) {
+            final SimilarItems.Entry list = lists.get(id);
+            out.writeLong(list.computedMillis);
+            out.writeInt(list.requestedSize);
+            out.writeInt(list.products.length);
+            for (final GeneralVideoProduct product : list.products) out.writeLong(product.id);
+            for (final double prediction : list.predictions) out.writeDouble(prediction);
+        }
+    }
+
+    /**
+     * Writes the programmes sorted by their begin times, as parallel arrays
+     * of IDs, begin times and end times.
+     */
+    private static void writeSchedule(final DataOutputStream out, final List<TvProgrammeProduct> programmes) throws IOException {
+        long maxDurationMillis = 0L;
+        for (final TvProgrammeProduct programme : programmes) maxDurationMillis = Math.max(maxDurationMillis, programme.endTimeMillis - programme.beginTimeMillis);
+        out.writeInt(programmes.size());
+        out.writeLong(maxDurationMillis);
+        for (final TvProgrammeProduct programme : programmes) out.writeLong(programme.id);
+        for (final TvProgrammeProduct programme : programmes) out.writeLong(programme.beginTimeMillis);
+        for (final TvProgrammeProduct programme : programmes) out.writeLong(programme.endTimeMillis);
+    }
+
+    /**
+     * Similar products of a product read from the snapshot.
+     */
+    public static final class SimilarList {
+        public final long[] productIds;
+        public final double[] predictions;
+        public final int requestedSize;
+        public final long computedMillis;
+
+        SimilarList(final long[] productIds, final double[] predictions, final int requestedSize, final long computedMillis) {
+            this.productIds = productIds;
+            this.predictions = predictions;
+            this.requestedSize = requestedSize;
+            this.computedMillis = computedMillis;
+        }
+    }
+}
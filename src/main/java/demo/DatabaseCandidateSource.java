@@ -0,0 +1,50 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo;
+
+import com.gurucue.recommendations.blender.BlendEnvironment;
+import com.gurucue.recommendations.blender.BlendParameters;
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import demo.catalogue.ProgrammeSchedule;
+
+import java.util.List;
+
+/**
+ * Builds DataSets from the database, this is the source used in production.
+ */
+public final class DatabaseCandidateSource implements CandidateSource {
+    public static final DatabaseCandidateSource INSTANCE = new DatabaseCandidateSource();
+
+    private DatabaseCandidateSource() {}
+
+    @Override
+    public DataSet<VideoData> videosAndTvProgrammes(final BlendEnvironment environment, final BlendParameters parameters, final String requestedVideoFormat) {
+        final ProgrammeSchedule.Collector resolver = new ProgrammeSchedule.Collector(new VideoDuplicateResolver(requestedVideoFormat, environment.requestTimestampMillis));
+        final DataSet<VideoData> dataSet = VideoData.buildDataSetOfVideosAndTvProgrammes(environment.transaction, environment.partner, environment.consumer, resolver, environment.requestTimestampMillis, Utils.MAX_CATCHUP_RETENTION, 0L);
+        ProgrammeSchedule.offer(dataSet, resolver, environment.requestTimestampMillis, Utils.MAX_CATCHUP_RETENTION); // keep the schedule of tv-programmes up to date
+        return dataSet;
+    }
+
+    @Override
+    public DataSet<VideoData> products(final BlendEnvironment environment, final BlendParameters parameters, final String requestedVideoFormat, final List<? extends GeneralVideoProduct> products) {
+        return VideoData.buildDataSet(environment.transaction, environment.consumer, new VideoDuplicateResolver(requestedVideoFormat, environment.requestTimestampMillis), environment.requestTimestampMillis, products);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo;
+
+import com.gurucue.recommendations.blender.BlendParameters;
+
+/**
+ * The deadline of a blend request, which filters check to degrade
+ * gracefully instead of overrunning the client's timeout. Degradation is
+ * staged: after the soft deadline, when three quarters of the time are
+ * spent, debug logging stops; after the deadline, search filters stop
+ * matching and the result is ranked from what was matched so far, without
+ * the tag rules. A filter that cut its work marks the deadline partial, and
+ * the response is flagged as partial.
+ * <p>
+ * The time is given with the <code>timeoutMillis</code> input, counted
+ * from the start of blending, or else the
+ * <code>demo.blenders.deadline.timeoutMillis</code> system property; 0, the
+ * default, means no deadline. A deadline is used by the thread of its
+ * request, filters check it every {@link #CHECK_INTERVAL} items.
+ */
+public final class Deadline {
+    public static final Deadline NONE = new Deadline(0L);
+    /** How many items a filter processes between two checks, a power of 2. */
+    public static final int CHECK_INTERVAL = 64;
+
+    private final boolean bounded;
+    private final long softNanos;
+    private final long hardNanos;
+    private boolean pastSoft = false;
+    private boolean pastHard = false;
+    private boolean partial = false;
+
+    /**
+     * @param timeoutMillis the time from now, 0 or less means no deadline
+     */
+    public Deadline(final long timeoutMillis) {
+        final long now = System.nanoTime();
+        bounded = timeoutMillis > 0L;
+        hardNanos = now + (timeoutMillis * 1000000L);
+        softNanos = now + (timeoutMillis * 750000L);
+    }
+
+    /**
+     * Returns the deadline of a request starting now.
+     */
+    public static Deadline of(final BlendParameters parameters) {
+        long timeoutMillis = Long.getLong("demo.blenders.deadline.timeoutMillis", 0L);
+        final Object timeoutObj = parameters.input.get("timeoutMillis");
+        if (timeoutObj instanceof Number) timeoutMillis = ((Number) timeoutObj).longValue();
+        return timeoutMillis > 0L ? new Deadline(timeoutMillis) : NONE;
+    }
+
+    /**
+     * Returns whether the soft deadline passed, after which optional work,
+     * like debug logging, is skipped.
+     */
+    public boolean isPastSoft() {
+        if (pastSoft) return true;
+        if (!bounded || ((System.nanoTime() - softNanos) < 0L)) return false;
+        pastSoft = true;
+        return true;
+    }
+
+    /**
+     * Returns whether the deadline passed, after which filters return what
+     * they have.
+     */
+    public boolean isPast() {
+        if (pastHard) return true;
+        if (!bounded || ((System.nanoTime() - hardNanos) < 0L)) return false;
+        pastHard = true;
+        pastSoft = true;
+        return true;
+    }
+
+    /**
+     * Marks the result partial: a filter skipped work because the deadline passed.
+     */
+    public void markPartial() {
+        partial = true;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+}
@@ -52,13 +52,15 @@ public final class DebugFiltersBuilder {
     private final Partner partner;
     private final ConsumerEntity consumer;
     private final long requestTimestampMillis;
+    private final Deadline deadline;
     private StringBuilder debugPrefix = null;
 
-    public DebugFiltersBuilder(final Transaction transaction, final Partner partner, final ConsumerEntity consumer, final long requestTimestampMillis) {
+    public DebugFiltersBuilder(final Transaction transaction, final Partner partner, final ConsumerEntity consumer, final long requestTimestampMillis, final Deadline deadline) {
         this.transaction = transaction;
         this.partner = partner;
         this.consumer = consumer;
         this.requestTimestampMillis = requestTimestampMillis;
+        this.deadline = deadline;
     }
 
     private StringBuilder getDebugPrefix() {
@@ -83,11 +85,11 @@ public final class DebugFiltersBuilder {
     /**
      * Creates and returns a new all-pass debug filter. If <code>doDebug</code>
      * is <code>true</code>, then a stateless filter is returned that logs all
-     * data that passes through the filter. The log is buffered untils it is
-     * flushed out by calling the {@link StatelessFilter#writeLog(StringBuilder)}
-     * method with a <code>null</code> argument. Otherwise if <code>doDebug</code>
-     * is <code>false</code>, then a "fake" all-pass filter is returned that
-     * does nothing.
+     * data that passes through the filter. The log is streamed in chunks to
+     * the {@link DebugLogSink}, the last chunk is flushed out by calling the
+     * {@link StatelessFilter#writeLog(StringBuilder)} method. Otherwise if <code>doDebug</code>
+     * is <code>false</code> or the debug level is not enabled for the logger,
+     * then a "fake" all-pass filter is returned that does nothing.
      *
      * @param doDebug whether to enable debug output
      * @param loggerName the name of the logger to be used for the debug output
@@ -96,7 +98,8 @@ public final class DebugFiltersBuilder {
      */
     public StatelessFilter<VideoData> newFilter(final boolean doDebug, final String loggerName, final String headingMessage) {
         if (!doDebug) return fakeFilter;
-        return new DebugLoggingFilter(loggerName, headingMessage, getDebugPrefix());
+        if (!LogManager.getLogger(loggerName).isDebugEnabled()) return fakeFilter; // the output would be discarded anyway
+        return new DebugLoggingFilter(loggerName, headingMessage, getDebugPrefix(), DebugLogSink.INSTANCE, deadline);
     }
 
     /**
@@ -145,27 +148,57 @@ public final class DebugFiltersBuilder {
 
     /**
      * An all-pass filter with full CSV-style logging. This debug filter is used when debug is enabled.
+     * Rows are streamed in chunks to a {@link DebugLogSink}, chunks are marked with
+     * the stream ID that is also logged to the logger, so the output can be found.
+     * Rows are not logged anymore after the soft deadline of the request.
      */
     public static final class DebugLoggingFilter implements StatelessFilter<VideoData> {
+        private static final int FLUSH_THRESHOLD = DebugLogSink.CHUNK_SIZE - 4096; // leave room for the row that crosses the threshold
+        private static final String CSV_HEADER = "\"tv-programme ID\",\"video ID\",\"tv-channel ID\",\"tv-channel partner_product_code\",\"video match ID\",\"begin time\",\"end time\",\"title\",\"catalogue-id\",\"price\",\"is-adult\",\"parental-rating\",\"run-time\",\"series-id\",\"video-category\",\"genres\",\"vod-categories\",\"imdb-url\",\"is-subscribed\",\"package partner_produce_codes\",\"tags\",\"is-HD\",\"prediction\",\"explanation\"\n";
         final Logger logger;
         final String headingMessage;
         final StringBuilder logPrefix;
+        final DebugLogSink sink;
+        final Deadline deadline;
+        final long streamId;
         final StringBuilder output;
+        final Set<PackageProduct> packages = new HashSet<>();
         int rowCount = 0;
+        int chunkRowCount = 0;
+        int droppedRowCount = 0;
+        int skippedRowCount = 0;
 
-        public DebugLoggingFilter(final String loggerName, final String headingMessage, final StringBuilder logPrefix) {
+        public DebugLoggingFilter(final String loggerName, final String headingMessage, final StringBuilder logPrefix, final DebugLogSink sink) {
+            this(loggerName, headingMessage, logPrefix, sink, Deadline.NONE);
+        }
+
+        public DebugLoggingFilter(final String loggerName, final String headingMessage, final StringBuilder logPrefix, final DebugLogSink sink, final Deadline deadline) {
             this.logger = LogManager.getLogger(loggerName);
             this.headingMessage = headingMessage;
             this.logPrefix = logPrefix;
-            this.output = new StringBuilder(16384);
+            this.sink = sink;
+            this.deadline = deadline;
+            this.streamId = sink.newStreamId();
+            this.output = new StringBuilder(DebugLogSink.CHUNK_SIZE);
+            output.append("#").append(streamId).append(" ").append(loggerName).append(": ").append(logPrefix);
+            if ((headingMessage != null) && (headingMessage.length() > 0)) {
+                output.append(", ").append(headingMessage);
+            }
+            output.append("\n").append(CSV_HEADER);
         }
 
         @Override
         public boolean test(final VideoData videoData) {
+            if (((rowCount & (Deadline.CHECK_INTERVAL - 1)) == 0) && deadline.isPastSoft()) {
+                skippedRowCount++; // debug logging is the first to go when running out of time
+                return true;
+            }
             rowCount++;
+            chunkRowCount++;
             final boolean isTvProgramme = videoData.isTvProgramme;
             final GeneralVideoProduct video = videoData.video;
-            final Set<PackageProduct> packages = new HashSet<>();
+            final Set<PackageProduct> packages = this.packages; // reused for every row
+            packages.clear();
             if (isTvProgramme) {
                 final TvProgrammeProduct tvProgramme = (TvProgrammeProduct) video;
                 output.append(tvProgramme.id);
@@ -269,23 +302,34 @@ public final class DebugFiltersBuilder {
             output.append(",").append(videoData.prediction).append(",");
             if (videoData.explanation != null) output.append("\"").append(videoData.explanation.replace("\"", "\"\"")).append("\"");
             output.append("\n");
+            if (output.length() >= FLUSH_THRESHOLD) flushChunk();
             return true;
         }
 
         @Override
         public void writeLog(final StringBuilder output) {
-            // this acts as a flush of the internal StringBuilder, we don't append anything to the provided output
-            final StringBuilder logBuilder = new StringBuilder(this.output.length() + logPrefix.length() + 100); // guesstimate
+            // this acts as a flush of the streamed output, we don't append anything to the provided output
+            this.output.append("#").append(streamId).append(" end: DataSet of size ").append(rowCount + skippedRowCount).append("\n");
+            flushChunk();
+            final StringBuilder logBuilder = new StringBuilder(logPrefix.length() + 200);
             logBuilder.append("[Thread ").append(Thread.currentThread().getId()).append("] ").append(logPrefix)
-                    .append("\nDataSet of size ").append(rowCount);
+                    .append("\nDataSet of size ").append(rowCount + skippedRowCount);
             if ((headingMessage != null) && (headingMessage.length() > 0)) {
                 logBuilder.append(", ").append(headingMessage);
             }
-            logBuilder.append("\n\"tv-programme ID\",\"video ID\",\"tv-channel ID\",\"tv-channel partner_product_code\",\"video match ID\",\"begin time\",\"end time\",\"title\",\"catalogue-id\",\"price\",\"is-adult\",\"parental-rating\",\"run-time\",\"series-id\",\"video-category\",\"genres\",\"vod-categories\",\"imdb-url\",\"is-subscribed\",\"package partner_produce_codes\",\"tags\",\"is-HD\",\"prediction\",\"explanation\"\n");
-            logBuilder.append(this.output);
+            logBuilder.append(", streamed as #").append(streamId).append(" into ").append(sink.directory);
+            if (droppedRowCount > 0) logBuilder.append(", ").append(droppedRowCount).append(" rows were dropped");
+            if (skippedRowCount > 0) logBuilder.append(", ").append(skippedRowCount).append(" rows were skipped at the soft deadline");
             logger.debug(logBuilder.toString());
         }
 
+        private void flushChunk() {
+            if (!sink.offer(output.toString())) droppedRowCount += chunkRowCount;
+            chunkRowCount = 0;
+            output.setLength(0);
+            output.append("#").append(streamId).append("\n");
+        }
+
         private static void outputArrayValue(final String[] values, final StringBuilder output) {
             final int n = values.length;
             if (n == 0) return;
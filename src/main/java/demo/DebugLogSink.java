@@ -0,0 +1,237 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous sink for debug CSV output. Producers hand over chunks of at
+ * most about {@link #CHUNK_SIZE} characters, which are put on a bounded
+ * queue and written into rotating files by a background thread. When the
+ * queue is full the chunk is dropped and counted, so producers never block
+ * and the memory used by queued chunks is capped at roughly
+ * <code>queueCapacity * CHUNK_SIZE</code> characters.
+ * The background thread exits after being idle for a while and is started
+ * again with the next chunk, so a generation of blenders that was replaced
+ * by a recompilation doesn't leave a thread behind.
+ * <p>
+ * Output of several producers is interleaved in the same files, every chunk
+ * starts with a <code>#&lt;stream-id&gt;</code> line identifying its producer.
+ * The sink is configured with system properties:
+ * <ul>
+ *     <li><code>demo.blenders.debug.directory</code>: where to put files, the default is <code>blenders-debug</code> in the temporary directory,</li>
+ *     <li><code>demo.blenders.debug.maxFileBytes</code>: the size at which a file is rotated, 64 MB by default,</li>
+ *     <li><code>demo.blenders.debug.fileCount</code>: how many rotated files to keep, 10 by default,</li>
+ *     <li><code>demo.blenders.debug.queueCapacity</code>: the maximum number of queued chunks, 128 by default.</li>
+ * </ul>
+ */
+public final class DebugLogSink {
+    private static final Logger log = LogManager.getLogger(DebugLogSink.class);
+    public static final int CHUNK_SIZE = 65536;
+    private static final long IDLE_MILLIS = 60000L;
+    private static final String FILE_NAME = "blenders-debug.csv";
+
+    public static final DebugLogSink INSTANCE = new DebugLogSink(
+            Paths.get(System.getProperty("demo.blenders.debug.directory", Paths.get(System.getProperty("java.io.tmpdir"), "blenders-debug").toString())),
+            Long.getLong("demo.blenders.debug.maxFileBytes", 64L * 1024L * 1024L),
+            Integer.getInteger("demo.blenders.debug.fileCount", 10),
+            Integer.getInteger("demo.blenders.debug.queueCapacity", 128)
+    );
+
+    public final Path directory;
+    private final long maxFileBytes;
+    private final int fileCount;
+    private final ArrayBlockingQueue<String> queue;
+    private final AtomicLong streamCounter = new AtomicLong();
+    private final AtomicLong writtenChunks = new AtomicLong();
+    private final AtomicLong droppedChunks = new AtomicLong();
+    private final Object writerLock = new Object();
+    private volatile boolean writerRunning = false; // guarded by writerLock for writes
+
+    // accessed only by the writer thread
+    private Writer out = null;
+    private long fileBytes = 0L;
+    private long reportedDrops = 0L;
+
+    public DebugLogSink(final Path directory, final long maxFileBytes, final int fileCount, final int queueCapacity) {
+        this.directory = directory;
+        this.maxFileBytes = maxFileBytes;
+        this.fileCount = fileCount < 1 ? 1 : fileCount;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity < 1 ? 1 : queueCapacity);
+    }
+
+    /**
+     * Returns a new stream ID, to be used by a producer to mark its chunks.
+     *
+     * @return a unique stream ID
+     */
+    public long newStreamId() {
+        return streamCounter.incrementAndGet();
+    }
+
+    /**
+     * Queues the chunk for writing. Never blocks: if the queue is full, the
+     * chunk is dropped.
+     *
+     * @param chunk the chunk to write
+     * @return whether the chunk was queued, <code>false</code> if it was dropped
+     */
+    public boolean offer(final String chunk) {
+        if (!queue.offer(chunk)) {
+            droppedChunks.incrementAndGet();
+            return false;
+        }
+        if (!writerRunning) startWriter();
+        return true;
+    }
+
+    public long getWrittenChunks() {
+        return writtenChunks.get();
+    }
+
+    public long getDroppedChunks() {
+        return droppedChunks.get();
+    }
+
+    public int getQueuedChunks() {
+        return queue.size();
+    }
+
+    private void startWriter() {
+        synchronized (writerLock) {
+            if (writerRunning) return;
+            writerRunning = true;
+        }
+        final Thread writer = new Thread(this::drain, "blenders-debug-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes queued chunks until the queue stays empty for a while. The file
+     * is closed before the writer stops, so a writer started afterwards never
+     * shares it.
+     */
+    private void drain() {
+        try {
+            for (;;) {
+                final String chunk = queue.poll(IDLE_MILLIS, TimeUnit.MILLISECONDS);
+                if (chunk != null) {
+                    write(chunk);
+                    if (queue.isEmpty()) flush();
+                    continue;
+                }
+                close();
+                synchronized (writerLock) {
+                    writerRunning = false;
+                }
+                // a producer may have queued a chunk and seen the writer still running just before the flag was cleared
+                if (queue.isEmpty()) break;
+                synchronized (writerLock) {
+                    if (writerRunning) break; // another producer started a new writer
+                    writerRunning = true;
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            close();
+            synchronized (writerLock) {
+                writerRunning = false;
+            }
+        }
+    }
+
+    private void write(final String chunk) {
+        try {
+            if (out == null) open();
+            else if (fileBytes >= maxFileBytes) {
+                close();
+                rotate();
+                open();
+            }
+            out.write(chunk);
+            fileBytes += chunk.length(); // an approximation: the output is mostly ASCII
+            writtenChunks.incrementAndGet();
+        }
+        catch (IOException e) {
+            droppedChunks.incrementAndGet();
+            log.error("Failed to write debug output into " + directory + ": " + e.toString(), e);
+            close();
+        }
+        final long drops = droppedChunks.get();
+        if (drops != reportedDrops) {
+            log.warn("Dropped " + (drops - reportedDrops) + " debug output chunks, the writer cannot keep up");
+            reportedDrops = drops;
+        }
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(directory);
+        final Path file = directory.resolve(FILE_NAME);
+        fileBytes = Files.exists(file) ? Files.size(file) : 0L;
+        out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private void rotate() throws IOException {
+        // shift blenders-debug.csv.(n-1) to blenders-debug.csv.n, the oldest is overwritten
+        for (int i = fileCount - 1; i >= 1; i--) {
+            final Path source = directory.resolve(FILE_NAME + "." + i);
+            if (Files.exists(source)) Files.move(source, directory.resolve(FILE_NAME + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+        }
+        final Path current = directory.resolve(FILE_NAME);
+        if (fileCount > 1) Files.move(current, directory.resolve(FILE_NAME + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        else Files.deleteIfExists(current);
+        fileBytes = 0L;
+    }
+
+    private void flush() {
+        if (out == null) return;
+        try {
+            out.flush();
+        }
+        catch (IOException e) {
+            log.error("Failed to flush debug output into " + directory + ": " + e.toString(), e);
+            close();
+        }
+    }
+
+    private void close() {
+        if (out == null) return;
+        try {
+            out.close();
+        }
+        catch (IOException e) {
+            log.error("Failed to close debug output in " + directory + ": " + e.toString(), e);
+        }
+        out = null;
+    }
+}
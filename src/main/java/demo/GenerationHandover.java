@@ -0,0 +1,172 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo;
+
+import com.gurucue.recommendations.blender.BlendEnvironment;
+import com.gurucue.recommendations.data.DataProvider;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Hands state over from one generation of blenders to the next. The REST
+ * API recompiles the blenders into a new class loader whenever their
+ * sources change, so classes of one generation are not visible to the next
+ * one, and their indexes and caches would be lost.
+ * <p>
+ * Every generation publishes a supplier of its {@link HandoverState} in the
+ * system properties, which are shared by all class loaders and by the
+ * blenders of all partners, under a name containing the partner username.
+ * The partner is the top-level package of the top blenders, as the source
+ * directories of the blenders are named after the partner. When the first
+ * top blender of a new generation is created, it takes the state of the
+ * previous generation of its partner and publishes its own supplier, which
+ * releases the previous generation. The first request then starts the
+ * {@link WarmUp} on the products in the state in the background, with the
+ * data provider of the request. The first generation after a server start
+ * has no previous generation, it maps the {@link CatalogueSnapshot} instead.
+ */
+public final class GenerationHandover {
+    private static final Logger log = LogManager.getLogger(GenerationHandover.class);
+    public static final String SLOT_PREFIX = "demo.blenders.handover.";
+
+    private static volatile String partnerUsername = null; // set once, by the first top blender
+    private static volatile Supplier<Map<String, Object>> published = null;
+    private static volatile List<GeneralVideoProduct> pendingWarmUp = null;
+
+    private GenerationHandover() {}
+
+    /**
+     * Takes over the state of the previous generation of the partner of
+     * the top blender, once per generation.
+     *
+     * @param topBlender the class of the top blender
+     */
+    public static void enable(final Class<?> topBlender) {
+        if (partnerUsername == null) start(partnerOf(topBlender));
+    }
+
+    /**
+     * Returns the partner of the blender: the top-level package of its class.
+     */
+    static String partnerOf(final Class<?> blender) {
+        final String packageName = blender.getName().substring(0, Math.max(0, blender.getName().lastIndexOf('.')));
+        final int dot = packageName.indexOf('.');
+        return dot < 0 ? packageName : packageName.substring(0, dot);
+    }
+
+    /**
+     * Returns the name of the system property with the state of the blenders of the partner.
+     */
+    static String slot(final String partnerUsername) {
+        return SLOT_PREFIX + partnerUsername;
+    }
+
+    /**
+     * Takes over the state of the previous generation of the blenders of the partner.
+     */
+    private static synchronized void start(final String partnerUsername) {
+        if (GenerationHandover.partnerUsername != null) return;
+        final long startNanos = System.nanoTime();
+        final String slot = slot(partnerUsername);
+        final Object previous = System.getProperties().get(slot);
+        Map<?, ?> map = null;
+        if (previous instanceof Supplier) {
+            try {
+                final Object s = ((Supplier<?>) previous).get();
+                if (s instanceof Map) map = (Map<?, ?>) s;
+            }
+            catch (RuntimeException e) {
+                log.error("Failed to obtain the state of the previous generation of blenders of " + partnerUsername + ": " + e.toString(), e);
+            }
+        }
+        if (map == null) {
+            log.info("No state of a previous generation of blenders of " + partnerUsername);
+            CatalogueSnapshot.load(partnerUsername);
+        }
+        else {
+            try {
+                final HandoverState state = HandoverState.fromMap(map);
+                if (state == null) log.info("Ignoring the state of a previous generation of blenders of " + partnerUsername + " with version " + map.get("version") + ", the current version is " + HandoverState.VERSION);
+                else {
+                    state.apply();
+                    final List<GeneralVideoProduct> products = state.products();
+                    if (!products.isEmpty()) pendingWarmUp = products;
+                    log.info("Took over the state of the previous generation of blenders of " + partnerUsername + ", with " + products.size() + " products, in " + ((System.nanoTime() - startNanos) / 1000000L) + " ms");
+                }
+            }
+            catch (RuntimeException e) {
+                log.error("Failed to take over the state of the previous generation of blenders of " + partnerUsername + ": " + e.toString(), e);
+            }
+        }
+        published = GenerationHandover::export;
+        System.getProperties().put(slot, published);
+        GenerationHandover.partnerUsername = partnerUsername;
+        CatalogueSnapshot.startWriter(partnerUsername);
+    }
+
+    /**
+     * Runs the warm-up in a daemon thread, so the request that started it
+     * doesn't wait for it.
+     */
+    private static void warmUp(final List<GeneralVideoProduct> products, final DataProvider dataProvider) {
+        final Thread t = new Thread(() -> {
+            try {
+                WarmUp.run(products, dataProvider);
+            }
+            catch (RuntimeException e) {
+                log.error("Failed to warm up the blenders: " + e.toString(), e);
+            }
+        }, "blenders-warm-up");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Returns whether this generation of blenders is the current one, its state not yet taken by a newer one.
+     */
+    static boolean isCurrent() {
+        final String partner = partnerUsername;
+        final Supplier<Map<String, Object>> supplier = published;
+        return (partner != null) && (supplier != null) && (System.getProperties().get(slot(partner)) == supplier);
+    }
+
+    /**
+     * Starts the warm-up on the products taken over from the previous
+     * generation, with the data provider of the first request.
+     */
+    public static void record(final BlendEnvironment environment) {
+        if (pendingWarmUp == null) return;
+        final List<GeneralVideoProduct> products;
+        synchronized (GenerationHandover.class) {
+            products = pendingWarmUp;
+            pendingWarmUp = null;
+        }
+        if (products != null) warmUp(products, environment.dataProvider);
+    }
+
+    static Map<String, Object> export() {
+        CatalogueSnapshot.stopWriter(); // the next generation writes the snapshot
+        return HandoverState.collect().toMap();
+    }
+}
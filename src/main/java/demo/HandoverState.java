@@ -0,0 +1,210 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo;
+
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import demo.catalogue.PersonIndex;
+import demo.filters.CommonSearchFilter;
+import demo.recommenders.RecommendationCache;
+import demo.recommenders.SimilarItems;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The state one generation of blenders hands over to the next one: plain
+ * data, no providers, connections or other live objects of the REST API.
+ * <p>
+ * The typed fields are classes of a generation, which the next generation
+ * can't see, so the state crosses the class loaders as a map of JDK and
+ * REST API types, see {@link #toMap()} and {@link #fromMap(Map)}; the
+ * encoding is kept within this class. Whenever it changes, the
+ * {@link #VERSION} is increased.
+ */
+final class HandoverState {
+    static final int VERSION = 4;
+
+    /** Word match statistics, see {@link demo.filters.WordMatchStatistics#export()}. */
+    final Map<String, long[]> wordStatistics;
+    /** Products in the person index. */
+    final List<GeneralVideoProduct> personIndex;
+    /** Similar lists, by variant and product ID. */
+    final Map<String, Map<Long, SimilarItems.Entry>> similarItems;
+    /** Cached rankings, see {@link RecommendationCache#export(boolean)}. */
+    final Map<String, RecommendationCache.Entry> rankings;
+    /** Cached candidates, see {@link RecommendationCache#export(boolean)}. */
+    final Map<String, RecommendationCache.Entry> candidates;
+
+    HandoverState(
+            final Map<String, long[]> wordStatistics,
+            final List<GeneralVideoProduct> personIndex,
+            final Map<String, Map<Long, SimilarItems.Entry>> similarItems,
+            final Map<String, RecommendationCache.Entry> rankings,
+            final Map<String, RecommendationCache.Entry> candidates
+    ) {
+        this.wordStatistics = wordStatistics;
+        this.personIndex = personIndex;
+        this.similarItems = similarItems;
+        this.rankings = rankings;
+        this.candidates = candidates;
+    }
+
+    /**
+     * Collects the state of this generation.
+     */
+    static HandoverState collect() {
+        final Map<String, Map<Long, SimilarItems.Entry>> similarItems = new HashMap<>();
+        similarItems.put(SimilarItems.DEFAULT, SimilarItems.INSTANCE.export(SimilarItems.DEFAULT));
+        similarItems.put(SimilarItems.HD, SimilarItems.INSTANCE.export(SimilarItems.HD));
+        return new HandoverState(
+                CommonSearchFilter.getWordStatistics().export(),
+                PersonIndex.current().products(),
+                similarItems,
+                RecommendationCache.INSTANCE.export(false),
+                RecommendationCache.INSTANCE.export(true)
+        );
+    }
+
+    /**
+     * Imports the state into this generation.
+     */
+    void apply() {
+        CommonSearchFilter.getWordStatistics().addAll(wordStatistics);
+        PersonIndex.refresh(personIndex);
+        for (final Map.Entry<String, Map<Long, SimilarItems.Entry>> variant : similarItems.entrySet()) {
+            SimilarItems.INSTANCE.addAll(variant.getKey(), variant.getValue());
+        }
+        RecommendationCache.INSTANCE.addAll(rankings, false);
+        RecommendationCache.INSTANCE.addAll(candidates, true);
+    }
+
+    /**
+     * Returns the distinct products found in the state.
+     */
+    List<GeneralVideoProduct> products() {
+        final Set<GeneralVideoProduct> products = Collections.newSetFromMap(new IdentityHashMap<>());
+        products.addAll(personIndex);
+        for (final Map<Long, SimilarItems.Entry> lists : similarItems.values()) {
+            for (final SimilarItems.Entry list : lists.values()) Collections.addAll(products, list.products);
+        }
+        for (final RecommendationCache.Entry ranking : rankings.values()) Collections.addAll(products, ranking.products);
+        for (final RecommendationCache.Entry ranking : candidates.values()) Collections.addAll(products, ranking.products);
+        return new ArrayList<>(products);
+    }
+
+    /**
+     * Converts the state to a map of JDK and REST API types, visible to the
+     * next generation. Similar lists and rankings become arrays of the
+     * products, their predictions, the requested size, and the computation
+     * time or whether the ranking is exhaustive, respectively.
+     */
+    Map<String, Object> toMap() {
+        final Map<String, Object> map = new HashMap<>();
+        map.put("version", VERSION);
+        map.put("wordStatistics", wordStatistics);
+        map.put("personIndex", personIndex);
+        final Map<String, Map<Long, Object[]>> similar = new HashMap<>();
+        for (final Map.Entry<String, Map<Long, SimilarItems.Entry>> variant : similarItems.entrySet()) {
+            final Map<Long, Object[]> lists = new HashMap<>(variant.getValue().size() * 2);
+            for (final Map.Entry<Long, SimilarItems.Entry> e : variant.getValue().entrySet()) {
+                final SimilarItems.Entry list = e.getValue();
+                lists.put(e.getKey(), new Object[]{list.products, list.predictions, list.requestedSize, list.computedMillis});
+            }
+            similar.put(variant.getKey(), lists);
+        }
+        map.put("similarItems", similar);
+        map.put("rankings", toMap(rankings));
+        map.put("candidates", toMap(candidates));
+        return map;
+    }
+
+    /**
+     * Converts a map in the form of {@link #toMap()} back, skipping
+     * malformed entries, or returns <code>null</code> when it is of a
+     * different version.
+     */
+    static HandoverState fromMap(final Map<?, ?> map) {
+        if (!Integer.valueOf(VERSION).equals(map.get("version"))) return null;
+        final Map<String, long[]> wordStatistics = new HashMap<>();
+        final Object words = map.get("wordStatistics");
+        if (words instanceof Map) {
+            for (final Map.Entry<?, ?> e : ((Map<?, ?>) words).entrySet()) {
+                if ((e.getKey() instanceof String) && (e.getValue() instanceof long[])) wordStatistics.put((String) e.getKey(), (long[]) e.getValue());
+            }
+        }
+        final List<GeneralVideoProduct> personIndex = new ArrayList<>();
+        final Object indexed = map.get("personIndex");
+        if (indexed instanceof List) {
+            for (final Object product : (List<?>) indexed) {
+                if (product instanceof GeneralVideoProduct) personIndex.add((GeneralVideoProduct) product);
+            }
+        }
+        final Map<String, Map<Long, SimilarItems.Entry>> similarItems = new HashMap<>();
+        final Object similar = map.get("similarItems");
+        if (similar instanceof Map) {
+            for (final Map.Entry<?, ?> variant : ((Map<?, ?>) similar).entrySet()) {
+                if (!(variant.getKey() instanceof String) || !(variant.getValue() instanceof Map)) continue;
+                final Map<Long, SimilarItems.Entry> lists = new HashMap<>();
+                for (final Map.Entry<?, ?> e : ((Map<?, ?>) variant.getValue()).entrySet()) {
+                    final Object[] v = entry(e.getValue(), Long.class);
+                    if ((v != null) && (e.getKey() instanceof Long)) lists.put((Long) e.getKey(), new SimilarItems.Entry((GeneralVideoProduct[]) v[0], (double[]) v[1], (Integer) v[2], (Long) v[3]));
+                }
+                similarItems.put((String) variant.getKey(), lists);
+            }
+        }
+        return new HandoverState(wordStatistics, personIndex, similarItems, rankingsFromMap(map.get("rankings")), rankingsFromMap(map.get("candidates")));
+    }
+
+    private static Map<String, Object[]> toMap(final Map<String, RecommendationCache.Entry> rankings) {
+        final Map<String, Object[]> result = new HashMap<>(rankings.size() * 2);
+        for (final Map.Entry<String, RecommendationCache.Entry> e : rankings.entrySet()) {
+            final RecommendationCache.Entry ranking = e.getValue();
+            result.put(e.getKey(), new Object[]{ranking.products, ranking.predictions, ranking.requestedSize, ranking.isExhaustive});
+        }
+        return result;
+    }
+
+    private static Map<String, RecommendationCache.Entry> rankingsFromMap(final Object rankings) {
+        final Map<String, RecommendationCache.Entry> result = new HashMap<>();
+        if (!(rankings instanceof Map)) return result;
+        for (final Map.Entry<?, ?> e : ((Map<?, ?>) rankings).entrySet()) {
+            final Object[] v = entry(e.getValue(), Boolean.class);
+            if ((v != null) && (e.getKey() instanceof String)) result.put((String) e.getKey(), new RecommendationCache.Entry((GeneralVideoProduct[]) v[0], (double[]) v[1], (Integer) v[2], (Boolean) v[3]));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the value as an array of products, their predictions, the
+     * requested size and a value of the given type, or <code>null</code>
+     * if it is not one.
+     */
+    private static Object[] entry(final Object value, final Class<?> lastType) {
+        if (!(value instanceof Object[])) return null;
+        final Object[] v = (Object[]) value;
+        if ((v.length != 4) || !(v[0] instanceof GeneralVideoProduct[]) || !(v[1] instanceof double[]) || !(v[2] instanceof Integer) || !lastType.isInstance(v[3])) return null;
+        if (((GeneralVideoProduct[]) v[0]).length != ((double[]) v[1]).length) return null;
+        return v;
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo;
+
+import com.gurucue.recommendations.ResponseException;
+import com.gurucue.recommendations.ResponseStatus;
+import demo.stats.LatencyHistogram;
+import demo.stats.MetricsControl;
+
+import javax.management.ObjectName;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The execution budget of a partner, so the traffic of one partner can't
+ * starve the others sharing the request threads of the REST API. A budget
+ * bounds the number of requests of the partner blended concurrently. Once
+ * they are all taken, a few more requests wait a very short time, the
+ * others are rejected at once with an {@link OverloadedException}, so a
+ * partner over its limit can't park request threads. Parallel work of the partner runs on the partner's own worker
+ * threads, and caches holding per-partner state are bounded by the
+ * partner's quota. Budgets are keyed by the partner username and exported
+ * through JMX as <code>demo.blenders:type=PartnerBudget,partner=...</code>.
+ * <p>
+ * Budgets are configured with system properties, each of them can be set for
+ * a single partner by inserting its username, e.g.
+ * <code>demo.blenders.partner.acme.maxConcurrent</code>:
+ * <ul>
+ *     <li><code>demo.blenders.partner.maxConcurrent</code>: how many requests are blended concurrently, the number of processors by default,</li>
+ *     <li><code>demo.blenders.partner.maxQueued</code>: how many requests wait to be blended, as many as are blended concurrently by default,</li>
+ *     <li><code>demo.blenders.partner.maxWaitMillis</code>: how long a request waits to be blended, 50 by default,</li>
+ *     <li><code>demo.blenders.partner.workerThreads</code>: the number of threads for parallel work, half the number of processors by default,</li>
+ *     <li><code>demo.blenders.partner.maxCachedProducts</code>: the quota of cached products, in rankings, 10000000 by default.</li>
+ * </ul>
+ */
+public final class PartnerBudget implements PartnerBudgetMXBean {
+    private static final String PROPERTY_PREFIX = "demo.blenders.partner.";
+    private static final ConcurrentMap<String, PartnerBudget> registry = new ConcurrentHashMap<>();
+
+    public final String partnerUsername;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final long maxWaitMillis;
+    private final int maxCachedProducts;
+    private final int workerThreads;
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final LatencyHistogram waits = new LatencyHistogram();
+    private final AtomicLong workerRejected = new AtomicLong();
+    private volatile ThreadPoolExecutor workers = null;
+
+    private PartnerBudget(final String partnerUsername) {
+        final int processors = Runtime.getRuntime().availableProcessors();
+        this.partnerUsername = partnerUsername;
+        maxConcurrent = Math.max(1, setting(partnerUsername, "maxConcurrent", processors));
+        maxQueued = Math.max(0, setting(partnerUsername, "maxQueued", maxConcurrent));
+        maxWaitMillis = Math.max(0, setting(partnerUsername, "maxWaitMillis", 50));
+        maxCachedProducts = Math.max(0, setting(partnerUsername, "maxCachedProducts", 10000000));
+        workerThreads = Math.max(1, setting(partnerUsername, "workerThreads", processors / 2));
+        permits = new Semaphore(maxConcurrent);
+    }
+
+    private static int setting(final String partnerUsername, final String name, final int defaultValue) {
+        return Integer.getInteger(PROPERTY_PREFIX + partnerUsername + "." + name, Integer.getInteger(PROPERTY_PREFIX + name, defaultValue));
+    }
+
+    /**
+     * Returns the budget of the partner, creating and registering it with
+     * JMX if it doesn't exist yet.
+     *
+     * @param partnerUsername the username of the partner
+     * @return the budget
+     */
+    public static PartnerBudget of(final String partnerUsername) {
+        final PartnerBudget existing = registry.get(partnerUsername);
+        if (existing != null) return existing;
+        final PartnerBudget created = new PartnerBudget(partnerUsername);
+        final PartnerBudget raced = registry.putIfAbsent(partnerUsername, created);
+        if (raced != null) return raced;
+        MetricsControl.register(created, MetricsControl.JMX_DOMAIN + ":type=PartnerBudget,partner=" + ObjectName.quote(partnerUsername));
+        return created;
+    }
+
+    /**
+     * Does the work within the budget: waits shortly for a free slot if all
+     * are taken, or rejects the request if too many requests are waiting, or
+     * a slot doesn't free up in time. Only the work itself should run within
+     * the budget, not waiting for the work of other requests.
+     *
+     * @param work the work of the request
+     * @return the result
+     * @throws OverloadedException if the request is rejected
+     * @throws ResponseException if the work fails
+     */
+    public <R> R run(final SingleFlight.Work<R> work) throws ResponseException {
+        if (!permits.tryAcquire()) {
+            if (queued.incrementAndGet() > maxQueued) {
+                queued.decrementAndGet();
+                rejected.incrementAndGet();
+                throw new OverloadedException(partnerUsername, "too many requests are waiting to be blended");
+            }
+            final long start = System.nanoTime();
+            boolean acquired = false;
+            try {
+                acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                queued.decrementAndGet();
+            }
+            waits.record(System.nanoTime() - start);
+            if (!acquired) {
+                rejected.incrementAndGet();
+                throw new OverloadedException(partnerUsername, "no request finished blending within " + maxWaitMillis + " ms");
+            }
+            waited.incrementAndGet();
+        }
+        admitted.incrementAndGet();
+        try {
+            return work.run();
+        }
+        finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Returns the executor of parallel work of the partner. Its queue is
+     * bounded, and when it is full tasks are rejected with a
+     * {@link RejectedExecutionException}, so callers must be prepared to do
+     * the work themselves or skip it.
+     */
+    public Executor workers() {
+        ThreadPoolExecutor executor = workers;
+        if (executor != null) return executor;
+        synchronized (this) {
+            if (workers == null) {
+                final AtomicInteger threadCount = new AtomicInteger();
+                executor = new ThreadPoolExecutor(workerThreads, workerThreads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1000), runnable -> {
+                    final Thread thread = new Thread(runnable, "blenders-" + partnerUsername + "-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, (runnable, pool) -> {
+                    workerRejected.incrementAndGet();
+                    throw new RejectedExecutionException("The worker queue of partner " + partnerUsername + " is full");
+                });
+                executor.allowCoreThreadTimeOut(true);
+                workers = executor;
+            }
+            return workers;
+        }
+    }
+
+    @Override
+    public String getPartnerUsername() {
+        return partnerUsername;
+    }
+
+    @Override
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    @Override
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    @Override
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    @Override
+    public int getMaxCachedProducts() {
+        return maxCachedProducts;
+    }
+
+    @Override
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    @Override
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /** The number of requests blended. */
+    @Override
+    public long getAdmitted() {
+        return admitted.get();
+    }
+
+    /** The number of requests blended after waiting for a free slot. */
+    @Override
+    public long getWaited() {
+        return waited.get();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @Override
+    public long getWaitP99Micros() {
+        return waits.getValueAtPercentile(99.0) / 1000L;
+    }
+
+    @Override
+    public long getWaitMaxMicros() {
+        return waits.getMax() / 1000L;
+    }
+
+    @Override
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    @Override
+    public long getWorkerTasks() {
+        final ThreadPoolExecutor executor = workers;
+        return executor == null ? 0L : executor.getTaskCount();
+    }
+
+    @Override
+    public long getWorkerRejected() {
+        return workerRejected.get();
+    }
+
+    /**
+     * Rejection of a request because its partner is over its limit, as
+     * opposed to a failure of blending; the client should retry later. The
+     * message starts with <code>Overloaded:</code>.
+     */
+    public static final class OverloadedException extends ResponseException {
+        public final String partnerUsername;
+
+        OverloadedException(final String partnerUsername, final String reason) {
+            super(ResponseStatus.UNKNOWN_ERROR, "Overloaded: partner " + partnerUsername + " is over its limit, " + reason + ", retry later");
+            this.partnerUsername = partnerUsername;
+        }
+    }
+}
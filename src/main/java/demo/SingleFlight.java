@@ -0,0 +1,131 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo;
+
+import com.gurucue.recommendations.ResponseException;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces identical concurrent requests: the first request with a key,
+ * the leader, does the work, and requests with the same key arriving while
+ * it is in flight, the followers, wait for its result and return it too.
+ * A follower waits at most the configured time, after that, or if the
+ * leader fails, it does the work itself. Results are not kept after the
+ * leader completes, this is not a cache.
+ * <p>
+ * The leader and its followers get the same instance of the result, so
+ * only immutable results are coalesced, like a ranking, and every request
+ * builds its own blender result from it.
+ *
+ * @param <R> the type of results, immutable
+ */
+public final class SingleFlight<R> {
+    private static final Logger log = LogManager.getLogger(SingleFlight.class);
+
+    private final String name;
+    private final long maxWaitMillis;
+    private final ConcurrentHashMap<String, CompletableFuture<R>> flights = new ConcurrentHashMap<>();
+    private final AtomicLong led = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong fallbacks = new AtomicLong();
+
+    /**
+     * @param name the name used in logs
+     * @param maxWaitMillis how long a follower waits for the leader, 0 disables coalescing
+     */
+    public SingleFlight(final String name, final long maxWaitMillis) {
+        this.name = name;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Returns the result of the request in flight with the same key, or
+     * does the work.
+     *
+     * @param key the key identifying requests with the same result, <code>null</code> if the request must not be coalesced
+     * @param work computes the result
+     * @return the result
+     * @throws ResponseException if the work fails
+     */
+    public R run(final String key, final Work<R> work) throws ResponseException {
+        if ((key == null) || (maxWaitMillis <= 0L)) return work.run();
+        final CompletableFuture<R> flight = new CompletableFuture<>();
+        final CompletableFuture<R> leader = flights.putIfAbsent(key, flight);
+        if (leader == null) {
+            led.incrementAndGet();
+            try {
+                final R result = work.run();
+                flight.complete(result);
+                return result;
+            }
+            catch (ResponseException | RuntimeException | Error e) {
+                flight.completeExceptionally(e);
+                throw e;
+            }
+            finally {
+                flights.remove(key, flight);
+            }
+        }
+        try {
+            final R result = leader.get(maxWaitMillis, TimeUnit.MILLISECONDS);
+            coalesced.incrementAndGet();
+            return result;
+        }
+        catch (TimeoutException | ExecutionException e) {
+            fallbacks.incrementAndGet();
+            if (log.isDebugEnabled()) log.debug(name + ": not waiting for the leader of " + key + ": " + e.toString());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fallbacks.incrementAndGet();
+        }
+        return work.run();
+    }
+
+    /** The number of requests that did the work for others. */
+    public long getLed() {
+        return led.get();
+    }
+
+    /** The number of requests that returned the result of a leader. */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /** The number of followers that did the work themselves, because the leader failed or was too slow. */
+    public long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    public interface Work<R> {
+        R run() throws ResponseException;
+    }
+}
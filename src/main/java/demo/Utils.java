@@ -18,9 +18,17 @@
  */
 package demo;
 
+import com.gurucue.recommendations.blender.BlendEnvironment;
 import com.gurucue.recommendations.blender.BlendParameters;
 import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import com.gurucue.recommendations.entity.product.Product;
 import com.gurucue.recommendations.entity.value.AttributeValues;
+import com.gurucue.recommendations.entitymanager.ProductManager;
+import gnu.trove.set.TLongSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Various utility methods for blender processing.
@@ -50,6 +58,75 @@ public final class Utils {
         }
     }
 
+    /**
+     * Returns the index of the first item of the requested page, the
+     * default is 0.
+     */
+    public static int offset(final BlendParameters parameters) {
+        try {
+            final Integer offsetObj = (Integer)parameters.input.get("offset");
+            if ((offsetObj == null) || (offsetObj.intValue() < 0)) return 0;
+            return offsetObj.intValue();
+        }
+        catch (ClassCastException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Returns whether the given boolean input is set, the default is <code>false</code>.
+     */
+    public static boolean flag(final BlendParameters parameters, final String name) {
+        try {
+            final Boolean flagObj = (Boolean)parameters.input.get(name);
+            return (flagObj != null) && flagObj.booleanValue();
+        }
+        catch (ClassCastException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the requested time range of tv-programmes, given with the
+     * <code>timeFrom</code> and <code>timeTo</code> inputs in milliseconds.
+     *
+     * @param parameters the blending parameters
+     * @return the array of the start, inclusive, and the end, exclusive, or <code>null</code> if no valid range is requested
+     */
+    public static long[] timeRange(final BlendParameters parameters) {
+        try {
+            final Number from = (Number)parameters.input.get("timeFrom");
+            final Number to = (Number)parameters.input.get("timeTo");
+            if ((from == null) || (to == null) || (from.longValue() >= to.longValue())) return null;
+            return new long[]{from.longValue(), to.longValue()};
+        }
+        catch (ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns how long a blend request waits for an identical request in
+     * flight, see {@link SingleFlight}.
+     */
+    public static long singleFlightMaxWaitMillis() {
+        return Long.getLong("demo.blenders.singleFlight.maxWaitMillis", 2000L);
+    }
+
+    /**
+     * Returns the IDs of products the consumer is entitled to at the request
+     * time, sorted, as a string to be used in keys. Consumers with the same
+     * entitlements are offered the same content.
+     */
+    public static String entitlementsKey(final BlendEnvironment environment) {
+        if (environment.consumer == null) return "-";
+        final TLongSet entitlements = environment.consumer.activeRelationProductIds(environment.requestTimestampMillis);
+        if (entitlements == null) return "-";
+        final long[] ids = entitlements.toArray();
+        Arrays.sort(ids);
+        return Arrays.toString(ids);
+    }
+
     private static final GeneralVideoProduct[] NO_PRODUCTS = new GeneralVideoProduct[0];
 
     public static GeneralVideoProduct[] referencedProducts(final BlendParameters parameters) {
@@ -62,4 +139,18 @@ public final class Utils {
             return NO_PRODUCTS;
         }
     }
+
+    /**
+     * Looks up video products by their IDs, in the given order, skipping
+     * the IDs of products that no longer exist or are not videos.
+     */
+    public static List<GeneralVideoProduct> products(final BlendEnvironment environment, final long[] ids) {
+        final ProductManager pm = environment.transaction.getLink().getProductManager();
+        final List<GeneralVideoProduct> result = new ArrayList<>(ids.length);
+        for (final long id : ids) {
+            final Product product = pm.getById(environment.transaction, environment.partner, id, false);
+            if (product instanceof GeneralVideoProduct) result.add((GeneralVideoProduct) product);
+        }
+        return result;
+    }
 }
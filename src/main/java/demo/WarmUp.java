@@ -0,0 +1,113 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo;
+
+import com.gurucue.recommendations.blender.StatelessFilter;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.data.DataProvider;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import com.gurucue.recommendations.entity.product.TvProgrammeProduct;
+import com.gurucue.recommendations.entity.product.VideoProduct;
+import demo.filters.AcceptOnlyAnySeries;
+import demo.filters.AcceptOnlyEpisodesOfSeries;
+import demo.filters.ActorsSearchFilter;
+import demo.filters.CommonSearchFilter;
+import demo.filters.GenreWhitelist;
+import demo.filters.MinimumRuntime;
+import demo.recommenders.BlenderMovies;
+import demo.recommenders.BlenderTvseries;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Synthetic warm-up of a new generation of blenders, run in the background
+ * when it takes over the state of the previous generation, so the following
+ * requests don't run interpreted code.
+ * The hot filters of the blenders are run over products handed over from
+ * the previous generation, with the configured search queries. Filters are
+ * not ended, so the warm-up doesn't affect statistics and indexes.
+ * The warm-up is configured with system properties:
+ * <ul>
+ *     <li><code>demo.blenders.warmup.rounds</code>: how many times the products are filtered, 5 by default, 0 disables the warm-up,</li>
+ *     <li><code>demo.blenders.warmup.maxItems</code>: the maximum number of products used, 20000 by default,</li>
+ *     <li><code>demo.blenders.warmup.maxMillis</code>: the time after which the warm-up stops, 10000 by default,</li>
+ *     <li><code>demo.blenders.warmup.queries</code>: comma-separated search queries, by default <code>a,the,an 2010,john</code>.</li>
+ * </ul>
+ */
+public final class WarmUp {
+    private static final Logger log = LogManager.getLogger(WarmUp.class);
+
+    private WarmUp() {}
+
+    /**
+     * Runs the warm-up.
+     *
+     * @param products the products to filter
+     * @param dataProvider a data provider of the REST API, <code>null</code> if none is known, then search filters that need it are skipped
+     */
+    public static void run(final List<GeneralVideoProduct> products, final DataProvider dataProvider) {
+        final int rounds = Integer.getInteger("demo.blenders.warmup.rounds", 5);
+        final int maxItems = Integer.getInteger("demo.blenders.warmup.maxItems", 20000);
+        final long maxMillis = Long.getLong("demo.blenders.warmup.maxMillis", 10000L);
+        final String[] queries = System.getProperty("demo.blenders.warmup.queries", "a,the,an 2010,john").split(",");
+        if ((rounds <= 0) || products.isEmpty()) return;
+
+        final long startMillis = System.currentTimeMillis();
+        final long deadline = startMillis + maxMillis;
+        final List<VideoData> items = new ArrayList<>(Math.min(products.size(), maxItems));
+        for (final GeneralVideoProduct product : products) {
+            if (items.size() >= maxItems) break;
+            if (!(product instanceof VideoProduct) && !(product instanceof TvProgrammeProduct)) continue;
+            final VideoData videoData = new VideoData();
+            videoData.video = product;
+            videoData.isTvProgramme = product instanceof TvProgrammeProduct;
+            items.add(videoData);
+        }
+
+        long evaluated = 0L;
+        int round = 0;
+        warmUp:
+        for (; round < rounds; round++) {
+            final List<StatelessFilter<VideoData>> filters = new ArrayList<>();
+            filters.add(new BasicTagger(startMillis, 20));
+            filters.add(new MinimumRuntime(65));
+            filters.add(new GenreWhitelist(BlenderMovies.whiteGenres));
+            filters.add(new GenreWhitelist(BlenderTvseries.whiteGenres));
+            filters.add(new AcceptOnlyAnySeries());
+            filters.add(new AcceptOnlyEpisodesOfSeries(1L));
+            for (final String query : queries) {
+                filters.add(new ActorsSearchFilter(query));
+                if (dataProvider != null) filters.add(new CommonSearchFilter(query, dataProvider));
+            }
+            for (final StatelessFilter<VideoData> filter : filters) {
+                for (final VideoData videoData : items) {
+                    videoData.tags = new HashSet<>();
+                    filter.test(videoData);
+                }
+                evaluated += items.size();
+                if (System.currentTimeMillis() >= deadline) break warmUp;
+            }
+        }
+        log.info("Warm-up of the blenders evaluated " + evaluated + " items in " + round + " rounds over " + items.size() + " products in " + (System.currentTimeMillis() - startMillis) + " ms");
+    }
+}
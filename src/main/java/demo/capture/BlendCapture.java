@@ -0,0 +1,242 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.capture;
+
+import com.gurucue.recommendations.blender.BlendEnvironment;
+import com.gurucue.recommendations.blender.BlendParameters;
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import demo.Utils;
+import gnu.trove.set.TLongSet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A captured blender request: the request parameters, the consumer's
+ * entitlements, the referenced products and the candidate dataset, as it
+ * was returned by the database. It contains everything needed to replay
+ * the request offline, without a database. All input parameters with
+ * string, number or boolean values are captured, so a replay takes the
+ * same code paths; the referenced products are captured with the candidates.
+ * Capture files are GZIP-compressed.
+ */
+public final class BlendCapture {
+    private static final int MAGIC = 0x47434243; // "GCBC"
+    private static final int VERSION = 3;
+    private static final int INPUT_STRING = 1;
+    private static final int INPUT_INTEGER = 2;
+    private static final int INPUT_LONG = 3;
+    private static final int INPUT_DOUBLE = 4;
+    private static final int INPUT_BOOLEAN = 5;
+
+    public final String topBlender;
+    public final String partnerUsername;
+    public final long consumerId;
+    public final String consumerUsername;
+    public final long requestTimestampMillis;
+    public final long[] entitlements;
+    public final String blenderName;
+    public final Map<String, Object> input;
+    public final String requestedVideoFormat;
+    public final CandidateColumns referencedProducts;
+    public final CandidateColumns candidates;
+
+    public BlendCapture(
+            final String topBlender,
+            final String partnerUsername,
+            final long consumerId,
+            final String consumerUsername,
+            final long requestTimestampMillis,
+            final long[] entitlements,
+            final String blenderName,
+            final Map<String, Object> input,
+            final String requestedVideoFormat,
+            final CandidateColumns referencedProducts,
+            final CandidateColumns candidates
+    ) {
+        this.topBlender = topBlender;
+        this.partnerUsername = partnerUsername;
+        this.consumerId = consumerId;
+        this.consumerUsername = consumerUsername;
+        this.requestTimestampMillis = requestTimestampMillis;
+        this.entitlements = entitlements;
+        this.blenderName = blenderName;
+        this.input = Collections.unmodifiableMap(input);
+        this.requestedVideoFormat = requestedVideoFormat;
+        this.referencedProducts = referencedProducts;
+        this.candidates = candidates;
+    }
+
+    /**
+     * Captures the given request together with its candidate dataset.
+     */
+    public static BlendCapture capture(final String topBlender, final BlendEnvironment environment, final BlendParameters parameters, final String requestedVideoFormat, final DataSet<VideoData> dataSet) {
+        final CandidateColumns.Builder referenced = new CandidateColumns.Builder();
+        for (final GeneralVideoProduct product : Utils.referencedProducts(parameters)) referenced.add(product);
+        final CandidateColumns.Builder candidates = new CandidateColumns.Builder();
+        for (final VideoData videoData : dataSet) candidates.add(videoData);
+        final TLongSet entitlements = environment.consumer == null ? null : environment.consumer.activeRelationProductIds(environment.requestTimestampMillis);
+        final Map<String, Object> input = new HashMap<>();
+        for (final Map.Entry<String, Object> e : parameters.input.entrySet()) {
+            if (isCaptured(e.getValue()) && !"referencedProducts".equals(e.getKey())) input.put(e.getKey(), e.getValue());
+        }
+        return new BlendCapture(
+                topBlender,
+                environment.partner.username,
+                environment.consumer == null ? 0L : environment.consumer.id,
+                environment.consumer == null ? null : environment.consumer.username,
+                environment.requestTimestampMillis,
+                entitlements == null ? new long[0] : entitlements.toArray(),
+                parameters.blenderName,
+                input,
+                requestedVideoFormat,
+                referenced.build(),
+                candidates.build()
+        );
+    }
+
+    public void write(final OutputStream output) throws IOException {
+        final CaptureEncoder encoder = new CaptureEncoder();
+        encoder.writeString(topBlender);
+        encoder.writeString(partnerUsername);
+        encoder.writeSigned(consumerId);
+        encoder.writeString(consumerUsername);
+        encoder.writeSigned(requestTimestampMillis);
+        encoder.writeLongs(entitlements);
+        encoder.writeString(blenderName);
+        writeInput(encoder, input);
+        encoder.writeString(requestedVideoFormat);
+        referencedProducts.write(encoder);
+        candidates.write(encoder);
+
+        final DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        encoder.writeTo(out);
+        out.flush();
+    }
+
+    public static BlendCapture read(final InputStream input) throws IOException {
+        final DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC) throw new IOException("Not a blender capture");
+        final int version = in.readInt();
+        if (version != VERSION) throw new IOException("Unsupported blender capture version: " + version);
+        final CaptureDecoder decoder = new CaptureDecoder(in);
+        return new BlendCapture(
+                decoder.readString(),
+                decoder.readString(),
+                decoder.readSigned(),
+                decoder.readString(),
+                decoder.readSigned(),
+                decoder.readLongs(),
+                decoder.readString(),
+                readInput(decoder),
+                decoder.readString(),
+                CandidateColumns.read(decoder),
+                CandidateColumns.read(decoder)
+        );
+    }
+
+    private static boolean isCaptured(final Object value) {
+        return (value instanceof String) || (value instanceof Integer) || (value instanceof Long) || (value instanceof Double) || (value instanceof Boolean);
+    }
+
+    private static void writeInput(final CaptureEncoder encoder, final Map<String, Object> input) throws IOException {
+        encoder.writeUnsigned(input.size());
+        for (final Map.Entry<String, Object> e : input.entrySet()) {
+            encoder.writeString(e.getKey());
+            final Object value = e.getValue();
+            if (value instanceof String) {
+                encoder.writeUnsigned(INPUT_STRING);
+                encoder.writeString((String) value);
+            }
+            else if (value instanceof Integer) {
+                encoder.writeUnsigned(INPUT_INTEGER);
+                encoder.writeSigned((Integer) value);
+            }
+            else if (value instanceof Long) {
+                encoder.writeUnsigned(INPUT_LONG);
+                encoder.writeSigned((Long) value);
+            }
+            else if (value instanceof Double) {
+                encoder.writeUnsigned(INPUT_DOUBLE);
+                encoder.writeDouble((Double) value);
+            }
+            else {
+                encoder.writeUnsigned(INPUT_BOOLEAN);
+                encoder.writeBoolean((Boolean) value);
+            }
+        }
+    }
+
+    private static Map<String, Object> readInput(final CaptureDecoder decoder) throws IOException {
+        final int n = decoder.readUnsignedInt();
+        final Map<String, Object> input = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+            final String name = decoder.readString();
+            final int type = decoder.readUnsignedInt();
+            switch (type) {
+                case INPUT_STRING:
+                    input.put(name, decoder.readString());
+                    break;
+                case INPUT_INTEGER:
+                    input.put(name, (int) decoder.readSigned());
+                    break;
+                case INPUT_LONG:
+                    input.put(name, decoder.readSigned());
+                    break;
+                case INPUT_DOUBLE:
+                    input.put(name, decoder.readDouble());
+                    break;
+                case INPUT_BOOLEAN:
+                    input.put(name, decoder.readBoolean());
+                    break;
+                default:
+                    throw new IOException("Unknown type of the input parameter " + name + ": " + type);
+            }
+        }
+        return input;
+    }
+
+    public void writeFile(final Path file) throws IOException {
+        try (final OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(file)), 65536)) {
+            write(out);
+        }
+    }
+
+    public static BlendCapture readFile(final Path file) throws IOException {
+        try (final InputStream in = new BufferedInputStream(new GZIPInputStream(Files.newInputStream(file), 65536), 65536)) {
+            return read(in);
+        }
+    }
+}
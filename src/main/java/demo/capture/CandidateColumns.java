@@ -0,0 +1,425 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.capture;
+
+import com.gurucue.recommendations.blender.TvChannelData;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import com.gurucue.recommendations.entity.product.PackageProduct;
+import com.gurucue.recommendations.entity.product.TvProgrammeProduct;
+import com.gurucue.recommendations.entity.product.VideoProduct;
+import com.gurucue.recommendations.entity.value.TranslatableValue;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Captured content in columnar form: every product attribute and every
+ * <code>VideoData</code> field is an array indexed by the item's position.
+ * TV-channels and packages are stored once in their own tables and
+ * referenced by their index.
+ * Translatable values are stored as string arrays: the first element is
+ * the value of <code>asString()</code>, followed by pairs of translation
+ * keys and values; a <code>null</code> array denotes a missing value.
+ */
+public final class CandidateColumns {
+    public static final int FLAG_TV_PROGRAMME = 1;
+    public static final int FLAG_SUBSCRIBED = 2;
+    public static final int FLAG_ADULT = 4;
+    public static final int FLAG_VIDEO_DATA = 8; // the item was captured from a VideoData, not just from a product
+
+    public final int size;
+    public final long[] productIds;
+    public final byte[] flags;
+    public final String[] partnerProductCodes;
+    public final long[] videoMatchIds;
+    public final long[] seriesIds;
+    public final long[] seasonNumbers;
+    public final long[] episodeNumbers;
+    public final long[] airDates;
+    public final int[] productionYears;
+    public final int[] runTimes;
+    public final int[] parentalRatings;
+    public final long[] beginTimes; // tv-programmes only
+    public final long[] endTimes; // tv-programmes only
+    public final double[] prices; // videos only
+    public final String[] catalogueIds; // videos only
+    public final String[][] vodCategories; // videos only
+    public final String[][] titles;
+    public final String[][] titles2;
+    public final String[][][] directors;
+    public final String[][][] actors;
+    public final String[][][] screenplayWriters;
+    public final String[][] genres;
+    public final String[] videoCategories;
+    public final String[] imdbLinks;
+    public final String[] videoFormats;
+    public final String[][] tags;
+    public final int[][] availableTvChannels;
+    public final int[][] chosenTvChannels;
+    public final int[][] productPackages;
+
+    // the tv-channel table
+    public final long[] channelIds;
+    public final String[] channelCodes;
+    public final String[][] channelTitles;
+    public final String[] channelVideoFormats;
+    public final int[][] channelPackages;
+
+    // the package table
+    public final long[] packageIds;
+    public final String[] packageCodes;
+
+    private CandidateColumns(final int size, final int channelCount, final int packageCount) {
+        this.size = size;
+        productIds = new long[size];
+        flags = new byte[size];
+        partnerProductCodes = new String[size];
+        videoMatchIds = new long[size];
+        seriesIds = new long[size];
+        seasonNumbers = new long[size];
+        episodeNumbers = new long[size];
+        airDates = new long[size];
+        productionYears = new int[size];
+        runTimes = new int[size];
+        parentalRatings = new int[size];
+        beginTimes = new long[size];
+        endTimes = new long[size];
+        prices = new double[size];
+        catalogueIds = new String[size];
+        vodCategories = new String[size][];
+        titles = new String[size][];
+        titles2 = new String[size][];
+        directors = new String[size][][];
+        actors = new String[size][][];
+        screenplayWriters = new String[size][][];
+        genres = new String[size][];
+        videoCategories = new String[size];
+        imdbLinks = new String[size];
+        videoFormats = new String[size];
+        tags = new String[size][];
+        availableTvChannels = new int[size][];
+        chosenTvChannels = new int[size][];
+        productPackages = new int[size][];
+        channelIds = new long[channelCount];
+        channelCodes = new String[channelCount];
+        channelTitles = new String[channelCount][];
+        channelVideoFormats = new String[channelCount];
+        channelPackages = new int[channelCount][];
+        packageIds = new long[packageCount];
+        packageCodes = new String[packageCount];
+    }
+
+    public boolean isTvProgramme(final int index) {
+        return (flags[index] & FLAG_TV_PROGRAMME) != 0;
+    }
+
+    public boolean isSubscribed(final int index) {
+        return (flags[index] & FLAG_SUBSCRIBED) != 0;
+    }
+
+    public boolean isAdult(final int index) {
+        return (flags[index] & FLAG_ADULT) != 0;
+    }
+
+    public boolean hasVideoData(final int index) {
+        return (flags[index] & FLAG_VIDEO_DATA) != 0;
+    }
+
+    /**
+     * Returns the index of the item with the given product ID, or -1.
+     */
+    public int indexOf(final long productId) {
+        for (int i = 0; i < size; i++) {
+            if (productIds[i] == productId) return i;
+        }
+        return -1;
+    }
+
+    void write(final CaptureEncoder encoder) throws IOException {
+        encoder.writeUnsigned(size);
+        encoder.writeUnsigned(channelIds.length);
+        encoder.writeUnsigned(packageIds.length);
+        encoder.writeLongs(packageIds);
+        for (final String s : packageCodes) encoder.writeString(s);
+        encoder.writeLongs(channelIds);
+        for (final String s : channelCodes) encoder.writeString(s);
+        for (final String[] s : channelTitles) writeText(encoder, s);
+        for (final String s : channelVideoFormats) encoder.writeString(s);
+        for (final int[] p : channelPackages) encoder.writeInts(p);
+
+        encoder.writeLongs(productIds);
+        for (final byte f : flags) encoder.writeUnsigned(f);
+        for (final String s : partnerProductCodes) encoder.writeString(s);
+        encoder.writeLongs(videoMatchIds);
+        encoder.writeLongs(seriesIds);
+        for (final long v : seasonNumbers) encoder.writeSigned(v);
+        for (final long v : episodeNumbers) encoder.writeSigned(v);
+        for (final long v : airDates) encoder.writeSigned(v);
+        for (final int v : productionYears) encoder.writeSigned(v);
+        for (final int v : runTimes) encoder.writeSigned(v);
+        for (final int v : parentalRatings) encoder.writeSigned(v);
+        encoder.writeLongs(beginTimes);
+        for (int i = 0; i < size; i++) encoder.writeSigned(endTimes[i] - beginTimes[i]); // the duration is more compact
+        for (final double v : prices) encoder.writeDouble(v);
+        for (final String s : catalogueIds) encoder.writeString(s);
+        for (final String[] s : vodCategories) encoder.writeStrings(s);
+        for (final String[] s : titles) writeText(encoder, s);
+        for (final String[] s : titles2) writeText(encoder, s);
+        for (final String[][] s : directors) writeTexts(encoder, s);
+        for (final String[][] s : actors) writeTexts(encoder, s);
+        for (final String[][] s : screenplayWriters) writeTexts(encoder, s);
+        for (final String[] s : genres) encoder.writeStrings(s);
+        for (final String s : videoCategories) encoder.writeString(s);
+        for (final String s : imdbLinks) encoder.writeString(s);
+        for (final String s : videoFormats) encoder.writeString(s);
+        for (final String[] s : tags) encoder.writeStrings(s);
+        for (final int[] c : availableTvChannels) encoder.writeInts(c);
+        for (final int[] c : chosenTvChannels) encoder.writeInts(c);
+        for (final int[] p : productPackages) encoder.writeInts(p);
+    }
+
+    static CandidateColumns read(final CaptureDecoder decoder) throws IOException {
+        final int size = decoder.readUnsignedInt();
+        final int channelCount = decoder.readUnsignedInt();
+        final int packageCount = decoder.readUnsignedInt();
+        final CandidateColumns c = new CandidateColumns(size, channelCount, packageCount);
+        System.arraycopy(decoder.readLongs(), 0, c.packageIds, 0, packageCount);
+        for (int i = 0; i < packageCount; i++) c.packageCodes[i] = decoder.readString();
+        System.arraycopy(decoder.readLongs(), 0, c.channelIds, 0, channelCount);
+        for (int i = 0; i < channelCount; i++) c.channelCodes[i] = decoder.readString();
+        for (int i = 0; i < channelCount; i++) c.channelTitles[i] = readText(decoder);
+        for (int i = 0; i < channelCount; i++) c.channelVideoFormats[i] = decoder.readString();
+        for (int i = 0; i < channelCount; i++) c.channelPackages[i] = decoder.readInts();
+
+        System.arraycopy(decoder.readLongs(), 0, c.productIds, 0, size);
+        for (int i = 0; i < size; i++) c.flags[i] = (byte) decoder.readUnsigned();
+        for (int i = 0; i < size; i++) c.partnerProductCodes[i] = decoder.readString();
+        System.arraycopy(decoder.readLongs(), 0, c.videoMatchIds, 0, size);
+        System.arraycopy(decoder.readLongs(), 0, c.seriesIds, 0, size);
+        for (int i = 0; i < size; i++) c.seasonNumbers[i] = decoder.readSigned();
+        for (int i = 0; i < size; i++) c.episodeNumbers[i] = decoder.readSigned();
+        for (int i = 0; i < size; i++) c.airDates[i] = decoder.readSigned();
+        for (int i = 0; i < size; i++) c.productionYears[i] = (int) decoder.readSigned();
+        for (int i = 0; i < size; i++) c.runTimes[i] = (int) decoder.readSigned();
+        for (int i = 0; i < size; i++) c.parentalRatings[i] = (int) decoder.readSigned();
+        System.arraycopy(decoder.readLongs(), 0, c.beginTimes, 0, size);
+        for (int i = 0; i < size; i++) c.endTimes[i] = c.beginTimes[i] + decoder.readSigned();
+        for (int i = 0; i < size; i++) c.prices[i] = decoder.readDouble();
+        for (int i = 0; i < size; i++) c.catalogueIds[i] = decoder.readString();
+        for (int i = 0; i < size; i++) c.vodCategories[i] = decoder.readStrings();
+        for (int i = 0; i < size; i++) c.titles[i] = readText(decoder);
+        for (int i = 0; i < size; i++) c.titles2[i] = readText(decoder);
+        for (int i = 0; i < size; i++) c.directors[i] = readTexts(decoder);
+        for (int i = 0; i < size; i++) c.actors[i] = readTexts(decoder);
+        for (int i = 0; i < size; i++) c.screenplayWriters[i] = readTexts(decoder);
+        for (int i = 0; i < size; i++) c.genres[i] = decoder.readStrings();
+        for (int i = 0; i < size; i++) c.videoCategories[i] = decoder.readString();
+        for (int i = 0; i < size; i++) c.imdbLinks[i] = decoder.readString();
+        for (int i = 0; i < size; i++) c.videoFormats[i] = decoder.readString();
+        for (int i = 0; i < size; i++) c.tags[i] = decoder.readStrings();
+        for (int i = 0; i < size; i++) c.availableTvChannels[i] = decoder.readInts();
+        for (int i = 0; i < size; i++) c.chosenTvChannels[i] = decoder.readInts();
+        for (int i = 0; i < size; i++) c.productPackages[i] = decoder.readInts();
+        return c;
+    }
+
+    private static void writeText(final CaptureEncoder encoder, final String[] text) throws IOException {
+        encoder.writeBoolean(text != null);
+        if (text != null) encoder.writeStrings(text);
+    }
+
+    private static String[] readText(final CaptureDecoder decoder) throws IOException {
+        if (!decoder.readBoolean()) return null;
+        return decoder.readStrings();
+    }
+
+    private static void writeTexts(final CaptureEncoder encoder, final String[][] texts) throws IOException {
+        encoder.writeBoolean(texts != null);
+        if (texts == null) return;
+        encoder.writeUnsigned(texts.length);
+        for (final String[] text : texts) writeText(encoder, text);
+    }
+
+    private static String[][] readTexts(final CaptureDecoder decoder) throws IOException {
+        if (!decoder.readBoolean()) return null;
+        final int n = decoder.readUnsignedInt();
+        final String[][] result = new String[n][];
+        for (int i = 0; i < n; i++) result[i] = readText(decoder);
+        return result;
+    }
+
+    /**
+     * Collects items and converts them into columns.
+     */
+    public static final class Builder {
+        private final List<GeneralVideoProduct> products = new ArrayList<>();
+        private final List<VideoData> videoDatas = new ArrayList<>();
+
+        public Builder add(final VideoData videoData) {
+            products.add(videoData.video);
+            videoDatas.add(videoData);
+            return this;
+        }
+
+        public Builder add(final GeneralVideoProduct product) {
+            products.add(product);
+            videoDatas.add(null);
+            return this;
+        }
+
+        public CandidateColumns build() {
+            // first collect the tv-channel and package tables
+            final TLongIntMap packageIndexes = new TLongIntHashMap(64, 0.5f, -1L, -1);
+            final List<PackageProduct> packages = new ArrayList<>();
+            final TLongIntMap channelIndexes = new TLongIntHashMap(256, 0.5f, -1L, -1);
+            final List<TvChannelData> channels = new ArrayList<>();
+            for (final VideoData videoData : videoDatas) {
+                if (videoData == null) continue;
+                collectPackages(videoData.productPackages, packageIndexes, packages);
+                if (videoData.availableTvChannels == null) continue;
+                for (final TvChannelData channel : videoData.availableTvChannels) {
+                    if (channelIndexes.containsKey(channel.tvChannel.id)) continue;
+                    channelIndexes.put(channel.tvChannel.id, channels.size());
+                    channels.add(channel);
+                    collectPackages(channel.productPackages, packageIndexes, packages);
+                }
+            }
+
+            final int size = products.size();
+            final CandidateColumns c = new CandidateColumns(size, channels.size(), packages.size());
+            for (int i = packages.size() - 1; i >= 0; i--) {
+                final PackageProduct p = packages.get(i);
+                c.packageIds[i] = p.id;
+                c.packageCodes[i] = p.partnerProductCode;
+            }
+            for (int i = channels.size() - 1; i >= 0; i--) {
+                final TvChannelData channel = channels.get(i);
+                c.channelIds[i] = channel.tvChannel.id;
+                c.channelCodes[i] = channel.tvChannel.partnerProductCode;
+                c.channelTitles[i] = text(channel.tvChannel.title);
+                c.channelVideoFormats[i] = channel.tvChannel.videoFormat;
+                c.channelPackages[i] = packageRefs(channel.productPackages, packageIndexes);
+            }
+
+            for (int i = 0; i < size; i++) {
+                final GeneralVideoProduct video = products.get(i);
+                final VideoData videoData = videoDatas.get(i);
+                int f = 0;
+                c.productIds[i] = video.id;
+                c.partnerProductCodes[i] = video.partnerProductCode;
+                c.videoMatchIds[i] = video.videoMatchId;
+                c.seriesIds[i] = video.seriesId;
+                c.seasonNumbers[i] = video.seasonNumber;
+                c.episodeNumbers[i] = video.episodeNumber;
+                c.airDates[i] = video.airDate;
+                c.productionYears[i] = video.productionYear;
+                c.runTimes[i] = video.runTime;
+                c.parentalRatings[i] = video.parentalRating;
+                if (video.isAdult) f |= FLAG_ADULT;
+                if (video instanceof TvProgrammeProduct) {
+                    final TvProgrammeProduct tvProgramme = (TvProgrammeProduct) video;
+                    f |= FLAG_TV_PROGRAMME;
+                    c.beginTimes[i] = tvProgramme.beginTimeMillis;
+                    c.endTimes[i] = tvProgramme.endTimeMillis;
+                }
+                else if (video instanceof VideoProduct) {
+                    final VideoProduct vod = (VideoProduct) video;
+                    c.prices[i] = vod.price;
+                    c.catalogueIds[i] = vod.catalogueId;
+                    c.vodCategories[i] = vod.vodCategories;
+                }
+                c.titles[i] = text(video.title);
+                c.titles2[i] = text(video.title2);
+                c.directors[i] = texts(video.directors);
+                c.actors[i] = texts(video.actors);
+                c.screenplayWriters[i] = texts(video.screenplayWriters);
+                c.genres[i] = video.genres;
+                c.videoCategories[i] = video.videoCategory;
+                c.imdbLinks[i] = video.imdbLink;
+                c.videoFormats[i] = video.videoFormat;
+                if (videoData != null) {
+                    f |= FLAG_VIDEO_DATA;
+                    if (videoData.isSubscribed) f |= FLAG_SUBSCRIBED;
+                    c.tags[i] = videoData.tags == null ? null : videoData.tags.toArray(new String[videoData.tags.size()]);
+                    c.availableTvChannels[i] = channelRefs(videoData.availableTvChannels, channelIndexes);
+                    c.chosenTvChannels[i] = channelRefs(videoData.chosenTvChannels, channelIndexes);
+                    c.productPackages[i] = packageRefs(videoData.productPackages, packageIndexes);
+                }
+                c.flags[i] = (byte) f;
+            }
+            return c;
+        }
+
+        private static void collectPackages(final Collection<PackageProduct> source, final TLongIntMap packageIndexes, final List<PackageProduct> packages) {
+            if (source == null) return;
+            for (final PackageProduct p : source) {
+                if (packageIndexes.containsKey(p.id)) continue;
+                packageIndexes.put(p.id, packages.size());
+                packages.add(p);
+            }
+        }
+
+        private static int[] packageRefs(final Collection<PackageProduct> source, final TLongIntMap packageIndexes) {
+            if ((source == null) || source.isEmpty()) return null;
+            final int[] result = new int[source.size()];
+            int i = 0;
+            for (final PackageProduct p : source) result[i++] = packageIndexes.get(p.id);
+            return result;
+        }
+
+        private static int[] channelRefs(final Collection<TvChannelData> source, final TLongIntMap channelIndexes) {
+            if ((source == null) || source.isEmpty()) return null;
+            final TLongArrayList ids = new TLongArrayList(source.size());
+            for (final TvChannelData channel : source) ids.add(channel.tvChannel.id);
+            final int[] result = new int[ids.size()];
+            for (int i = ids.size() - 1; i >= 0; i--) result[i] = channelIndexes.get(ids.get(i));
+            return result;
+        }
+
+        private static String[] text(final TranslatableValue value) {
+            if (value == null) return null;
+            final Map<?, String> translations = value.translations;
+            final int n = translations == null ? 0 : translations.size();
+            final String[] result = new String[1 + (n * 2)];
+            result[0] = value.asString();
+            if (n > 0) {
+                int i = 1;
+                for (final Map.Entry<?, String> entry : translations.entrySet()) {
+                    result[i++] = String.valueOf(entry.getKey());
+                    result[i++] = entry.getValue();
+                }
+            }
+            return result;
+        }
+
+        private static String[][] texts(final TranslatableValue[] values) {
+            if (values == null) return null;
+            final String[][] result = new String[values.length][];
+            for (int i = values.length - 1; i >= 0; i--) result[i] = text(values[i]);
+            return result;
+        }
+    }
+}
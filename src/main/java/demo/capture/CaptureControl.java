@@ -0,0 +1,163 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.capture;
+
+import com.gurucue.recommendations.dto.ConsumerEntity;
+import demo.stats.MetricsControl;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which requests are captured. Capturing is off by default and is
+ * armed through JMX for a number of requests, optionally only for requests
+ * of a single consumer. Captures are written into the directory given by
+ * the <code>demo.blenders.capture.directory</code> system property, the
+ * default is <code>blenders-capture</code> in the temporary directory.
+ * <p>
+ * Captures are written by a writer thread, so requests don't wait for the
+ * encoding and the disk. At most
+ * <code>demo.blenders.capture.queueSize</code> captures, 16 by default,
+ * wait to be written; when the queue is full a capture is dropped and counted.
+ */
+public final class CaptureControl implements CaptureControlMXBean {
+    private static final Logger log = LogManager.getLogger(CaptureControl.class);
+    public static final String DIRECTORY_PROPERTY = "demo.blenders.capture.directory";
+    public static final CaptureControl INSTANCE = new CaptureControl();
+
+    static {
+        MetricsControl.register(INSTANCE, MetricsControl.JMX_DOMAIN + ":type=CaptureControl");
+    }
+
+    private final AtomicInteger remaining = new AtomicInteger();
+    private volatile String consumerUsername = null;
+    private final AtomicLong writtenCaptures = new AtomicLong();
+    private final AtomicLong failedCaptures = new AtomicLong();
+    private final AtomicLong droppedCaptures = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ThreadPoolExecutor writer;
+
+    private CaptureControl() {
+        writer = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, Integer.getInteger("demo.blenders.capture.queueSize", 16))), runnable -> {
+            final Thread thread = new Thread(runnable, "blenders-capture-writer");
+            thread.setDaemon(true);
+            return thread;
+        }, (runnable, pool) -> droppedCaptures.incrementAndGet());
+        writer.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Returns whether the current request of the given consumer should be
+     * captured, and counts it towards the armed number of captures. When
+     * capturing is off this is a single volatile read.
+     */
+    public boolean shouldCapture(final ConsumerEntity consumer) {
+        if (remaining.get() <= 0) return false;
+        final String username = consumerUsername;
+        if ((username != null) && ((consumer == null) || !username.equals(consumer.username))) return false;
+        for (;;) {
+            final int n = remaining.get();
+            if (n <= 0) return false;
+            if (remaining.compareAndSet(n, n - 1)) return true;
+        }
+    }
+
+    public Path directory() {
+        return Paths.get(System.getProperty(DIRECTORY_PROPERTY, Paths.get(System.getProperty("java.io.tmpdir"), "blenders-capture").toString()));
+    }
+
+    long nextSequence() {
+        return sequence.incrementAndGet();
+    }
+
+    /**
+     * Queues the capture to be written into the file by the writer thread,
+     * or drops it if too many captures are waiting.
+     */
+    void write(final BlendCapture capture, final Path file, final int candidateCount) {
+        writer.execute(() -> {
+            final long startNanos = System.nanoTime();
+            try {
+                final Path directory = file.toAbsolutePath().getParent();
+                if (directory != null) Files.createDirectories(directory);
+                capture.writeFile(file);
+                writtenCaptures.incrementAndGet();
+                log.info("Captured " + candidateCount + " candidates into " + file + " in " + ((System.nanoTime() - startNanos) / 1000000L) + " ms");
+            }
+            catch (IOException | RuntimeException e) {
+                failedCaptures.incrementAndGet();
+                log.error("Failed to write the capture " + file + ": " + e.toString(), e);
+            }
+        });
+    }
+
+    void captureFailed() {
+        failedCaptures.incrementAndGet();
+    }
+
+    @Override
+    public void captureNext(final int count) {
+        captureNextOfConsumer(null, count);
+    }
+
+    @Override
+    public void captureNextOfConsumer(final String consumerUsername, final int count) {
+        this.consumerUsername = (consumerUsername == null) || consumerUsername.isEmpty() ? null : consumerUsername;
+        remaining.set(count < 0 ? 0 : count);
+    }
+
+    @Override
+    public int getRemainingCaptures() {
+        return remaining.get();
+    }
+
+    @Override
+    public String getConsumerUsername() {
+        return consumerUsername;
+    }
+
+    @Override
+    public String getDirectory() {
+        return directory().toString();
+    }
+
+    @Override
+    public long getWrittenCaptures() {
+        return writtenCaptures.get();
+    }
+
+    @Override
+    public long getFailedCaptures() {
+        return failedCaptures.get();
+    }
+
+    @Override
+    public long getDroppedCaptures() {
+        return droppedCaptures.get();
+    }
+}
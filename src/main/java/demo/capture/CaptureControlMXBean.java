@@ -0,0 +1,52 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.capture;
+
+/**
+ * JMX control of request capturing.
+ */
+public interface CaptureControlMXBean {
+    /**
+     * Arms capturing of the next <code>count</code> requests of any consumer.
+     *
+     * @param count how many requests to capture, 0 disarms capturing
+     */
+    void captureNext(int count);
+
+    /**
+     * Arms capturing of the next <code>count</code> requests of the given consumer.
+     *
+     * @param consumerUsername the username of the consumer whose requests to capture
+     * @param count how many requests to capture, 0 disarms capturing
+     */
+    void captureNextOfConsumer(String consumerUsername, int count);
+
+    int getRemainingCaptures();
+
+    String getConsumerUsername();
+
+    String getDirectory();
+
+    long getWrittenCaptures();
+
+    long getFailedCaptures();
+
+    /** The number of captures dropped because too many were waiting to be written. */
+    long getDroppedCaptures();
+}
@@ -0,0 +1,106 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.capture;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Low-level decoder of the capture format, the counterpart of
+ * {@link CaptureEncoder}.
+ */
+final class CaptureDecoder {
+    private final DataInputStream in;
+    private final String[] strings;
+
+    CaptureDecoder(final DataInputStream in) throws IOException {
+        this.in = in;
+        final int n = in.readInt();
+        strings = new String[n];
+        for (int i = 0; i < n; i++) {
+            final int length = in.readInt();
+            if (length < 0) throw new IOException("Malformed string length: " + length);
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    long readUnsigned() throws IOException {
+        long value = 0L;
+        int shift = 0;
+        for (;;) {
+            final int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+            shift += 7;
+            if (shift > 63) throw new IOException("Malformed variable-length integer");
+        }
+    }
+
+    int readUnsignedInt() throws IOException {
+        return (int) readUnsigned();
+    }
+
+    long readSigned() throws IOException {
+        final long value = readUnsigned();
+        return (value >>> 1) ^ -(value & 1L);
+    }
+
+    double readDouble() throws IOException {
+        return in.readDouble();
+    }
+
+    boolean readBoolean() throws IOException {
+        return in.readBoolean();
+    }
+
+    String readString() throws IOException {
+        final int index = readUnsignedInt();
+        if (index == 0) return null;
+        if (index > strings.length) throw new IOException("String index out of range: " + index);
+        return strings[index - 1];
+    }
+
+    String[] readStrings() throws IOException {
+        final int n = readUnsignedInt();
+        final String[] result = new String[n];
+        for (int i = 0; i < n; i++) result[i] = readString();
+        return result;
+    }
+
+    int[] readInts() throws IOException {
+        final int n = readUnsignedInt();
+        final int[] result = new int[n];
+        for (int i = 0; i < n; i++) result[i] = readUnsignedInt();
+        return result;
+    }
+
+    long[] readLongs() throws IOException {
+        final int n = readUnsignedInt();
+        final long[] result = new long[n];
+        long previous = 0L;
+        for (int i = 0; i < n; i++) {
+            previous += readSigned();
+            result[i] = previous;
+        }
+        return result;
+    }
+}
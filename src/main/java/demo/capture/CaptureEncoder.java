@@ -0,0 +1,126 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.capture;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Low-level encoder of the capture format: integers are written as
+ * variable-length quantities, signed ones zig-zag encoded, and strings are
+ * written as indexes into a string table that is written out separately,
+ * before the encoded data. The table holds strings of any length, as the
+ * length of their UTF-8 encoding followed by the encoding.
+ */
+final class CaptureEncoder {
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(65536);
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private final TObjectIntMap<String> stringIndexes = new TObjectIntHashMap<>(1024, 0.5f, -1);
+    private final List<String> strings = new ArrayList<>(1024);
+
+    void writeUnsigned(long value) throws IOException {
+        while ((value & ~0x7FL) != 0L) {
+            out.writeByte((int) ((value & 0x7FL) | 0x80L));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    void writeSigned(final long value) throws IOException {
+        writeUnsigned((value << 1) ^ (value >> 63));
+    }
+
+    void writeDouble(final double value) throws IOException {
+        out.writeDouble(value);
+    }
+
+    void writeBoolean(final boolean value) throws IOException {
+        out.writeBoolean(value);
+    }
+
+    /**
+     * Writes a string as an index into the string table, 0 denotes a
+     * <code>null</code>.
+     */
+    void writeString(final String value) throws IOException {
+        if (value == null) {
+            writeUnsigned(0L);
+            return;
+        }
+        int index = stringIndexes.get(value);
+        if (index < 0) {
+            index = strings.size();
+            strings.add(value);
+            stringIndexes.put(value, index);
+        }
+        writeUnsigned(index + 1L);
+    }
+
+    /**
+     * Writes an array of strings, a <code>null</code> array is written as
+     * length 0.
+     */
+    void writeStrings(final String[] values) throws IOException {
+        if (values == null) {
+            writeUnsigned(0L);
+            return;
+        }
+        writeUnsigned(values.length);
+        for (final String value : values) writeString(value);
+    }
+
+    void writeInts(final int[] values) throws IOException {
+        if (values == null) {
+            writeUnsigned(0L);
+            return;
+        }
+        writeUnsigned(values.length);
+        for (final int value : values) writeUnsigned(value);
+    }
+
+    void writeLongs(final long[] values) throws IOException {
+        writeUnsigned(values.length);
+        long previous = 0L;
+        for (final long value : values) {
+            writeSigned(value - previous); // delta encoding: IDs are usually close to each other
+            previous = value;
+        }
+    }
+
+    /**
+     * Writes the string table followed by the encoded data.
+     */
+    void writeTo(final DataOutputStream target) throws IOException {
+        out.flush();
+        target.writeInt(strings.size());
+        for (final String s : strings) {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            target.writeInt(bytes.length);
+            target.write(bytes);
+        }
+        buffer.writeTo(target);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.capture;
+
+import com.gurucue.recommendations.blender.BlendEnvironment;
+import com.gurucue.recommendations.blender.BlendParameters;
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import demo.CandidateSource;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Candidate source that delegates to another source and, when capturing
+ * is armed through {@link CaptureControl}, captures the request together
+ * with the obtained candidates, and hands the capture over to be written
+ * into a capture file in the background. A failed capture is logged and
+ * doesn't affect the request.
+ */
+public final class CapturingCandidateSource implements CandidateSource {
+    private static final Logger log = LogManager.getLogger(CapturingCandidateSource.class);
+    private final CandidateSource delegate;
+    private final String topBlender;
+
+    /**
+     * @param delegate the source of candidates
+     * @param topBlender which top blender the requests belong to: <code>recommenders</code> or <code>searchers</code>
+     */
+    public CapturingCandidateSource(final CandidateSource delegate, final String topBlender) {
+        this.delegate = delegate;
+        this.topBlender = topBlender;
+    }
+
+    @Override
+    public DataSet<VideoData> videosAndTvProgrammes(final BlendEnvironment environment, final BlendParameters parameters, final String requestedVideoFormat) {
+        return capture(environment, parameters, requestedVideoFormat, delegate.videosAndTvProgrammes(environment, parameters, requestedVideoFormat));
+    }
+
+    @Override
+    public DataSet<VideoData> products(final BlendEnvironment environment, final BlendParameters parameters, final String requestedVideoFormat, final List<? extends GeneralVideoProduct> products) {
+        return capture(environment, parameters, requestedVideoFormat, delegate.products(environment, parameters, requestedVideoFormat, products));
+    }
+
+    private DataSet<VideoData> capture(final BlendEnvironment environment, final BlendParameters parameters, final String requestedVideoFormat, final DataSet<VideoData> dataSet) {
+        final CaptureControl control = CaptureControl.INSTANCE;
+        if (!control.shouldCapture(environment.consumer)) return dataSet;
+        final Path file = control.directory().resolve(topBlender + "-" + environment.partner.username + "-" + parameters.blenderName + "-" + environment.requestTimestampMillis + "-" + control.nextSequence() + ".capture.gz");
+        try {
+            // the candidates are copied now, filters modify them later
+            control.write(BlendCapture.capture(topBlender, environment, parameters, requestedVideoFormat, dataSet), file, dataSet.size());
+        }
+        catch (RuntimeException e) {
+            control.captureFailed();
+            log.error("Failed to capture " + file + ": " + e.toString(), e);
+        }
+        return dataSet;
+    }
+}
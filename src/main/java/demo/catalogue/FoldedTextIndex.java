@@ -0,0 +1,328 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.catalogue;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import com.gurucue.recommendations.entity.product.TvChannelProduct;
+import com.gurucue.recommendations.entity.value.TranslatableValue;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Folded texts of searchable product fields, see {@link TextFolder}.
+ * Products have positions in the index, and their folded texts are kept in
+ * an array by position, so a search finds them with a lookup of the
+ * position by product ID and an array read.
+ * <p>
+ * An index is immutable. The current index is rebuilt in the background,
+ * where the texts are folded: searches hand over the products they came
+ * across that are not indexed, see {@link #refresh(Collection)}, and a
+ * search over the whole catalogue has the index rebuilt from only its
+ * products, see {@link #replace(Collection)}, so removed products are
+ * dropped. Products already indexed are not folded again; a product that
+ * changed is a different instance and is folded anew.
+ */
+public final class FoldedTextIndex {
+    private static final Logger log = LogManager.getLogger(FoldedTextIndex.class);
+
+    // indexes of fields in FoldedProduct.fields
+    public static final int TITLE = 0;
+    public static final int TITLE2 = 1;
+    public static final int DIRECTORS = 2;
+    public static final int ACTORS = 3;
+    public static final int SCREENPLAY_WRITERS = 4;
+    public static final int GENRES = 5;
+    public static final int FIELD_COUNT = 6;
+
+    private static final String[] NO_TEXTS = new String[0];
+    private static final FoldedTextIndex EMPTY = new FoldedTextIndex(new GeneralVideoProduct[0], new FoldedProduct[0]);
+    private static volatile FoldedTextIndex current = EMPTY;
+    private static final AtomicBoolean rebuilding = new AtomicBoolean(false);
+    private static final ThreadPoolExecutor rebuilder = rebuilder();
+    private static final Cache<TvChannelProduct, String[]> tvChannels = CacheBuilder.newBuilder().weakKeys().build();
+
+    private final GeneralVideoProduct[] products; // by position, the indexed instances
+    private final FoldedProduct[] folded; // by position
+    private final TLongIntMap positions; // product ID -> position
+
+    private FoldedTextIndex(final GeneralVideoProduct[] products, final FoldedProduct[] folded) {
+        this.products = products;
+        this.folded = folded;
+        positions = new TLongIntHashMap(products.length);
+        for (int i = 0; i < products.length; i++) positions.put(products[i].id, i);
+    }
+
+    public static FoldedTextIndex current() {
+        return current;
+    }
+
+    /**
+     * Returns the position of this exact product instance, or -1 if it is
+     * not indexed; a product that changed since indexing is a different instance.
+     */
+    public int position(final GeneralVideoProduct product) {
+        if (!positions.containsKey(product.id)) return -1;
+        final int position = positions.get(product.id);
+        return products[position] == product ? position : -1;
+    }
+
+    /**
+     * Returns the folded texts of the product at the given position.
+     */
+    public FoldedProduct folded(final int position) {
+        return folded[position];
+    }
+
+    /**
+     * Returns folded texts of the given product, folding them if the
+     * product is not indexed.
+     */
+    public FoldedProduct product(final GeneralVideoProduct product) {
+        final int position = position(product);
+        return position < 0 ? new FoldedProduct(product) : folded[position];
+    }
+
+    /**
+     * Returns the indexed products.
+     */
+    public List<GeneralVideoProduct> products() {
+        return new ArrayList<>(Arrays.asList(products));
+    }
+
+    public int size() {
+        return products.length;
+    }
+
+    /**
+     * Returns folded translations of the title of the given tv-channel.
+     */
+    public static String[] tvChannel(final TvChannelProduct tvChannel) {
+        String[] folded = tvChannels.getIfPresent(tvChannel);
+        if (folded == null) {
+            folded = fold(tvChannel.title);
+            tvChannels.put(tvChannel, folded);
+        }
+        return folded;
+    }
+
+    /**
+     * Returns a new lookup into this index, to be used by a single filter instance.
+     */
+    public Lookup newLookup() {
+        return new Lookup();
+    }
+
+    /**
+     * Requests a new index containing the currently indexed products and
+     * the given products, which replace indexed products with the same
+     * IDs. The index is built in the background, unless one is already
+     * being built, in which case the request is ignored: products that are
+     * still not indexed will be requested again.
+     */
+    public static void refresh(final Collection<GeneralVideoProduct> newProducts) {
+        rebuild(newProducts, true);
+    }
+
+    /**
+     * Requests a new index containing only the given products, the whole
+     * catalogue. The index is built in the background, unless one is
+     * already being built, in which case the request is ignored.
+     */
+    public static void replace(final Collection<GeneralVideoProduct> catalogue) {
+        rebuild(catalogue, false);
+    }
+
+    private static void rebuild(final Collection<GeneralVideoProduct> newProducts, final boolean merge) {
+        if (newProducts.isEmpty() || !rebuilding.compareAndSet(false, true)) return;
+        final List<GeneralVideoProduct> products = new ArrayList<>(newProducts);
+        try {
+            rebuilder.execute(() -> {
+                try {
+                    final long start = System.nanoTime();
+                    final FoldedTextIndex index = build(current, products, merge);
+                    current = index;
+                    log.info("Folded text index rebuilt with " + index.size() + " products in " + ((System.nanoTime() - start) / 1000000L) + " ms");
+                }
+                catch (RuntimeException e) {
+                    log.error("Failed to rebuild the folded text index: " + e.toString(), e);
+                }
+                finally {
+                    rebuilding.set(false);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            rebuilding.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * One rebuild runs at a time, guarded by <code>rebuilding</code>, so a
+     * single thread is reused; it exits when idle.
+     */
+    private static ThreadPoolExecutor rebuilder() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1), runnable -> {
+            final Thread thread = new Thread(runnable, "blenders-folded-text-index");
+            thread.setDaemon(true);
+            return thread;
+        }, (runnable, e) -> {
+            throw new RejectedExecutionException("Folded text index rebuild already queued");
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Builds an index of the given products, and of the previous products
+     * if merging; only products not in the previous index are folded.
+     */
+    static FoldedTextIndex build(final FoldedTextIndex previous, final Collection<GeneralVideoProduct> newProducts, final boolean merge) {
+        final int capacity = newProducts.size() + (merge ? previous.products.length : 0);
+        final TLongIntMap byId = new TLongIntHashMap(capacity);
+        final List<GeneralVideoProduct> products = new ArrayList<>(capacity);
+        if (merge) {
+            for (final GeneralVideoProduct product : previous.products) {
+                byId.put(product.id, products.size());
+                products.add(product);
+            }
+        }
+        for (final GeneralVideoProduct product : newProducts) {
+            if (byId.containsKey(product.id)) products.set(byId.get(product.id), product);
+            else {
+                byId.put(product.id, products.size());
+                products.add(product);
+            }
+        }
+        final Map<GeneralVideoProduct, FoldedProduct> previouslyFolded = new IdentityHashMap<>(previous.products.length);
+        for (int i = 0; i < previous.products.length; i++) previouslyFolded.put(previous.products[i], previous.folded[i]);
+        final GeneralVideoProduct[] indexed = products.toArray(new GeneralVideoProduct[products.size()]);
+        final FoldedProduct[] folded = new FoldedProduct[indexed.length];
+        for (int i = 0; i < indexed.length; i++) {
+            final FoldedProduct existing = previouslyFolded.get(indexed[i]);
+            folded[i] = existing == null ? new FoldedProduct(indexed[i]) : existing;
+        }
+        return new FoldedTextIndex(indexed, folded);
+    }
+
+    /**
+     * Folds all translations of the value, duplicates are omitted.
+     */
+    static String[] fold(final TranslatableValue value) {
+        if ((value == null) || (value.translations == null) || value.translations.isEmpty()) return NO_TEXTS;
+        final List<String> result = new ArrayList<>(value.translations.size());
+        addFolded(value, result);
+        return result.toArray(new String[result.size()]);
+    }
+
+    static String[] fold(final TranslatableValue[] values) {
+        if ((values == null) || (values.length == 0)) return NO_TEXTS;
+        final List<String> result = new ArrayList<>(values.length * 2);
+        for (final TranslatableValue value : values) {
+            if ((value != null) && (value.translations != null)) addFolded(value, result);
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    static String[] fold(final String[] values) {
+        if ((values == null) || (values.length == 0)) return NO_TEXTS;
+        final List<String> result = new ArrayList<>(values.length);
+        for (final String value : values) {
+            if (value != null) result.add(TextFolder.fold(value));
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    private static void addFolded(final TranslatableValue value, final List<String> result) {
+        final int start = result.size();
+        for (final String translation : value.translations.values()) {
+            if (translation == null) continue;
+            final String folded = TextFolder.fold(translation);
+            if (result.subList(start, result.size()).contains(folded)) continue; // translations of names are often the same
+            result.add(folded);
+        }
+    }
+
+    /**
+     * Remembers the last looked-up product, so several fields of the same
+     * item are searched with a single position lookup, and collects the
+     * products that are not indexed. Not thread-safe.
+     */
+    public final class Lookup {
+        private final ArrayList<GeneralVideoProduct> unindexed = new ArrayList<>();
+        private GeneralVideoProduct lastProduct = null;
+        private FoldedProduct lastFolded = null;
+
+        private Lookup() {}
+
+        public FoldedProduct product(final GeneralVideoProduct product) {
+            if (product != lastProduct) {
+                final int position = position(product);
+                if (position >= 0) lastFolded = folded[position];
+                else {
+                    lastFolded = new FoldedProduct(product);
+                    unindexed.add(product);
+                }
+                lastProduct = product;
+            }
+            return lastFolded;
+        }
+
+        /**
+         * Has the products looked up that are not indexed folded in the background.
+         */
+        public void refresh() {
+            FoldedTextIndex.refresh(unindexed);
+        }
+    }
+
+    /**
+     * Folded texts of a product's searchable fields, every field is an
+     * array of folded values and their translations.
+     */
+    public static final class FoldedProduct {
+        public final String[][] fields;
+
+        FoldedProduct(final GeneralVideoProduct product) {
+            fields = new String[FIELD_COUNT][];
+            fields[TITLE] = fold(product.title);
+            fields[TITLE2] = fold(product.title2);
+            fields[DIRECTORS] = fold(product.directors);
+            fields[ACTORS] = fold(product.actors);
+            fields[SCREENPLAY_WRITERS] = fold(product.screenplayWriters);
+            fields[GENRES] = fold(product.genres);
+        }
+    }
+}
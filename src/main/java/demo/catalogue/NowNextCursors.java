@@ -0,0 +1,147 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.catalogue;
+
+import com.gurucue.recommendations.entity.product.TvProgrammeProduct;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Cursors into the {@link ProgrammeSchedule}, one per tv-channel, pointing
+ * at the programme of the tv-channel airing now. A timer advances the
+ * cursors, so the programmes airing now and next on all tv-channels are
+ * found with a few steps per tv-channel instead of a search.
+ * <p>
+ * The timer runs only while the cursors are used: it stops after
+ * {@link #IDLE_ROUNDS} rounds without a lookup, and is started again by the
+ * next lookup.
+ */
+public final class NowNextCursors {
+    private static final Logger log = LogManager.getLogger(NowNextCursors.class);
+    public static final NowNextCursors INSTANCE = new NowNextCursors(Long.getLong("demo.blenders.nowNext.advanceMillis", 15000L));
+    public static final int IDLE_ROUNDS = 20;
+
+    private final long advanceMillis;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile Cursors cursors = new Cursors(null, new long[0], new int[0], 0L); // positioned by the first lookup or advance
+    private volatile long lastLookupMillis = 0L;
+
+    NowNextCursors(final long advanceMillis) {
+        this.advanceMillis = Math.max(1000L, advanceMillis);
+    }
+
+    /**
+     * Returns the programmes airing at the given time and the programmes
+     * following them, of all tv-channels in the order of their IDs: for each
+     * tv-channel the programme airing now, if any, followed by the next one,
+     * if any.
+     *
+     * @param atMillis the time, usually the request time
+     * @return the programmes airing now and next
+     */
+    public List<TvProgrammeProduct> nowAndNext(final long atMillis) {
+        lastLookupMillis = System.currentTimeMillis();
+        start();
+        Cursors c = cursors;
+        final ProgrammeSchedule schedule = ProgrammeSchedule.current();
+        if (c.schedule != schedule) {
+            // the schedule was rebuilt since the last advance of the timer
+            c = advance(c, schedule, atMillis);
+            cursors = c;
+        }
+        final List<TvProgrammeProduct> result = new ArrayList<>(c.channelIds.length * 2);
+        for (int i = 0; i < c.channelIds.length; i++) {
+            final int[] indexes = schedule.channelIndexes(c.channelIds[i]);
+            // a cursor only moves forward, the request time may precede the time of the last advance
+            int pos = atMillis >= c.atMillis ? schedule.nextNotEnded(indexes, c.positions[i], atMillis) : schedule.firstNotEnded(indexes, atMillis);
+            if (pos >= indexes.length) continue;
+            final TvProgrammeProduct programme = schedule.programme(indexes[pos]);
+            if (programme.beginTimeMillis <= atMillis) {
+                result.add(programme); // now
+                if (++pos >= indexes.length) continue;
+            }
+            result.add(schedule.programme(indexes[pos])); // next
+        }
+        return result;
+    }
+
+    /**
+     * Returns the cursors advanced to the given time, positioned anew if the
+     * schedule changed or the time precedes the time of the cursors.
+     */
+    static Cursors advance(final Cursors previous, final ProgrammeSchedule schedule, final long atMillis) {
+        final boolean reposition = (previous.schedule != schedule) || (atMillis < previous.atMillis);
+        final long[] channelIds;
+        if (reposition) {
+            channelIds = schedule.channelIds();
+            Arrays.sort(channelIds);
+        }
+        else channelIds = previous.channelIds;
+        final int[] positions = new int[channelIds.length];
+        for (int i = 0; i < channelIds.length; i++) {
+            final int[] indexes = schedule.channelIndexes(channelIds[i]);
+            positions[i] = reposition ? schedule.firstNotEnded(indexes, atMillis) : schedule.nextNotEnded(indexes, previous.positions[i], atMillis);
+        }
+        return new Cursors(schedule, channelIds, positions, atMillis);
+    }
+
+    private void start() {
+        if (!running.compareAndSet(false, true)) return;
+        final Thread thread = new Thread(() -> {
+            try {
+                while ((System.currentTimeMillis() - lastLookupMillis) < (IDLE_ROUNDS * advanceMillis)) {
+                    Thread.sleep(advanceMillis);
+                    try {
+                        cursors = advance(cursors, ProgrammeSchedule.current(), System.currentTimeMillis());
+                    }
+                    catch (RuntimeException e) {
+                        log.error("Failed to advance the now-next cursors: " + e.toString(), e);
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                log.warn("The now-next cursors timer was interrupted");
+            }
+            finally {
+                running.set(false);
+            }
+        }, "blenders-now-next");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    static final class Cursors {
+        final ProgrammeSchedule schedule;
+        final long[] channelIds; // ascending
+        final int[] positions; // of channelIds, within the indexes of the programmes of each tv-channel
+        final long atMillis;
+
+        Cursors(final ProgrammeSchedule schedule, final long[] channelIds, final int[] positions, final long atMillis) {
+            this.schedule = schedule;
+            this.channelIds = channelIds;
+            this.positions = positions;
+            this.atMillis = atMillis;
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.catalogue;
+
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TLongLongMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongLongHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Index of actor names: maps folded name tokens to the products they
+ * appear in, together with the position of the token in the product's
+ * actor names, so matches can be ranked without searching the names.
+ * <p>
+ * A query word matches a name when it is a substring of it; query words
+ * don't contain spaces, so this is the same as being a substring of one
+ * of the name's space-separated tokens. A word is therefore resolved by
+ * scanning the token vocabulary, which is much smaller than the catalogue,
+ * and merging postings of matching tokens.
+ * <p>
+ * An index is immutable. The current index is replaced in the background
+ * when searches come across products that are not indexed, see
+ * {@link #refresh(Collection)}, and rebuilt from only the products of the
+ * whole catalogue when a search over it finds products added or removed, see
+ * {@link #replace(Collection)}, so products removed from the catalogue are dropped.
+ */
+public final class PersonIndex {
+    private static final Logger log = LogManager.getLogger(PersonIndex.class);
+    private static final PersonIndex EMPTY = new PersonIndex(new GeneralVideoProduct[0], new String[0], new Posting[0]);
+    private static volatile PersonIndex current = EMPTY;
+    private static final AtomicBoolean rebuilding = new AtomicBoolean(false);
+
+    private final GeneralVideoProduct[] products; // by position, the indexed instances
+    private final TLongIntMap positions; // product ID -> position
+    private final String[] tokens;
+    private final Posting[] postings; // for each token
+
+    private PersonIndex(final GeneralVideoProduct[] products, final String[] tokens, final Posting[] postings) {
+        this.products = products;
+        this.tokens = tokens;
+        this.postings = postings;
+        positions = new TLongIntHashMap(products.length);
+        for (int i = 0; i < products.length; i++) positions.put(products[i].id, i);
+    }
+
+    public static PersonIndex current() {
+        return current;
+    }
+
+    /**
+     * Returns the indexed products.
+     */
+    public List<GeneralVideoProduct> products() {
+        return new ArrayList<>(Arrays.asList(products));
+    }
+
+    /**
+     * Returns the position of this exact product instance, or -1 if it is
+     * not indexed; a product that changed since indexing is a different instance.
+     */
+    public int position(final GeneralVideoProduct product) {
+        if (!positions.containsKey(product.id)) return -1;
+        final int position = positions.get(product.id);
+        return products[position] == product ? position : -1;
+    }
+
+    /**
+     * Returns the product at the given position.
+     */
+    public GeneralVideoProduct product(final int position) {
+        return products[position];
+    }
+
+    public int productCount() {
+        return products.length;
+    }
+
+    public int tokenCount() {
+        return tokens.length;
+    }
+
+    /**
+     * Finds products where every word matches an actor name.
+     *
+     * @param words folded query words, at least one
+     * @return the position of the first match of the first word for each matching product, keyed by product ID
+     */
+    public TLongIntMap search(final String[] words) {
+        // resolve every word into its product set, the first word also with positions
+        final TLongLongMap first = new TLongLongHashMap(); // product ID -> (value ordinal << 32) | position
+        final TLongSet[] sets = new TLongSet[words.length];
+        for (int w = 0; w < words.length; w++) {
+            final String word = words[w];
+            final TLongSet set = new TLongHashSet();
+            for (int t = 0; t < tokens.length; t++) {
+                final int offset = tokens[t].indexOf(word);
+                if (offset < 0) continue;
+                final Posting posting = postings[t];
+                for (int i = 0; i < posting.size; i++) {
+                    final long productId = posting.productIds[i];
+                    set.add(productId);
+                    if (w == 0) {
+                        final long key = ((long) posting.ordinals[i] << 32) | (posting.positions[i] + offset);
+                        if (!first.containsKey(productId) || (key < first.get(productId))) first.put(productId, key);
+                    }
+                }
+            }
+            sets[w] = set;
+        }
+        // intersect, the smallest set first
+        final TLongSet[] ordered = sets.clone();
+        Arrays.sort(ordered, (a, b) -> a.size() - b.size());
+        final TLongIntMap result = new TLongIntHashMap(ordered[0].size());
+        ordered[0].forEach(productId -> {
+            for (int i = 1; i < ordered.length; i++) {
+                if (!ordered[i].contains(productId)) return true;
+            }
+            result.put(productId, (int) first.get(productId));
+            return true;
+        });
+        return result;
+    }
+
+    /**
+     * Requests a new index containing the currently indexed products and
+     * the given products, which replace indexed products with the same
+     * IDs. The index is built in a background thread, unless one is
+     * already being built, in which case the request is ignored: products
+     * that are still not indexed will be requested again.
+     */
+    public static void refresh(final Collection<GeneralVideoProduct> newProducts) {
+        rebuild(newProducts, true);
+    }
+
+    /**
+     * Requests a new index containing only the given products, the whole
+     * catalogue. The index is built in a background thread, unless one is
+     * already being built, in which case the request is ignored.
+     */
+    public static void replace(final Collection<GeneralVideoProduct> catalogue) {
+        rebuild(catalogue, false);
+    }
+
+    private static void rebuild(final Collection<GeneralVideoProduct> newProducts, final boolean merge) {
+        if (newProducts.isEmpty() || !rebuilding.compareAndSet(false, true)) return;
+        final List<GeneralVideoProduct> products = new ArrayList<>(newProducts);
+        final Thread thread = new Thread(() -> {
+            try {
+                final long start = System.nanoTime();
+                final PersonIndex index = build(current, products, merge);
+                current = index;
+                log.info("Person index rebuilt with " + index.productCount() + " products and " + index.tokenCount() + " tokens in " + ((System.nanoTime() - start) / 1000000L) + " ms");
+            }
+            catch (RuntimeException e) {
+                log.error("Failed to rebuild the person index: " + e.toString(), e);
+            }
+            finally {
+                rebuilding.set(false);
+            }
+        }, "blenders-person-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Builds an index of the given products, and of the previous products
+     * if merging. Only products not in the previous index are tokenised,
+     * postings of the others are kept.
+     */
+    static PersonIndex build(final PersonIndex previous, final Collection<GeneralVideoProduct> newProducts, final boolean merge) {
+        final int capacity = newProducts.size() + (merge ? previous.products.length : 0);
+        final TLongIntMap byId = new TLongIntHashMap(capacity);
+        final List<GeneralVideoProduct> products = new ArrayList<>(capacity);
+        if (merge) {
+            for (final GeneralVideoProduct product : previous.products) {
+                byId.put(product.id, products.size());
+                products.add(product);
+            }
+        }
+        for (final GeneralVideoProduct product : newProducts) {
+            if (byId.containsKey(product.id)) products.set(byId.get(product.id), product);
+            else {
+                byId.put(product.id, products.size());
+                products.add(product);
+            }
+        }
+        final GeneralVideoProduct[] indexed = products.toArray(new GeneralVideoProduct[products.size()]);
+
+        // previous products that are no longer indexed, or changed since
+        final TLongSet dropped = new TLongHashSet();
+        for (final GeneralVideoProduct product : previous.products) {
+            if (!byId.containsKey(product.id) || (indexed[byId.get(product.id)] != product)) dropped.add(product.id);
+        }
+
+        // keep the postings of the other previous products
+        final Map<String, Posting> postingsByToken = new HashMap<>(previous.tokens.length + 16);
+        for (int t = 0; t < previous.tokens.length; t++) {
+            final Posting posting = dropped.isEmpty() ? previous.postings[t] : previous.postings[t].without(dropped);
+            if (posting.size > 0) postingsByToken.put(previous.tokens[t], posting);
+        }
+
+        // tokenise the new products
+        final FoldedTextIndex folded = FoldedTextIndex.current();
+        for (final GeneralVideoProduct product : indexed) {
+            if (previous.position(product) >= 0) continue;
+            final String[] names = folded.product(product).fields[FoldedTextIndex.ACTORS];
+            for (int ordinal = 0; ordinal < names.length; ordinal++) {
+                final String name = names[ordinal];
+                int start = 0;
+                while (start < name.length()) {
+                    int end = name.indexOf(' ', start);
+                    if (end < 0) end = name.length();
+                    if (end > start) {
+                        final String token = name.substring(start, end);
+                        Posting posting = postingsByToken.get(token);
+                        if (posting == null) {
+                            posting = new Posting();
+                            postingsByToken.put(token, posting);
+                        }
+                        else if (posting.isShared) {
+                            posting = posting.copy();
+                            postingsByToken.put(token, posting);
+                        }
+                        posting.add(product.id, ordinal, start);
+                    }
+                    start = end + 1;
+                }
+            }
+        }
+
+        final String[] tokens = postingsByToken.keySet().toArray(new String[postingsByToken.size()]);
+        final Posting[] postings = new Posting[tokens.length];
+        for (int i = 0; i < tokens.length; i++) postings[i] = postingsByToken.get(tokens[i]).trim();
+        return new PersonIndex(indexed, tokens, postings);
+    }
+
+    /**
+     * Occurrences of a token: products, and for each product the first
+     * occurrence, given as the ordinal of the name and the position in it.
+     * A posting is shared between indexes once it is trimmed, then it is
+     * copied before it is changed.
+     */
+    private static final class Posting {
+        int size = 0;
+        long[] productIds;
+        int[] ordinals;
+        int[] positions;
+        boolean isShared = false;
+
+        Posting() {
+            this(4);
+        }
+
+        private Posting(final int capacity) {
+            productIds = new long[capacity];
+            ordinals = new int[capacity];
+            positions = new int[capacity];
+        }
+
+        void add(final long productId, final int ordinal, final int position) {
+            // products are indexed one after another, so only the last entry can be of the same product
+            if ((size > 0) && (productIds[size - 1] == productId)) return; // the first occurrence is the one that counts
+            if (size == productIds.length) {
+                final int capacity = Math.max(4, size * 2);
+                productIds = Arrays.copyOf(productIds, capacity);
+                ordinals = Arrays.copyOf(ordinals, capacity);
+                positions = Arrays.copyOf(positions, capacity);
+            }
+            productIds[size] = productId;
+            ordinals[size] = ordinal;
+            positions[size] = position;
+            size++;
+        }
+
+        /**
+         * Returns a posting without the given products, this one if it contains none of them.
+         */
+        Posting without(final TLongSet productIdsToRemove) {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (!productIdsToRemove.contains(productIds[i])) kept++;
+            }
+            if (kept == size) return this;
+            final Posting result = new Posting(kept);
+            for (int i = 0; i < size; i++) {
+                if (!productIdsToRemove.contains(productIds[i])) result.add(productIds[i], ordinals[i], positions[i]);
+            }
+            return result;
+        }
+
+        Posting copy() {
+            final Posting result = new Posting(size + 4);
+            System.arraycopy(productIds, 0, result.productIds, 0, size);
+            System.arraycopy(ordinals, 0, result.ordinals, 0, size);
+            System.arraycopy(positions, 0, result.positions, 0, size);
+            result.size = size;
+            return result;
+        }
+
+        Posting trim() {
+            if (isShared) return this;
+            if (productIds.length != size) {
+                productIds = Arrays.copyOf(productIds, size);
+                ordinals = Arrays.copyOf(ordinals, size);
+                positions = Arrays.copyOf(positions, size);
+            }
+            isShared = true;
+            return this;
+        }
+    }
+}
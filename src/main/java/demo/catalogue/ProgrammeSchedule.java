@@ -0,0 +1,347 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.catalogue;
+
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.DuplicateResolver;
+import com.gurucue.recommendations.blender.TvChannelData;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.TvProgrammeProduct;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Interval index of tv-programmes: programmes sorted by their begin time,
+ * overall and per tv-channel, so programmes airing within a time range are
+ * found with a binary search instead of looking at every programme. Any
+ * programme overlapping a range begins less than the longest programme
+ * duration before the range, which bounds the search.
+ * <p>
+ * A schedule is immutable. The current schedule is rebuilt in the background
+ * from the programmes offered with {@link #offer(DataSet, Collector, long, long)},
+ * at most once per {@link #REFRESH_MILLIS}, merged with the earlier ones that
+ * are still within the given retention. A DataSet of a request holds only
+ * one programme of duplicate videos, so the programmes its duplicate
+ * resolver chose against are offered too, through a {@link Collector}.
+ */
+public final class ProgrammeSchedule {
+    private static final Logger log = LogManager.getLogger(ProgrammeSchedule.class);
+    public static final long REFRESH_MILLIS = 60000L;
+    private static final ProgrammeSchedule EMPTY = new ProgrammeSchedule(new TvProgrammeProduct[0], new long[0][], 0L);
+    private static volatile ProgrammeSchedule current = EMPTY;
+    private static final AtomicBoolean rebuilding = new AtomicBoolean(false);
+    private static final ThreadPoolExecutor rebuilder = rebuilder();
+
+    private final TvProgrammeProduct[] programmes; // sorted by begin time
+    private final long[] beginTimes; // of programmes
+    private final long[][] channelIds; // of programmes
+    private final long maxDurationMillis;
+    private final TLongObjectMap<int[]> byChannel = new TLongObjectHashMap<>(); // tv-channel ID -> indexes of its programmes, ascending
+    public final long builtMillis;
+
+    private ProgrammeSchedule(final TvProgrammeProduct[] programmes, final long[][] channelIds, final long builtMillis) {
+        this.programmes = programmes;
+        this.channelIds = channelIds;
+        this.builtMillis = builtMillis;
+        final int n = programmes.length;
+        beginTimes = new long[n];
+        long maxDuration = 0L;
+        final TLongObjectMap<TIntArrayList> channels = new TLongObjectHashMap<>();
+        for (int i = 0; i < n; i++) {
+            final TvProgrammeProduct programme = programmes[i];
+            beginTimes[i] = programme.beginTimeMillis;
+            maxDuration = Math.max(maxDuration, programme.endTimeMillis - programme.beginTimeMillis);
+            for (final long channelId : channelIds[i]) {
+                TIntArrayList indexes = channels.get(channelId);
+                if (indexes == null) {
+                    indexes = new TIntArrayList();
+                    channels.put(channelId, indexes);
+                }
+                indexes.add(i);
+            }
+        }
+        maxDurationMillis = maxDuration;
+        channels.forEachEntry((channelId, indexes) -> {
+            byChannel.put(channelId, indexes.toArray());
+            return true;
+        });
+    }
+
+    public static ProgrammeSchedule current() {
+        return current;
+    }
+
+    /**
+     * Returns whether the schedule was built, an empty schedule knows of no programmes.
+     */
+    public boolean isBuilt() {
+        return builtMillis > 0L;
+    }
+
+    public int size() {
+        return programmes.length;
+    }
+
+    /**
+     * Returns programmes airing at least partly within the time range, in the order of their begin times.
+     *
+     * @param fromMillis the start of the range, inclusive
+     * @param toMillis the end of the range, exclusive
+     * @return the programmes
+     */
+    public List<TvProgrammeProduct> overlapping(final long fromMillis, final long toMillis) {
+        final List<TvProgrammeProduct> result = new ArrayList<>();
+        for (int i = firstCandidate(fromMillis); (i < programmes.length) && (beginTimes[i] < toMillis); i++) {
+            if (programmes[i].endTimeMillis > fromMillis) result.add(programmes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns programmes of the tv-channel airing at least partly within the time range, in the order of their begin times.
+     *
+     * @param channelId the ID of the tv-channel
+     * @param fromMillis the start of the range, inclusive
+     * @param toMillis the end of the range, exclusive
+     * @return the programmes
+     */
+    public List<TvProgrammeProduct> overlapping(final long channelId, final long fromMillis, final long toMillis) {
+        final int[] indexes = byChannel.get(channelId);
+        if (indexes == null) return Collections.emptyList();
+        final List<TvProgrammeProduct> result = new ArrayList<>();
+        for (int pos = candidatePosition(indexes, fromMillis); pos < indexes.length; pos++) {
+            final int i = indexes[pos];
+            if (beginTimes[i] >= toMillis) break;
+            if (programmes[i].endTimeMillis > fromMillis) result.add(programmes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns all programmes, in the order of their begin times.
+     */
+    public List<TvProgrammeProduct> programmes() {
+        return Collections.unmodifiableList(Arrays.asList(programmes));
+    }
+
+    /**
+     * Returns the IDs of tv-channels with programmes.
+     */
+    public long[] channelIds() {
+        return byChannel.keys();
+    }
+
+    /**
+     * Returns the indexes of the programmes of the tv-channel, ascending, or
+     * <code>null</code> if it has no programmes. The array must not be modified.
+     */
+    int[] channelIndexes(final long channelId) {
+        return byChannel.get(channelId);
+    }
+
+    TvProgrammeProduct programme(final int index) {
+        return programmes[index];
+    }
+
+    /**
+     * Returns the position within the indexes of a tv-channel of its first
+     * programme not ended at the given time.
+     */
+    int firstNotEnded(final int[] indexes, final long atMillis) {
+        return nextNotEnded(indexes, candidatePosition(indexes, atMillis), atMillis);
+    }
+
+    /**
+     * Returns the first position within the indexes of a tv-channel, from the
+     * given position on, of a programme not ended at the given time.
+     */
+    int nextNotEnded(final int[] indexes, int position, final long atMillis) {
+        while ((position < indexes.length) && (programmes[indexes[position]].endTimeMillis <= atMillis)) position++;
+        return position;
+    }
+
+    /**
+     * Returns the position within the indexes of a tv-channel of its first programme which may overlap a range starting at the given time.
+     */
+    private int candidatePosition(final int[] indexes, final long fromMillis) {
+        final int pos = Arrays.binarySearch(indexes, firstCandidate(fromMillis));
+        return pos < 0 ? -pos - 1 : pos;
+    }
+
+    /**
+     * Returns the index of the first programme which may overlap a range starting at the given time.
+     */
+    private int firstCandidate(final long fromMillis) {
+        final long earliestBegin = fromMillis - maxDurationMillis;
+        int low = 0;
+        int high = beginTimes.length;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (beginTimes[mid] < earliestBegin) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * Offers the programmes of a DataSet to the schedule. If the schedule is
+     * due for a refresh, the programmes are collected, and a new schedule
+     * is built in the background.
+     *
+     * @param dataSet the DataSet of content of a request
+     * @param collector the duplicate resolver of the DataSet, holding the programmes resolved away
+     * @param nowMillis the request time
+     * @param retentionMillis how long ended programmes are kept in the schedule
+     */
+    public static void offer(final DataSet<VideoData> dataSet, final Collector collector, final long nowMillis, final long retentionMillis) {
+        if (((nowMillis - current.builtMillis) < REFRESH_MILLIS) || !rebuilding.compareAndSet(false, true)) return;
+        final List<TvProgrammeProduct> programmes = new ArrayList<>();
+        final List<long[]> channels = new ArrayList<>();
+        try {
+            for (final VideoData videoData : dataSet) collect(videoData, programmes, channels);
+            for (final VideoData videoData : collector.resolvedAway) collect(videoData, programmes, channels);
+            rebuilder.execute(() -> {
+                try {
+                    final long start = System.nanoTime();
+                    final ProgrammeSchedule schedule = build(current, programmes, channels, nowMillis, retentionMillis);
+                    current = schedule;
+                    log.info("Programme schedule rebuilt with " + schedule.size() + " programmes on " + schedule.byChannel.size() + " tv-channels in " + ((System.nanoTime() - start) / 1000000L) + " ms");
+                }
+                catch (RuntimeException e) {
+                    log.error("Failed to rebuild the programme schedule: " + e.toString(), e);
+                }
+                finally {
+                    rebuilding.set(false);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            rebuilding.set(false);
+            throw e;
+        }
+    }
+
+    private static void collect(final VideoData videoData, final List<TvProgrammeProduct> programmes, final List<long[]> channels) {
+        if (!videoData.isTvProgramme) return;
+        programmes.add((TvProgrammeProduct) videoData.video);
+        channels.add(channelIds(videoData.availableTvChannels));
+    }
+
+    /**
+     * One rebuild runs at a time, guarded by <code>rebuilding</code>, so a
+     * single thread is reused; it exits when idle.
+     */
+    private static ThreadPoolExecutor rebuilder() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(1), runnable -> {
+            final Thread thread = new Thread(runnable, "blenders-programme-schedule");
+            thread.setDaemon(true);
+            return thread;
+        }, (runnable, e) -> {
+            throw new RejectedExecutionException("Programme schedule rebuild already queued");
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static long[] channelIds(final Iterable<TvChannelData> channels) {
+        if (channels == null) return new long[0];
+        final TLongSet ids = new TLongHashSet();
+        for (final TvChannelData data : channels) ids.add(data.tvChannel.id);
+        return ids.toArray();
+    }
+
+    static ProgrammeSchedule build(final ProgrammeSchedule previous, final List<TvProgrammeProduct> programmes, final List<long[]> channels, final long nowMillis, final long retentionMillis) {
+        final long oldestEnd = nowMillis - retentionMillis;
+        // the offered programmes replace those with the same IDs, their channels are merged
+        final TLongObjectMap<Entry> entries = new TLongObjectHashMap<>(previous.programmes.length + programmes.size());
+        for (int i = 0; i < previous.programmes.length; i++) {
+            final TvProgrammeProduct programme = previous.programmes[i];
+            if (programme.endTimeMillis > oldestEnd) entries.put(programme.id, new Entry(programme, previous.channelIds[i]));
+        }
+        for (int i = 0; i < programmes.size(); i++) {
+            final TvProgrammeProduct programme = programmes.get(i);
+            if (programme.endTimeMillis <= oldestEnd) continue;
+            final Entry existing = entries.get(programme.id);
+            final long[] channelIds = channels.get(i);
+            if (existing == null) entries.put(programme.id, new Entry(programme, channelIds));
+            else {
+                final TLongSet merged = new TLongHashSet(existing.channelIds);
+                merged.addAll(channelIds);
+                entries.put(programme.id, new Entry(programme, merged.toArray()));
+            }
+        }
+        final Entry[] sorted = entries.values(new Entry[entries.size()]);
+        Arrays.sort(sorted, Comparator.comparingLong(entry -> entry.programme.beginTimeMillis));
+        final TvProgrammeProduct[] sortedProgrammes = new TvProgrammeProduct[sorted.length];
+        final long[][] sortedChannelIds = new long[sorted.length][];
+        for (int i = 0; i < sorted.length; i++) {
+            sortedProgrammes[i] = sorted[i].programme;
+            sortedChannelIds[i] = sorted[i].channelIds;
+        }
+        return new ProgrammeSchedule(sortedProgrammes, sortedChannelIds, Math.max(1L, nowMillis));
+    }
+
+    /**
+     * A duplicate resolver remembering the tv-programmes it resolves away,
+     * such as repeat airings and programmes with a VOD duplicate, so they
+     * still get into the schedule. Use one per DataSet.
+     */
+    public static final class Collector implements DuplicateResolver<VideoData> {
+        private final DuplicateResolver<VideoData> resolver;
+        private final List<VideoData> resolvedAway = new ArrayList<>();
+
+        public Collector(final DuplicateResolver<VideoData> resolver) {
+            this.resolver = resolver;
+        }
+
+        @Override
+        public VideoData resolve(final VideoData value1, final VideoData value2) {
+            final VideoData result = resolver.resolve(value1, value2);
+            final VideoData other = result == value1 ? value2 : value1;
+            if ((other != result) && other.isTvProgramme) resolvedAway.add(other);
+            return result;
+        }
+    }
+
+    private static final class Entry {
+        final TvProgrammeProduct programme;
+        final long[] channelIds;
+
+        Entry(final TvProgrammeProduct programme, final long[] channelIds) {
+            this.programme = programme;
+            this.channelIds = channelIds;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.catalogue;
+
+import java.text.Normalizer;
+import java.util.Locale;
+
+/**
+ * Folds text for searching: converts it to lower case, transliterates
+ * Cyrillic into Latin script and removes diacritics, so that for instance
+ * "&#262;evap&#269;i&#263;i", "&#263;evap&#269;i&#263;i", "&#1035;&#1045;&#1042;&#1040;&#1055;&#1063;&#1048;&#1035;&#1048;" and "cevapcici" are all folded to
+ * "cevapcici". Letters that don't decompose into a base letter and a
+ * diacritic are mapped the way they are usually typed without diacritics:
+ * "&#273;" becomes "dj", "&#223;" becomes "ss", and so on.
+ * Folding uses a precomputed table for the Latin and Cyrillic ranges.
+ */
+public final class TextFolder {
+    private static final int TABLE_SIZE = 0x0500; // up to and including the Cyrillic block
+    private static final String[] table = new String[TABLE_SIZE];
+    private static final char[] identity = new char[TABLE_SIZE]; // the folded single char, or 0 if the fold is not a single char
+
+    static {
+        // Serbian and Macedonian Cyrillic, transliterated into Latin with diacritics, which are removed afterwards
+        final String cyrillic = "\u0430\u0431\u0432\u0433\u0434\u0452\u0435\u0436\u0437\u0438\u0458\u043a\u043b\u0459\u043c\u043d\u045a\u043e\u043f\u0440\u0441\u0442\u045b\u0443\u0444\u0445\u0446\u0447\u045f\u0448\u0453\u0455\u045c";
+        final String[] latin = {"a", "b", "v", "g", "d", "\u0111", "e", "\u017e", "z", "i", "j", "k", "l", "lj", "m", "n", "nj", "o", "p", "r", "s", "t", "\u0107", "u", "f", "h", "c", "\u010d", "d\u017e", "\u0161", "gj", "dz", "kj"};
+        // Russian and Ukrainian letters without a Serbian counterpart
+        final String cyrillicOther = "\u0451\u0439\u0449\u044a\u044b\u044c\u044d\u044e\u044f\u0454\u0456\u0457";
+        final String[] latinOther = {"e", "j", "\u0161\u010d", "", "y", "", "e", "ju", "ja", "je", "i", "ji"};
+        for (int c = 0; c < TABLE_SIZE; c++) {
+            final String lower = String.valueOf((char) c).toLowerCase(Locale.ROOT);
+            String folded;
+            final int cyrillicIndex = lower.length() == 1 ? cyrillic.indexOf(lower.charAt(0)) : -1;
+            final int otherIndex = lower.length() == 1 ? cyrillicOther.indexOf(lower.charAt(0)) : -1;
+            if (cyrillicIndex >= 0) folded = latin[cyrillicIndex];
+            else if (otherIndex >= 0) folded = latinOther[otherIndex];
+            else folded = lower;
+            folded = stripDiacritics(folded);
+            table[c] = folded;
+            identity[c] = folded.length() == 1 ? folded.charAt(0) : 0;
+        }
+    }
+
+    private TextFolder() {}
+
+    private static String stripDiacritics(final String s) {
+        final String decomposed = Normalizer.normalize(s, Normalizer.Form.NFD);
+        final StringBuilder result = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            final char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) continue;
+            switch (c) {
+                case '\u0111': result.append("dj"); break;
+                case '\u00df': result.append("ss"); break;
+                case '\u00f8': result.append('o'); break;
+                case '\u00e6': result.append("ae"); break;
+                case '\u0153': result.append("oe"); break;
+                case '\u0142': result.append('l'); break;
+                case '\u0131': result.append('i'); break;
+                default: result.append(c); break;
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the folded text. Returns the same instance when folding
+     * doesn't change the text.
+     *
+     * @param text the text to fold, may be <code>null</code>
+     * @return the folded text, <code>null</code> if the text is <code>null</code>
+     */
+    public static String fold(final String text) {
+        if (text == null) return null;
+        final int n = text.length();
+        // fast path: nothing to fold
+        int i = 0;
+        while (i < n) {
+            final char c = text.charAt(i);
+            if ((c >= TABLE_SIZE) || (identity[c] != c)) break;
+            i++;
+        }
+        if (i == n) return text;
+        final StringBuilder result = new StringBuilder(n + 8);
+        result.append(text, 0, i);
+        for (; i < n; i++) {
+            final char c = text.charAt(i);
+            if (c < TABLE_SIZE) {
+                final char f = identity[c];
+                if (f != 0) result.append(f);
+                else result.append(table[c]);
+            }
+            else result.append(Character.toLowerCase(c));
+        }
+        return result.toString();
+    }
+}
@@ -20,28 +20,28 @@ package demo.filters;
 
 import com.gurucue.recommendations.blender.StatelessFilter;
 import com.gurucue.recommendations.blender.VideoData;
+import demo.stats.FilterStatistics;
+import demo.stats.StatisticsProvider;
 
 /**
  * Accepts only content having series-id.
  */
-public final class AcceptOnlyAnySeries implements StatelessFilter<VideoData> {
-    int countRejected = 0;
-    int countAccepted = 0;
+public final class AcceptOnlyAnySeries implements StatelessFilter<VideoData>, StatisticsProvider {
+    private final FilterStatistics statistics = new FilterStatistics(getClass().getSimpleName());
 
     @Override
     public boolean test(final VideoData videoData) {
-        if (videoData.video.seriesId > 0L) {
-            countAccepted++;
-            return true;
-        }
-        countRejected++;
-        return false;
+        if (videoData.video.seriesId > 0L) return statistics.accepted();
+        return statistics.rejected();
     }
 
     @Override
     public void writeLog(final StringBuilder output) {
-        final String className = getClass().getSimpleName();
-        output.append(className).append(" rejected: ").append(countRejected).append("\n");
-        output.append(className).append(" accepted: ").append(countAccepted).append("\n");
+        statistics.writeLog(output);
+    }
+
+    @Override
+    public FilterStatistics getStatistics() {
+        return statistics;
     }
 }
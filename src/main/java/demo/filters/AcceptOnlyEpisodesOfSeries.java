@@ -20,35 +20,39 @@ package demo.filters;
 
 import com.gurucue.recommendations.blender.StatelessFilter;
 import com.gurucue.recommendations.blender.VideoData;
+import demo.stats.FilterStatistics;
+import demo.stats.StatisticsProvider;
 
 /**
  * Accept only content having the pre-defined series-id. Pass through
  * only episodes of a certain series and reject everything else.
  */
-public final class AcceptOnlyEpisodesOfSeries implements StatelessFilter<VideoData> {
+public final class AcceptOnlyEpisodesOfSeries implements StatelessFilter<VideoData>, StatisticsProvider {
     private final long seriesId;
 
     public AcceptOnlyEpisodesOfSeries(final long seriesId) {
         this.seriesId = seriesId;
+        // the series-id is not part of the name, so statistics of all series aggregate together
+        this.statistics = new FilterStatistics(getClass().getSimpleName());
     }
 
-    int countRejected = 0;
-    int countAccepted = 0;
+    private final FilterStatistics statistics;
 
     @Override
     public boolean test(final VideoData videoData) {
-        if (videoData.video.seriesId == seriesId) {
-            countAccepted++;
-            return true;
-        }
-        countRejected++;
-        return false;
+        if (videoData.video.seriesId == seriesId) return statistics.accepted();
+        return statistics.rejected();
     }
 
     @Override
     public void writeLog(final StringBuilder output) {
         final String className = getClass().getSimpleName();
-        output.append(className).append("(").append(seriesId).append(") rejected: ").append(countRejected).append("\n");
-        output.append(className).append("(").append(seriesId).append(") accepted: ").append(countAccepted).append("\n");
+        output.append(className).append("(").append(seriesId).append(") rejected: ").append(statistics.getRejected()).append("\n");
+        output.append(className).append("(").append(seriesId).append(") accepted: ").append(statistics.getAccepted()).append("\n");
+    }
+
+    @Override
+    public FilterStatistics getStatistics() {
+        return statistics;
     }
 }
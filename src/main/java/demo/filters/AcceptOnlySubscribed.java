@@ -0,0 +1,46 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.filters;
+
+import com.gurucue.recommendations.blender.StatelessFilter;
+import com.gurucue.recommendations.blender.VideoData;
+import demo.stats.FilterStatistics;
+import demo.stats.StatisticsProvider;
+
+/**
+ * Accepts only content the consumer is entitled to, i.e. subscribed to.
+ */
+public final class AcceptOnlySubscribed implements StatelessFilter<VideoData>, StatisticsProvider {
+    private final FilterStatistics statistics = new FilterStatistics(getClass().getSimpleName());
+
+    @Override
+    public boolean test(final VideoData videoData) {
+        return videoData.isSubscribed ? statistics.accepted() : statistics.rejected();
+    }
+
+    @Override
+    public void writeLog(final StringBuilder output) {
+        statistics.writeLog(output);
+    }
+
+    @Override
+    public FilterStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.filters;
+
+import com.gurucue.recommendations.blender.StatelessFilter;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.TvProgrammeProduct;
+import demo.stats.FilterStatistics;
+import demo.stats.StatisticsProvider;
+
+/**
+ * Accepts only tv-programmes airing at least partly within the given time range.
+ */
+public final class AcceptOnlyTimeRange implements StatelessFilter<VideoData>, StatisticsProvider {
+    private final long fromMillis;
+    private final long toMillis;
+    private final FilterStatistics statistics;
+
+    /**
+     * @param fromMillis the start of the range, inclusive
+     * @param toMillis the end of the range, exclusive
+     */
+    public AcceptOnlyTimeRange(final long fromMillis, final long toMillis) {
+        this.fromMillis = fromMillis;
+        this.toMillis = toMillis;
+        this.statistics = new FilterStatistics(getClass().getSimpleName() + "(" + fromMillis + ", " + toMillis + ")");
+    }
+
+    @Override
+    public boolean test(final VideoData videoData) {
+        if (!videoData.isTvProgramme) return statistics.rejected();
+        final TvProgrammeProduct tvProgramme = (TvProgrammeProduct)videoData.video;
+        if ((tvProgramme.beginTimeMillis < toMillis) && (tvProgramme.endTimeMillis > fromMillis)) return statistics.accepted();
+        return statistics.rejected();
+    }
+
+    @Override
+    public void writeLog(final StringBuilder output) {
+        statistics.writeLog(output);
+    }
+
+    @Override
+    public FilterStatistics getStatistics() {
+        return statistics;
+    }
+}
@@ -20,14 +20,25 @@ package demo.filters;
 
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableSet;
+import com.gurucue.recommendations.blender.DataSet;
 import com.gurucue.recommendations.blender.Rank;
 import com.gurucue.recommendations.blender.StatelessFilter;
 import com.gurucue.recommendations.blender.VideoData;
 import com.gurucue.recommendations.entity.Attribute;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
 import com.gurucue.recommendations.entity.value.TranslatableValue;
+import demo.Deadline;
+import demo.catalogue.FoldedTextIndex;
+import demo.catalogue.PersonIndex;
+import demo.catalogue.TextFolder;
+import demo.stats.FilterStatistics;
+import demo.stats.StatisticsProvider;
+import gnu.trove.map.TLongIntMap;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 import java.util.function.Function;
 
 /**
@@ -35,17 +46,44 @@ import java.util.function.Function;
  * match of the given search string in fields: title, title2, director,
  * actor, or an exact match of the production year. The search string is
  * first .
+ * The search string and actor names are folded with {@link TextFolder},
+ * names are folded once per product by the {@link FoldedTextIndex}.
+ * Products in the {@link PersonIndex} are matched by looking up the query
+ * words in the index once per search, other products are searched
+ * directly and handed to both indexes to be indexed. A search over the
+ * whole catalogue that finds products added to it or removed from it has
+ * the indexes rebuilt from the products it has seen.
  */
-public final class ActorsSearchFilter implements StatelessFilter<VideoData> {
+public final class ActorsSearchFilter implements StatelessFilter<VideoData>, StatisticsProvider {
+    private static final ThreadLocal<BitSet> seenPool = new ThreadLocal<>();
+
     private final Matcher matcher;
+    private final FoldedTextIndex.Lookup folded;
     private final String query;
     private final String[] words;
-    private int allCount = 0;
-    private int matchedCount = 0;
+    private final PersonIndex personIndex;
+    private final TLongIntMap indexMatches; // product ID -> position of the first match, null when the index is not used
+    private final ArrayList<GeneralVideoProduct> unindexed = new ArrayList<>();
+    private BitSet seen; // positions of indexed products seen, when searching the whole catalogue, otherwise null
+    private int indexedSeen = 0; // the number of distinct indexed products seen
+    private final FilterStatistics statistics = new FilterStatistics(getClass().getSimpleName());
+    private final Deadline deadline;
+    private int evaluated = 0;
+    private int skipped = 0; // items not matched because the deadline passed
 
     public ActorsSearchFilter(final String searchQuery) {
+        this(searchQuery, Deadline.NONE, false);
+    }
+
+    /**
+     * @param searchQuery the search query
+     * @param deadline the deadline of the request, after it the remaining items are not matched anymore
+     * @param wholeCatalogue whether the search is over the whole catalogue, so the person index can be rebuilt from the products seen
+     */
+    public ActorsSearchFilter(final String searchQuery, final Deadline deadline, final boolean wholeCatalogue) {
         this.query = searchQuery;
-        final String[] words = searchQuery.toLowerCase().split(" ");
+        this.deadline = deadline;
+        final String[] words = TextFolder.fold(searchQuery).split(" ");
         // collapse the array of words by excluding invalid (=empty) query words
         final int wordCount = words.length;
         int dstPos = 0;
@@ -68,18 +106,38 @@ public final class ActorsSearchFilter implements StatelessFilter<VideoData> {
         this.words = finalWords;
         // create the matcher
         final FieldSearch[] wordMatchers = new FieldSearch[1];
-        wordMatchers[0] = new TranslationsFieldSearch(finalWords, videoData -> videoData.video.actors);
+        final FoldedTextIndex.Lookup folded = FoldedTextIndex.current().newLookup();
+        this.folded = folded;
+        wordMatchers[0] = new FoldedFieldSearch(finalWords, videoData -> folded.product(videoData.video).fields[FoldedTextIndex.ACTORS]);
         matcher = new Matcher(wordMatchers, finalWords);
+        // look up the words in the person index
+        personIndex = PersonIndex.current();
+        indexMatches = (finalWords.length == 0) || (personIndex.productCount() == 0) ? null : personIndex.search(finalWords);
+        seen = wholeCatalogue && (indexMatches != null) ? takeSeen() : null;
     }
 
     @Override
     public boolean test(final VideoData videoData) {
-        allCount++;
+        if ((skipped > 0) || (((++evaluated & (Deadline.CHECK_INTERVAL - 1)) == 0) && deadline.isPast())) {
+            if (skipped++ == 0) deadline.markPartial();
+            return statistics.rejected(); // out of time, only what was matched so far is ranked
+        }
+        final int position = indexMatches == null ? -1 : personIndex.position(videoData.video);
+        if (position >= 0) {
+            if ((seen != null) && !seen.get(position)) {
+                seen.set(position);
+                indexedSeen++;
+            }
+            final long productId = videoData.video.id;
+            if (!indexMatches.containsKey(productId)) return statistics.rejected();
+            videoData.rank = new SearchRank(indexMatches.get(productId));
+            return statistics.accepted();
+        }
+        unindexed.add(videoData.video);
         final MatchMatrix matrix = matcher.match(videoData);
-        if (!matrix.allWordsMatched()) return false; // not all words match
-        matchedCount++;
+        if (!matrix.allWordsMatched()) return statistics.rejected(); // not all words match
         videoData.rank = new SearchRank(matrix); // assign it a rank, so it can be sorted
-        return true;
+        return statistics.accepted();
     }
 
     @Override
@@ -90,7 +148,47 @@ public final class ActorsSearchFilter implements StatelessFilter<VideoData> {
             output.append("\"").append(words[0]).append("\"");
             for (int i = 1; i < n; i++) output.append(", \"").append(words[i]).append("\"");
         }
-        output.append("], matched ").append(matchedCount).append(" out of ").append(allCount).append(" items\n");
+        output.append("], matched ").append(statistics.getAccepted()).append(" out of ").append(statistics.getEvaluated()).append(" items, ").append(unindexed.size()).append(" not in the person index");
+        if (skipped > 0) output.append(", ").append(skipped).append(" items skipped at the deadline");
+        output.append("\n");
+    }
+
+    @Override
+    public void onEnd(final DataSet<VideoData> dataSet) {
+        if ((seen == null) || (skipped > 0)) {
+            PersonIndex.refresh(unindexed);
+            folded.refresh();
+        }
+        // the whole catalogue was seen: products were added, changed or removed
+        else if (!unindexed.isEmpty() || (indexedSeen < personIndex.productCount())) {
+            final List<GeneralVideoProduct> catalogue = new ArrayList<>(indexedSeen + unindexed.size());
+            for (int position = seen.nextSetBit(0); position >= 0; position = seen.nextSetBit(position + 1)) catalogue.add(personIndex.product(position));
+            catalogue.addAll(unindexed);
+            PersonIndex.replace(catalogue);
+            FoldedTextIndex.replace(catalogue);
+        }
+        if (seen != null) {
+            seenPool.set(seen);
+            seen = null;
+        }
+    }
+
+    /**
+     * Takes the cleared marks of the current thread, or new ones if they
+     * are taken, so a search over the whole catalogue doesn't allocate
+     * marks for every product. They are returned at the end of the search.
+     */
+    private static BitSet takeSeen() {
+        final BitSet seen = seenPool.get();
+        if (seen == null) return new BitSet();
+        seenPool.set(null);
+        seen.clear();
+        return seen;
+    }
+
+    @Override
+    public FilterStatistics getStatistics() {
+        return statistics;
     }
 
     public interface FieldSearch {
@@ -212,6 +310,44 @@ public final class ActorsSearchFilter implements StatelessFilter<VideoData> {
         }
     }
 
+    /**
+     * Searches the folded values of a field, the query words must already be folded.
+     */
+    public static final class FoldedFieldSearch implements FieldSearch {
+        private final String[] words;
+        private final Function<VideoData, String[]> getter;
+        private final int wordCount;
+        private final MatchData[] noMatches;
+
+        public FoldedFieldSearch(final String[] words, final Function<VideoData, String[]> getter) {
+            this.words = words;
+            this.getter = getter;
+            this.wordCount = words.length;
+            noMatches = new MatchData[wordCount];
+            for (int i = wordCount - 1; i >= 0; i--) noMatches[i] = MatchData.NO_MATCH;
+        }
+
+        @Override
+        public MatchData[] search(final VideoData videoData) {
+            final String[] values = getter.apply(videoData);
+            if (values.length == 0) return noMatches;
+            final MatchData[] result = new MatchData[wordCount];
+            for (int i = wordCount - 1; i >= 0; i--) {
+                final String word = words[i];
+                final int wordLength = word.length();
+                final ArrayList<MatchDetail> positions = new ArrayList<>(32); // we hope there won't ever be more than 32 matches, else it will grow anyway but with a performance penalty
+                for (final String value : values) {
+                    for (int pos = value.indexOf(word, 0); pos >= 0; pos = value.indexOf(word, pos + wordLength)) {
+                        positions.add(new MatchDetail(pos, wordLength));
+                    }
+                }
+                final int n = positions.size();
+                result[i] = new MatchData(positions.toArray(new MatchDetail[n]), n);
+            }
+            return result;
+        }
+    }
+
     public static final class ProductionYearFieldSearch implements FieldSearch {
         private static final MatchData MATCH = new MatchData(new MatchDetail[]{new MatchDetail(0, 4)}, 1);
         private final int wordCount;
@@ -370,6 +506,15 @@ public final class ActorsSearchFilter implements StatelessFilter<VideoData> {
             this.rank = rank;
         }
 
+        /**
+         * Ranks a match on a single field, given the position of the
+         * first match of the first word, as found in the person index.
+         */
+        public SearchRank(final int firstMatchPosition) {
+            if (firstMatchPosition >= matchIndexWeights.length) rank = 1; // default
+            else rank = matchIndexWeights[firstMatchPosition]; // weighted match
+        }
+
         @Override
         public int getRank() {
             return rank;
@@ -20,6 +20,7 @@ package demo.filters;
 
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableSet;
+import com.gurucue.recommendations.blender.DataSet;
 import com.gurucue.recommendations.blender.Rank;
 import com.gurucue.recommendations.blender.StatelessFilter;
 import com.gurucue.recommendations.blender.TvChannelData;
@@ -27,27 +28,58 @@ import com.gurucue.recommendations.blender.VideoData;
 import com.gurucue.recommendations.data.AttributeCodes;
 import com.gurucue.recommendations.data.DataProvider;
 import com.gurucue.recommendations.entity.Attribute;
+import com.gurucue.recommendations.entity.product.TvChannelProduct;
 import com.gurucue.recommendations.entity.value.TranslatableValue;
+import demo.Deadline;
+import demo.catalogue.FoldedTextIndex;
+import demo.catalogue.TextFolder;
+import demo.stats.FilterStatistics;
+import demo.stats.StatisticsProvider;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.function.Function;
 
 /**
  * The common search filter: passes through only content with a substring
  * match of the given search string in fields: title, title2, director,
  * actor, or an exact match of the production year.
+ * The search string and the fields are folded with {@link TextFolder}, so
+ * matching ignores case, diacritics and the script; fields are folded once
+ * per product by the {@link FoldedTextIndex}, which is handed the products
+ * it doesn't index yet.
  */
-public final class CommonSearchFilter implements StatelessFilter<VideoData> {
+public final class CommonSearchFilter implements StatelessFilter<VideoData>, StatisticsProvider {
+    /** How often words match in each field, over the whole catalogue and all requests. */
+    private static final WordMatchStatistics wordStatistics = new WordMatchStatistics(8, 10000);
+
     private final Matcher matcher;
+    private final FoldedTextIndex.Lookup folded;
+    private final Attribute[] fieldAttributes; // of wordMatchers
+    private final ImmutableSet<Attribute>[] matchedAttributeSets; // lazily created, indexed by the bit mask of matched fields
     private final String query;
     private final String[] words;
-    private int allCount = 0;
-    private int matchedCount = 0;
+    private final FilterStatistics statistics = new FilterStatistics(getClass().getSimpleName());
+    private final Deadline deadline;
+    private int evaluated = 0;
+    private int skipped = 0; // items not matched because the deadline passed
 
     public CommonSearchFilter(final String searchQuery, final DataProvider provider) {
+        this(searchQuery, provider, Deadline.NONE);
+    }
+
+    /**
+     * @param searchQuery the search query
+     * @param provider the data provider of the request
+     * @param deadline the deadline of the request, after it the remaining items are not matched anymore
+     */
+    public CommonSearchFilter(final String searchQuery, final DataProvider provider, final Deadline deadline) {
         this.query = searchQuery;
-        final String[] words = searchQuery.toLowerCase().split(" ");
+        this.deadline = deadline;
+        final String[] words = TextFolder.fold(searchQuery).split(" ");
         // collapse the array of words by excluding invalid (=empty) query words
         final int wordCount = words.length;
         int dstPos = 0;
@@ -70,34 +102,40 @@ public final class CommonSearchFilter implements StatelessFilter<VideoData> {
         this.words = finalWords;
         // create the matcher
         final AttributeCodes attributeCodes = provider.getAttributeCodes();
+        final FoldedTextIndex.Lookup folded = FoldedTextIndex.current().newLookup();
+        this.folded = folded;
         final FieldSearch[] wordMatchers = new FieldSearch[8];
-        wordMatchers[0] = new TranslationFieldSearch(finalWords, videoData -> videoData.video.title, attributeCodes.title);
-        wordMatchers[1] = new TranslationFieldSearch(finalWords, videoData -> videoData.video.title2, attributeCodes.title2);
-        wordMatchers[2] = new TranslationsFieldSearch(finalWords, videoData -> videoData.video.directors, attributeCodes.director);
-        wordMatchers[3] = new TranslationsFieldSearch(finalWords, videoData -> videoData.video.actors, attributeCodes.actor);
-        wordMatchers[4] = new TranslationsFieldSearch(finalWords, videoData -> videoData.video.screenplayWriters, attributeCodes.screenplayWriter);
+        wordMatchers[0] = new FoldedFieldSearch(finalWords, videoData -> folded.product(videoData.video).fields[FoldedTextIndex.TITLE], attributeCodes.title);
+        wordMatchers[1] = new FoldedFieldSearch(finalWords, videoData -> folded.product(videoData.video).fields[FoldedTextIndex.TITLE2], attributeCodes.title2);
+        wordMatchers[2] = new FoldedFieldSearch(finalWords, videoData -> folded.product(videoData.video).fields[FoldedTextIndex.DIRECTORS], attributeCodes.director);
+        wordMatchers[3] = new FoldedFieldSearch(finalWords, videoData -> folded.product(videoData.video).fields[FoldedTextIndex.ACTORS], attributeCodes.actor);
+        wordMatchers[4] = new FoldedFieldSearch(finalWords, videoData -> folded.product(videoData.video).fields[FoldedTextIndex.SCREENPLAY_WRITERS], attributeCodes.screenplayWriter);
         wordMatchers[5] = new ProductionYearFieldSearch(finalWords, attributeCodes.productionYear);
-        wordMatchers[6] = new StringsFieldSearch(finalWords, videoData -> videoData.video.genres, attributeCodes.genre);
-        wordMatchers[7] = new TranslationsFieldSearch(finalWords, videoData -> {
-            if ((videoData.chosenTvChannels == null) || (videoData.chosenTvChannels.isEmpty())) return null;
-            final TranslatableValue[] result = new TranslatableValue[videoData.chosenTvChannels.size()];
-            int i = 0;
-            for (final TvChannelData data : videoData.chosenTvChannels) {
-                result[i++] = data.tvChannel.title;
-            }
-            return result;
-        }, attributeCodes.tvChannel);
-        matcher = new Matcher(wordMatchers, finalWords);
+        wordMatchers[6] = new FoldedFieldSearch(finalWords, videoData -> folded.product(videoData.video).fields[FoldedTextIndex.GENRES], attributeCodes.genre);
+        wordMatchers[7] = new TvChannelsFieldSearch(finalWords, attributeCodes.tvChannel);
+        matcher = new Matcher(wordMatchers, finalWords, wordStatistics);
+        fieldAttributes = new Attribute[]{attributeCodes.title, attributeCodes.title2, attributeCodes.director, attributeCodes.actor, attributeCodes.screenplayWriter, attributeCodes.productionYear, attributeCodes.genre, attributeCodes.tvChannel};
+        @SuppressWarnings("unchecked")
+        final ImmutableSet<Attribute>[] attributeSets = new ImmutableSet[1 << wordMatchers.length];
+        matchedAttributeSets = attributeSets;
+    }
+
+    public static WordMatchStatistics getWordStatistics() {
+        return wordStatistics;
     }
 
     @Override
     public boolean test(final VideoData videoData) {
-        allCount++;
-        final MatchMatrix matrix = matcher.match(videoData);
-        if (!matrix.allWordsMatched()) return false; // not all words match
-        matchedCount++;
-        videoData.rank = new SearchRank(matrix); // assign it a rank, so it can be sorted
-        return true;
+        if ((skipped > 0) || (((++evaluated & (Deadline.CHECK_INTERVAL - 1)) == 0) && deadline.isPast())) {
+            if (skipped++ == 0) deadline.markPartial();
+            return statistics.rejected(); // out of time, only what was matched so far is ranked
+        }
+        if (!matcher.mayMatch(videoData)) return statistics.rejected(); // a word doesn't match in any field
+        final MatchArena arena = MatchArena.forCandidate(fieldAttributes.length, words.length);
+        matcher.matchInto(videoData, arena);
+        if (!arena.allWordsMatched()) return statistics.rejected(); // not all words match
+        videoData.rank = new SearchRank(arena, fieldAttributes, matchedAttributeSets); // assign it a rank, so it can be sorted
+        return statistics.accepted();
     }
 
     @Override
@@ -108,11 +146,48 @@ public final class CommonSearchFilter implements StatelessFilter<VideoData> {
             output.append("\"").append(words[0]).append("\"");
             for (int i = 1; i < n; i++) output.append(", \"").append(words[i]).append("\"");
         }
-        output.append("], matched ").append(matchedCount).append(" out of ").append(allCount).append(" items\n");
+        output.append("], matched ").append(statistics.getAccepted()).append(" out of ").append(statistics.getEvaluated()).append(" items, words evaluated in order [");
+        final int[] wordOrder = matcher.wordOrder;
+        for (int i = 0; i < wordOrder.length; i++) {
+            if (i > 0) output.append(", ");
+            output.append("\"").append(words[wordOrder[i]]).append("\"");
+        }
+        output.append("]");
+        if (skipped > 0) output.append(", ").append(skipped).append(" items skipped at the deadline");
+        output.append("\n");
+    }
+
+    @Override
+    public void onEnd(final DataSet<VideoData> dataSet) {
+        matcher.publish(wordStatistics);
+        folded.refresh();
+    }
+
+    @Override
+    public FilterStatistics getStatistics() {
+        return statistics;
     }
 
     public interface FieldSearch {
         MatchRow search(VideoData videoData);
+
+        /**
+         * Returns whether the word with the given index matches anywhere in
+         * the field, without collecting match details.
+         */
+        boolean contains(VideoData videoData, int wordIndex);
+
+        /**
+         * Records the first match of each word in the field into the arena.
+         * Searches collecting matches into objects should override this
+         * with a search that doesn't allocate.
+         */
+        default void matchInto(final VideoData videoData, final MatchArena arena, final int fieldIndex) {
+            final MatchData[] cells = search(videoData).cells;
+            for (int i = cells.length - 1; i >= 0; i--) {
+                if (cells[i].matchCount > 0) arena.match(fieldIndex, i, cells[i].matches[0].position);
+            }
+        }
     }
 
     public static final class StringFieldSearch implements FieldSearch {
@@ -150,6 +225,13 @@ public final class CommonSearchFilter implements StatelessFilter<VideoData> {
             }
             return new MatchRow(result, attribute);
         }
+
+        @Override
+        public boolean contains(final VideoData videoData, final int wordIndex) {
+            final String val = getter.apply(videoData);
+            if ((val == null) || (val.length() == 0)) return false;
+            return val.toLowerCase().contains(words[wordIndex]);
+        }
     }
 	
     public static final class StringsFieldSearch implements FieldSearch {
@@ -190,6 +272,17 @@ public final class CommonSearchFilter implements StatelessFilter<VideoData> {
             }
             return new MatchRow(result, attribute);
         }
+
+        @Override
+        public boolean contains(final VideoData videoData, final int wordIndex) {
+            final String[] strings = getter.apply(videoData);
+            if (strings == null) return false;
+            final String word = words[wordIndex];
+            for (final String val : strings) {
+                if ((val != null) && val.toLowerCase().contains(word)) return true;
+            }
+            return false;
+        }
     }
 	
 	
@@ -233,6 +326,17 @@ public final class CommonSearchFilter implements StatelessFilter<VideoData> {
             }
             return new MatchRow(result, attribute);
         }
+
+        @Override
+        public boolean contains(final VideoData videoData, final int wordIndex) {
+            final TranslatableValue translatableValue = getter.apply(videoData);
+            if ((translatableValue == null) || (translatableValue.translations == null)) return false;
+            final String word = words[wordIndex];
+            for (final String val : translatableValue.translations.values()) {
+                if ((val != null) && val.toLowerCase().contains(word)) return true;
+            }
+            return false;
+        }
     }
 
     public static final class TranslationsFieldSearch implements FieldSearch {
@@ -279,63 +383,282 @@ public final class CommonSearchFilter implements StatelessFilter<VideoData> {
             }
             return new MatchRow(result, attribute);
         }
+
+        @Override
+        public boolean contains(final VideoData videoData, final int wordIndex) {
+            final TranslatableValue[] translatableValues = getter.apply(videoData);
+            if (translatableValues == null) return false;
+            final String word = words[wordIndex];
+            for (final TranslatableValue translatableValue : translatableValues) {
+                if ((translatableValue == null) || (translatableValue.translations == null)) continue;
+                for (final String val : translatableValue.translations.values()) {
+                    if ((val != null) && val.toLowerCase().contains(word)) return true;
+                }
+            }
+            return false;
+        }
     }
 
-    public static final class ProductionYearFieldSearch implements FieldSearch {
-        private final MatchData match;
+    /**
+     * Searches the folded values of a field, the query words must already be folded.
+     */
+    public static final class FoldedFieldSearch implements FieldSearch {
+        private final String[] words;
+        private final Function<VideoData, String[]> getter;
         private final int wordCount;
-        private final int[] matchValues;
-        private final int[] skipIndexes;
         private final MatchRow noMatch;
         private final Attribute attribute;
 
-        public ProductionYearFieldSearch(final String[] words, final Attribute attribute) {
-            match = new MatchData(new MatchDetail[]{new MatchDetail(0, 4)}, 1);
-            wordCount = words.length;
-            final int[] skipIndexes = new int[wordCount]; // max possible length
-            final int[] matchValues = new int[wordCount];
-            int skipIndexCount = 0;
-            int matchValueCount = 0;
-            for (int i = 0; i < wordCount; i++) {
-                try {
-                    final int value = Integer.parseInt(words[i], 10);
-                    matchValues[matchValueCount++] = value;
+        public FoldedFieldSearch(final String[] words, final Function<VideoData, String[]> getter, final Attribute attribute) {
+            this.words = words;
+            this.getter = getter;
+            this.wordCount = words.length;
+            final MatchData[] noMatches = new MatchData[wordCount];
+            for (int i = wordCount - 1; i >= 0; i--) noMatches[i] = MatchData.NO_MATCH;
+            this.noMatch = new MatchRow(noMatches, attribute);
+            this.attribute = attribute;
+        }
+
+        @Override
+        public MatchRow search(final VideoData videoData) {
+            final String[] values = getter.apply(videoData);
+            if (values.length == 0) return noMatch;
+            final MatchData[] result = new MatchData[wordCount];
+            for (int i = wordCount - 1; i >= 0; i--) {
+                final String word = words[i];
+                final int wordLength = word.length();
+                final ArrayList<MatchDetail> matches = new ArrayList<>(32); // we hope there won't ever be more than 32 matches, else it will grow anyway but with a performance penalty
+                for (final String value : values) {
+                    for (int pos = value.indexOf(word, 0); pos >= 0; pos = value.indexOf(word, pos + wordLength)) {
+                        matches.add(new MatchDetail(pos, wordLength));
+                    }
                 }
-                catch (NumberFormatException e) {
-                    skipIndexes[skipIndexCount++] = i;
+                final int n = matches.size();
+                result[i] = new MatchData(matches.toArray(new MatchDetail[n]), n);
+            }
+            return new MatchRow(result, attribute);
+        }
+
+        @Override
+        public void matchInto(final VideoData videoData, final MatchArena arena, final int fieldIndex) {
+            final String[] values = getter.apply(videoData);
+            for (int i = wordCount - 1; i >= 0; i--) {
+                final String word = words[i];
+                for (final String value : values) {
+                    final int pos = value.indexOf(word);
+                    if (pos >= 0) {
+                        arena.match(fieldIndex, i, pos);
+                        break;
+                    }
                 }
             }
-            this.matchValues = Arrays.copyOf(matchValues, matchValueCount);
-            this.skipIndexes = Arrays.copyOf(skipIndexes, skipIndexCount);
+        }
+
+        @Override
+        public boolean contains(final VideoData videoData, final int wordIndex) {
+            final String word = words[wordIndex];
+            for (final String value : getter.apply(videoData)) {
+                if (value.contains(word)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Searches the folded titles of the chosen tv-channels, the query words must already be folded.
+     * There are few tv-channels and many tv-programmes, so each tv-channel is matched only once per
+     * request, and its match row is reused for all its tv-programmes.
+     */
+    public static final class TvChannelsFieldSearch implements FieldSearch {
+        private final String[] words;
+        private final int wordCount;
+        private final MatchRow noMatch;
+        private final Attribute attribute;
+        private final TLongObjectMap<MatchRow> rowsByChannel = new TLongObjectHashMap<>(); // tv-channel ID -> match row
+
+        public TvChannelsFieldSearch(final String[] words, final Attribute attribute) {
+            this.words = words;
+            this.wordCount = words.length;
             final MatchData[] noMatches = new MatchData[wordCount];
             for (int i = wordCount - 1; i >= 0; i--) noMatches[i] = MatchData.NO_MATCH;
             this.noMatch = new MatchRow(noMatches, attribute);
             this.attribute = attribute;
         }
 
+        private MatchRow channelRow(final TvChannelProduct tvChannel) {
+            MatchRow row = rowsByChannel.get(tvChannel.id);
+            if (row == null) {
+                final String[] values = FoldedTextIndex.tvChannel(tvChannel);
+                final MatchData[] result = new MatchData[wordCount];
+                boolean matched = false;
+                for (int i = wordCount - 1; i >= 0; i--) {
+                    final String word = words[i];
+                    final int wordLength = word.length();
+                    final ArrayList<MatchDetail> matches = new ArrayList<>();
+                    for (final String value : values) {
+                        for (int pos = value.indexOf(word, 0); pos >= 0; pos = value.indexOf(word, pos + wordLength)) {
+                            matches.add(new MatchDetail(pos, wordLength));
+                        }
+                    }
+                    final int n = matches.size();
+                    result[i] = n == 0 ? MatchData.NO_MATCH : new MatchData(matches.toArray(new MatchDetail[n]), n);
+                    matched |= n > 0;
+                }
+                row = matched ? new MatchRow(result, attribute) : noMatch;
+                rowsByChannel.put(tvChannel.id, row);
+            }
+            return row;
+        }
+
         @Override
         public MatchRow search(final VideoData videoData) {
-            if (matchValues.length == 0) return noMatch; // no integer keywords
-            final int productionYear = videoData.video.productionYear;
-            if (productionYear <= 0) return noMatch; // production year not available
+            if ((videoData.chosenTvChannels == null) || (videoData.chosenTvChannels.isEmpty())) return noMatch;
+            if (videoData.chosenTvChannels.size() == 1) return channelRow(videoData.chosenTvChannels.iterator().next().tvChannel);
+            // more tv-channels: concatenate their matches
+            final MatchRow[] rows = new MatchRow[videoData.chosenTvChannels.size()];
+            int rowCount = 0;
+            for (final TvChannelData data : videoData.chosenTvChannels) {
+                final MatchRow row = channelRow(data.tvChannel);
+                if (row != noMatch) rows[rowCount++] = row;
+            }
+            if (rowCount == 0) return noMatch;
+            if (rowCount == 1) return rows[0];
             final MatchData[] result = new MatchData[wordCount];
-            int matchPos = 0;
-            int skipPos = 0;
-            for (int index = 0; index < wordCount; index++) {
-                if ((skipPos < skipIndexes.length) && (skipIndexes[skipPos] == index)) {
-                    result[index] = MatchData.NO_MATCH;
-                    skipPos++;
+            for (int i = wordCount - 1; i >= 0; i--) {
+                int n = 0;
+                for (int j = 0; j < rowCount; j++) n += rows[j].cells[i].matchCount;
+                final MatchDetail[] matches = new MatchDetail[n];
+                int pos = 0;
+                for (int j = 0; j < rowCount; j++) {
+                    final MatchData cell = rows[j].cells[i];
+                    System.arraycopy(cell.matches, 0, matches, pos, cell.matchCount);
+                    pos += cell.matchCount;
                 }
-                else if (matchPos < matchValues.length) {
-                    if (matchValues[matchPos] == productionYear) result[index] = match;
-                    else result[index] = MatchData.NO_MATCH;
-                    matchPos++;
+                result[i] = new MatchData(matches, n);
+            }
+            return new MatchRow(result, attribute);
+        }
+
+        @Override
+        public void matchInto(final VideoData videoData, final MatchArena arena, final int fieldIndex) {
+            if (videoData.chosenTvChannels == null) return;
+            for (final TvChannelData data : videoData.chosenTvChannels) {
+                final MatchData[] cells = channelRow(data.tvChannel).cells;
+                for (int i = wordCount - 1; i >= 0; i--) {
+                    if (cells[i].matchCount > 0) arena.match(fieldIndex, i, cells[i].matches[0].position); // the arena keeps the first tv-channel's match
+                }
+            }
+        }
+
+        @Override
+        public boolean contains(final VideoData videoData, final int wordIndex) {
+            if (videoData.chosenTvChannels == null) return false;
+            for (final TvChannelData data : videoData.chosenTvChannels) {
+                if (channelRow(data.tvChannel).cells[wordIndex].matchCount > 0) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Matches words that are years, or year ranges like "1990-1999", on
+     * the production year. Each word is turned into a bitmap of the years
+     * it matches, a range being the union of its years, so testing a
+     * product is a single bit lookup per word. Match rows are shared by
+     * all products of the same year.
+     */
+    public static final class ProductionYearFieldSearch implements FieldSearch {
+        static final int MIN_YEAR = 1;
+        static final int MAX_YEAR = 9999;
+        private final MatchData match;
+        private final int wordCount;
+        private final BitSet[] yearsByWord; // the years matched by each word, null if the word is not a year or a year range
+        private final BitSet years; // the union of yearsByWord
+        private final MatchRow[] rowsByYear; // lazily created, indexed by year - MIN_YEAR
+        private final MatchRow noMatch;
+        private final Attribute attribute;
+
+        public ProductionYearFieldSearch(final String[] words, final Attribute attribute) {
+            match = new MatchData(new MatchDetail[]{new MatchDetail(0, 4)}, 1);
+            wordCount = words.length;
+            yearsByWord = new BitSet[wordCount];
+            years = new BitSet();
+            for (int i = 0; i < wordCount; i++) {
+                final BitSet wordYears = parseYears(words[i]);
+                yearsByWord[i] = wordYears;
+                if (wordYears != null) years.or(wordYears);
+            }
+            rowsByYear = years.isEmpty() ? null : new MatchRow[years.length()];
+            final MatchData[] noMatches = new MatchData[wordCount];
+            for (int i = wordCount - 1; i >= 0; i--) noMatches[i] = MatchData.NO_MATCH;
+            this.noMatch = new MatchRow(noMatches, attribute);
+            this.attribute = attribute;
+        }
+
+        /**
+         * Returns the years the word matches, or null if it is neither a
+         * year nor a range of years. Years outside
+         * [{@link #MIN_YEAR}, {@link #MAX_YEAR}] are not matched.
+         */
+        static BitSet parseYears(final String word) {
+            final int dash = word.indexOf('-', 1);
+            try {
+                final int from;
+                final int to;
+                if (dash < 0) {
+                    from = Integer.parseInt(word, 10);
+                    to = from;
                 }
                 else {
-                    result[index] = MatchData.NO_MATCH;
+                    from = Integer.parseInt(word.substring(0, dash), 10);
+                    to = Integer.parseInt(word.substring(dash + 1), 10);
                 }
+                final BitSet result = new BitSet();
+                final int first = Math.max(Math.min(from, to), MIN_YEAR);
+                final int last = Math.min(Math.max(from, to), MAX_YEAR);
+                if (first <= last) result.set(first - MIN_YEAR, last - MIN_YEAR + 1);
+                return result;
             }
-            return new MatchRow(result, attribute);
+            catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public MatchRow search(final VideoData videoData) {
+            if (rowsByYear == null) return noMatch; // no year keywords
+            final int yearIndex = videoData.video.productionYear - MIN_YEAR;
+            if ((yearIndex < 0) || !years.get(yearIndex)) return noMatch; // production year not available or not matched
+            MatchRow row = rowsByYear[yearIndex];
+            if (row == null) {
+                final MatchData[] result = new MatchData[wordCount];
+                for (int i = 0; i < wordCount; i++) {
+                    final BitSet wordYears = yearsByWord[i];
+                    result[i] = (wordYears != null) && wordYears.get(yearIndex) ? match : MatchData.NO_MATCH;
+                }
+                row = new MatchRow(result, attribute);
+                rowsByYear[yearIndex] = row;
+            }
+            return row;
+        }
+
+        @Override
+        public void matchInto(final VideoData videoData, final MatchArena arena, final int fieldIndex) {
+            if (rowsByYear == null) return; // no year keywords
+            final int yearIndex = videoData.video.productionYear - MIN_YEAR;
+            if ((yearIndex < 0) || !years.get(yearIndex)) return; // production year not available or not matched
+            for (int i = 0; i < wordCount; i++) {
+                final BitSet wordYears = yearsByWord[i];
+                if ((wordYears != null) && wordYears.get(yearIndex)) arena.match(fieldIndex, i, 0);
+            }
+        }
+
+        @Override
+        public boolean contains(final VideoData videoData, final int wordIndex) {
+            final BitSet wordYears = yearsByWord[wordIndex];
+            if (wordYears == null) return false;
+            final int yearIndex = videoData.video.productionYear - MIN_YEAR;
+            return (yearIndex >= 0) && wordYears.get(yearIndex);
         }
     }
 
@@ -382,17 +705,81 @@ public final class CommonSearchFilter implements StatelessFilter<VideoData> {
         }
     }
 
+    /**
+     * Matches words on fields. Before the full match, which collects every
+     * match of every word in every field, {@link #mayMatch(VideoData)} checks
+     * the words in the order of their selectivity, the rarest word first,
+     * and for each word the fields most likely to match first. An item is
+     * rejected as soon as a word doesn't match in any field.
+     */
     public static final class Matcher {
         private final FieldSearch[] wordMatchers;
         private final int matcherCount;
         private final String[] words;
         private final int wordCount;
-
-        public Matcher(final FieldSearch[] wordMatchers, final String[] words) {
+        final int[] wordOrder;
+        private final int[][] fieldOrders; // for each word
+        // observations of this request, published to the statistics at the end
+        private final long[] wordEvaluated;
+        private final long[] wordMatched;
+        private final long[][] fieldEvaluated;
+        private final long[][] fieldMatched;
+
+        public Matcher(final FieldSearch[] wordMatchers, final String[] words, final WordMatchStatistics statistics) {
             this.wordMatchers = wordMatchers;
             this.matcherCount = wordMatchers.length;
             this.words = words;
             this.wordCount = words.length;
+            final double[] rates = new double[wordCount];
+            final Integer[] order = new Integer[wordCount];
+            fieldOrders = new int[wordCount][];
+            for (int i = 0; i < wordCount; i++) {
+                rates[i] = statistics.wordMatchRate(words[i]);
+                order[i] = i;
+                fieldOrders[i] = statistics.fieldOrder(words[i]);
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(rates[a], rates[b]));
+            wordOrder = new int[wordCount];
+            for (int i = 0; i < wordCount; i++) wordOrder[i] = order[i];
+            wordEvaluated = new long[wordCount];
+            wordMatched = new long[wordCount];
+            fieldEvaluated = new long[wordCount][matcherCount];
+            fieldMatched = new long[wordCount][matcherCount];
+        }
+
+        /**
+         * Returns whether every word matches in at least one field.
+         */
+        public boolean mayMatch(final VideoData videoData) {
+            nextWord:
+            for (final int wordIndex : wordOrder) {
+                wordEvaluated[wordIndex]++;
+                final long[] evaluated = fieldEvaluated[wordIndex];
+                for (final int fieldIndex : fieldOrders[wordIndex]) {
+                    evaluated[fieldIndex]++;
+                    if (wordMatchers[fieldIndex].contains(videoData, wordIndex)) {
+                        fieldMatched[wordIndex][fieldIndex]++;
+                        wordMatched[wordIndex]++;
+                        continue nextWord;
+                    }
+                }
+                return false; // no field matches the word
+            }
+            return true;
+        }
+
+        /**
+         * Adds observations of this request to the given statistics.
+         */
+        public void publish(final WordMatchStatistics statistics) {
+            for (int i = 0; i < wordCount; i++) statistics.add(words[i], wordEvaluated[i], wordMatched[i], fieldEvaluated[i], fieldMatched[i]);
+        }
+
+        /**
+         * Records the first matches of every word in every field into the arena.
+         */
+        public void matchInto(final VideoData videoData, final MatchArena arena) {
+            for (int i = 0; i < matcherCount; i++) wordMatchers[i].matchInto(videoData, arena, i);
         }
 
         public MatchMatrix match(final VideoData videoData) {
@@ -472,6 +859,47 @@ public final class CommonSearchFilter implements StatelessFilter<VideoData> {
             this.rank = rank;
         }
 
+        /**
+         * Ranks the matches in the arena the same way as a match matrix.
+         * Sets of matched attributes are shared by ranks with the same
+         * matched fields, through the given array indexed by the bit mask of
+         * matched fields.
+         *
+         * @param arena the matches
+         * @param attributes the attributes of the fields
+         * @param attributeSets the sets of matched attributes, filled in as needed
+         */
+        public SearchRank(final MatchArena arena, final Attribute[] attributes, final ImmutableSet<Attribute>[] attributeSets) {
+            final int fieldCount = arena.fieldCount();
+            final int wordCount = arena.wordCount();
+            int rank = 0;
+            int matchedMask = 0;
+            nextField:
+            for (int i = 0; i < fieldCount; i++) {
+                for (int j = 0; j < wordCount; j++) {
+                    final int pos = arena.firstPosition(i, j);
+                    if (pos != MatchArena.NO_MATCH) { // j-th word matched in a string of this field
+                        // closer to the start of field matches stronger, the first 2 fields match stronger
+                        final int fieldRank = pos >= matchIndexWeights.length ? 1 : matchIndexWeights[pos];
+                        rank += i < 2 ? fieldRank * 2 : fieldRank;
+                        matchedMask |= 1 << i;
+                        continue nextField;
+                    }
+                }
+            }
+            this.rank = rank;
+            ImmutableSet<Attribute> matched = attributeSets[matchedMask];
+            if (matched == null) {
+                final ImmutableSet.Builder<Attribute> builder = ImmutableSet.builder();
+                for (int i = 0; i < fieldCount; i++) {
+                    if ((matchedMask & (1 << i)) != 0) builder.add(attributes[i]);
+                }
+                matched = builder.build();
+                attributeSets[matchedMask] = matched;
+            }
+            this.matchedAttributes = matched;
+        }
+
         @Override
         public int getRank() {
             return rank;
@@ -0,0 +1,187 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.filters;
+
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.StatelessFilter;
+import com.gurucue.recommendations.blender.VideoData;
+import demo.stats.BlendStatistics;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A group of stateless filters which can be evaluated in any order, because
+ * each of them only accepts or rejects items. An item is accepted when all
+ * the filters accept it. The group evaluates them in the order of the
+ * lowest expected cost first: the measured cost of a filter divided by the
+ * share of items it rejects, so cheap filters that reject many items run
+ * first.
+ * <p>
+ * Cost and selectivity are measured on every {@link #SAMPLING_INTERVAL}-th
+ * item, and are aggregated over all requests of the blender. A sampled item
+ * is evaluated like any other, stopping at the first filter that rejects
+ * it, and only the filters that ran are timed and charged; the filter
+ * evaluated first rotates from sample to sample, so every filter is also
+ * measured on items the others would have rejected. Each new group uses the
+ * aggregated measurements to order its filters, until there are enough of
+ * them the declared order is used. Old measurements are given less and less
+ * weight, so the order follows changes in the catalogue.
+ */
+public final class CommutativeFilters implements StatelessFilter<VideoData> {
+    static final int SAMPLING_INTERVAL = 64;
+    private static final long MIN_SAMPLES = 1000L; // below this the declared order is used
+    private static final long MAX_SAMPLES = 1000000L; // above this the measurements are halved
+    private static final ConcurrentHashMap<String, Measurements> measurements = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final StatelessFilter<VideoData>[] filters; // in the declared order
+    private final StatelessFilter<VideoData>[] ordered; // in the evaluation order
+    private final int[] order; // declared indexes in the evaluation order
+    private final Measurements aggregated;
+    // measurements of this request, published at the end
+    private final long[] sampledEvaluated;
+    private final long[] sampledNanos;
+    private final long[] sampledAccepted;
+    private long samples = 0L;
+    private int untilSample = SAMPLING_INTERVAL;
+
+    /**
+     * @param statistics the statistics of the blender, identifying it
+     * @param name the name of the group, unique within the blender
+     * @param filters the filters, in the declared order
+     */
+    @SafeVarargs
+    public CommutativeFilters(final BlendStatistics statistics, final String name, final StatelessFilter<VideoData>... filters) {
+        this.name = name;
+        this.filters = filters;
+        this.aggregated = measurements.computeIfAbsent(statistics.partnerUsername + "\t" + statistics.blenderName + "\t" + name, key -> new Measurements(filters.length));
+        this.order = aggregated.order();
+        this.ordered = Arrays.copyOf(filters, filters.length);
+        for (int i = 0; i < order.length; i++) ordered[i] = filters[order[i]];
+        this.sampledEvaluated = new long[filters.length];
+        this.sampledNanos = new long[filters.length];
+        this.sampledAccepted = new long[filters.length];
+    }
+
+    @Override
+    public boolean test(final VideoData videoData) {
+        if (--untilSample <= 0) {
+            untilSample = SAMPLING_INTERVAL;
+            return sample(videoData);
+        }
+        for (final StatelessFilter<VideoData> filter : ordered) {
+            if (!filter.test(videoData)) return false;
+        }
+        return true;
+    }
+
+    private boolean sample(final VideoData videoData) {
+        final int n = order.length;
+        final int first = (int) (samples++ % n);
+        long start = System.nanoTime();
+        for (int k = 0; k < n; k++) {
+            final int position = (first + k) % n;
+            final boolean accepted = ordered[position].test(videoData);
+            final long end = System.nanoTime();
+            final int i = order[position];
+            sampledEvaluated[i]++;
+            sampledNanos[i] += end - start;
+            if (!accepted) return false;
+            sampledAccepted[i]++;
+            start = end;
+        }
+        return true;
+    }
+
+    @Override
+    public void writeLog(final StringBuilder output) {
+        output.append(getClass().getSimpleName()).append(" ").append(name).append(": evaluated in order");
+        for (final int i : order) output.append(" ").append(filters[i].getClass().getSimpleName());
+        output.append(", ").append(samples).append(" items sampled\n");
+        for (final StatelessFilter<VideoData> filter : filters) filter.writeLog(output);
+    }
+
+    @Override
+    public void onEnd(final DataSet<VideoData> dataSet) {
+        for (final StatelessFilter<VideoData> filter : filters) filter.onEnd(dataSet);
+        aggregated.add(samples, sampledEvaluated, sampledNanos, sampledAccepted);
+    }
+
+    /**
+     * Measurements of a group over all requests, for each filter over the
+     * sampled items it evaluated.
+     */
+    private static final class Measurements {
+        private final int filterCount;
+        private long samples = 0L; // guarded by this
+        private final long[] evaluated; // guarded by this
+        private final long[] nanos; // guarded by this
+        private final long[] accepted; // guarded by this
+
+        Measurements(final int filterCount) {
+            this.filterCount = filterCount;
+            this.evaluated = new long[filterCount];
+            this.nanos = new long[filterCount];
+            this.accepted = new long[filterCount];
+        }
+
+        synchronized void add(final long samples, final long[] evaluated, final long[] nanos, final long[] accepted) {
+            if ((samples == 0L) || (nanos.length != filterCount)) return;
+            this.samples += samples;
+            for (int i = 0; i < filterCount; i++) {
+                this.evaluated[i] += evaluated[i];
+                this.nanos[i] += nanos[i];
+                this.accepted[i] += accepted[i];
+            }
+            if (this.samples > MAX_SAMPLES) {
+                this.samples /= 2L;
+                for (int i = 0; i < filterCount; i++) {
+                    this.evaluated[i] /= 2L;
+                    this.nanos[i] /= 2L;
+                    this.accepted[i] /= 2L;
+                }
+            }
+        }
+
+        /**
+         * Returns declared indexes of filters in the order of the lowest expected cost first.
+         */
+        synchronized int[] order() {
+            final Integer[] order = new Integer[filterCount];
+            for (int i = 0; i < filterCount; i++) order[i] = i;
+            if (samples >= MIN_SAMPLES) {
+                final double[] ranks = new double[filterCount];
+                for (int i = 0; i < filterCount; i++) {
+                    if (evaluated[i] == 0L) continue; // not measured yet, it goes first to be measured
+                    final double cost = nanos[i] / (double) evaluated[i];
+                    final double rejected = 1.0 - (accepted[i] / (double) evaluated[i]);
+                    ranks[i] = rejected <= 0.0 ? Double.POSITIVE_INFINITY : cost / rejected;
+                }
+                Arrays.sort(order, (a, b) -> { // stable: equal filters keep their declared order
+                    final int c = Double.compare(ranks[a], ranks[b]);
+                    return c != 0 ? c : a - b;
+                });
+            }
+            final int[] result = new int[filterCount];
+            for (int i = 0; i < filterCount; i++) result[i] = order[i];
+            return result;
+        }
+    }
+}
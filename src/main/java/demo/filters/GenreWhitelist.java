@@ -21,6 +21,8 @@ package demo.filters;
 import com.google.common.collect.ImmutableSet;
 import com.gurucue.recommendations.blender.StatelessFilter;
 import com.gurucue.recommendations.blender.VideoData;
+import demo.stats.FilterStatistics;
+import demo.stats.StatisticsProvider;
 
 /**
  * Passes through general video products (video and tv-programme) containing
@@ -28,41 +30,39 @@ import com.gurucue.recommendations.blender.VideoData;
  * For a product to pass through it must contain a genre from
  * the set of genres.
  */
-public final class GenreWhitelist implements StatelessFilter<VideoData> {
+public final class GenreWhitelist implements StatelessFilter<VideoData>, StatisticsProvider {
     final ImmutableSet<String> genres;
 
     public GenreWhitelist(final ImmutableSet<String> genres) {
         this.genres = genres;
+        this.statistics = new FilterStatistics(getClass().getSimpleName() + genres);
     }
 
-    int countWhitelisted = 0;
-    int countRejected = 0;
+    private final FilterStatistics statistics;
 
     @Override
     public boolean test(final VideoData videoData) {
         final String[] g = videoData.video.genres;
-        if (g == null) {
-            countRejected++;
-            return false;
-        }
+        if (g == null) return statistics.rejected();
 
 		for (int i = g.length - 1; i >= 0; i--) {
 			for (final String value : genres) {
-				if (g[i].startsWith(value)) {
-					countWhitelisted++;
-					return true;
-				}			
+				if (g[i].startsWith(value)) return statistics.accepted();
 			}
         }
 		
-        countRejected++;
-        return false;
+        return statistics.rejected();
     }
 
     @Override
     public void writeLog(final StringBuilder output) {
         final String className = getClass().getSimpleName();
-        output.append(className).append(" rejected: ").append(countRejected).append("\n");
-        output.append(className).append(" accepted: ").append(countWhitelisted).append("\n");
+        output.append(className).append(" rejected: ").append(statistics.getRejected()).append("\n");
+        output.append(className).append(" accepted: ").append(statistics.getAccepted()).append("\n");
+    }
+
+    @Override
+    public FilterStatistics getStatistics() {
+        return statistics;
     }
 }
@@ -0,0 +1,92 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.filters;
+
+import java.util.Arrays;
+
+/**
+ * Scratch space of the search filters for matching a candidate: parallel
+ * primitive arrays instead of a graph of match objects per candidate. The
+ * arena holds the matches of one candidate at a time, for every field and
+ * query word the position of the first match, and is read through its
+ * flyweight accessors before the next candidate is matched. Only candidates
+ * that match get an object, their rank.
+ * <p>
+ * Arenas are pooled per thread and grow as needed, so after the first
+ * requests on a thread matching doesn't allocate.
+ */
+public final class MatchArena {
+    public static final int NO_MATCH = -1;
+    private static final ThreadLocal<MatchArena> pool = ThreadLocal.withInitial(MatchArena::new);
+
+    private int fieldCount = 0;
+    private int wordCount = 0;
+    private int[] firstPositions = new int[64]; // field * wordCount + word -> position of the first match, or NO_MATCH
+
+    private MatchArena() {}
+
+    /**
+     * Returns the arena of the current thread, cleared for matching a
+     * candidate with the given numbers of fields and words. Its content is
+     * valid until the next call on the same thread.
+     */
+    public static MatchArena forCandidate(final int fieldCount, final int wordCount) {
+        final MatchArena arena = pool.get();
+        final int size = fieldCount * wordCount;
+        if (arena.firstPositions.length < size) arena.firstPositions = new int[Math.max(size, arena.firstPositions.length * 2)];
+        arena.fieldCount = fieldCount;
+        arena.wordCount = wordCount;
+        Arrays.fill(arena.firstPositions, 0, size, NO_MATCH);
+        return arena;
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    public int wordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Records a match of the word in the field, only the first one is kept.
+     */
+    public void match(final int fieldIndex, final int wordIndex, final int position) {
+        final int i = (fieldIndex * wordCount) + wordIndex;
+        if (firstPositions[i] == NO_MATCH) firstPositions[i] = position;
+    }
+
+    /**
+     * Returns the position of the first match of the word in the field, or {@link #NO_MATCH}.
+     */
+    public int firstPosition(final int fieldIndex, final int wordIndex) {
+        return firstPositions[(fieldIndex * wordCount) + wordIndex];
+    }
+
+    public boolean allWordsMatched() {
+        nextWord:
+        for (int wordIndex = 0; wordIndex < wordCount; wordIndex++) {
+            for (int i = wordIndex; i < (fieldCount * wordCount); i += wordCount) {
+                if (firstPositions[i] != NO_MATCH) continue nextWord;
+            }
+            return false;
+        }
+        return true;
+    }
+}
@@ -22,46 +22,44 @@ import com.gurucue.recommendations.blender.StatelessFilter;
 import com.gurucue.recommendations.blender.VideoData;
 import com.gurucue.recommendations.entity.product.TvProgrammeProduct;
 import com.gurucue.recommendations.entity.product.VideoProduct;
+import demo.stats.FilterStatistics;
+import demo.stats.StatisticsProvider;
 
 /**
  * Rejects all content with runtime below a preset number of minutes.
  */
-public final class MinimumRuntime implements StatelessFilter<VideoData> {
+public final class MinimumRuntime implements StatelessFilter<VideoData>, StatisticsProvider {
     private final int minimumMinutes;
     private final long minimumMillis;
 
     public MinimumRuntime(final int minimumMinutes) {
         this.minimumMinutes = minimumMinutes;
         this.minimumMillis = minimumMinutes * 60000L;
+        this.statistics = new FilterStatistics(getClass().getSimpleName() + "(" + minimumMinutes + ")");
     }
 
-    int countRejected = 0;
-    int countAccepted = 0;
+    private final FilterStatistics statistics;
 
     @Override
     public boolean test(final VideoData videoData) {
         if (videoData.isTvProgramme) {
             final TvProgrammeProduct tvProgramme = (TvProgrammeProduct)videoData.video;
-            if ((tvProgramme.endTimeMillis - tvProgramme.beginTimeMillis) < minimumMillis) {
-                countRejected++;
-                return false;
-            }
+            if ((tvProgramme.endTimeMillis - tvProgramme.beginTimeMillis) < minimumMillis) return statistics.rejected();
         }
         else {
             final VideoProduct video = (VideoProduct)videoData.video;
-            if (video.runTime < minimumMinutes) {
-                countRejected++;
-                return false;
-            }
+            if (video.runTime < minimumMinutes) return statistics.rejected();
         }
-        countAccepted++;
-        return true;
+        return statistics.accepted();
     }
 
     @Override
     public void writeLog(final StringBuilder output) {
-        final String className = getClass().getSimpleName();
-        output.append(className).append("(").append(minimumMinutes).append(") rejected: ").append(countRejected).append("\n");
-        output.append(className).append("(").append(minimumMinutes).append(") accepted: ").append(countAccepted).append("\n");
+        statistics.writeLog(output);
+    }
+
+    @Override
+    public FilterStatistics getStatistics() {
+        return statistics;
     }
 }
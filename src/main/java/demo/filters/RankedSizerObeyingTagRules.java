@@ -22,27 +22,71 @@ import com.gurucue.recommendations.blender.DataSet;
 import com.gurucue.recommendations.blender.Rank;
 import com.gurucue.recommendations.blender.StatefulFilter;
 import com.gurucue.recommendations.blender.VideoData;
+import demo.Deadline;
 import gnu.trove.map.TLongIntMap;
 import gnu.trove.map.hash.TLongIntHashMap;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Filters out content until the dataset size comes down to the preset
  * maximum size, using ranks and tag rules within the provided dataset.
+ * After the deadline of the request the tag rules are not applied, the
+ * best ranked content is returned as a partial result.
+ * <p>
+ * Given an executor, tags with at least
+ * <code>demo.blenders.tagRules.parallelMinItems</code> items, 20000 by
+ * default, are rank-sorted on it in parallel. The calling thread sorts the
+ * remaining tags and any tags the executor didn't get to, so the result is
+ * the same as when sorting sequentially.
+ * <p>
+ * Content is ranked by its search rank, or by another comparator, like
+ * {@link PredictionComparator} for recommended content.
  */
 public class RankedSizerObeyingTagRules implements StatefulFilter<VideoData> {
+    private static final int PARALLEL_MIN_ITEMS = Integer.getInteger("demo.blenders.tagRules.parallelMinItems", 20000);
     private final int maxItems;
+    private final Deadline deadline;
+    private final Executor executor;
+    private final Comparator<VideoData> comparator;
 
     public RankedSizerObeyingTagRules(final int maxItems) {
+        this(maxItems, Deadline.NONE, null);
+    }
+
+    /**
+     * @param maxItems the maximum size of the result
+     * @param deadline the deadline of the request
+     * @param executor runs the rank-sorting of large tags in parallel, may be <code>null</code> to sort sequentially
+     */
+    public RankedSizerObeyingTagRules(final int maxItems, final Deadline deadline, final Executor executor) {
+        this(maxItems, deadline, executor, RankComparator.INSTANCE);
+    }
+
+    /**
+     * @param maxItems the maximum size of the result
+     * @param deadline the deadline of the request
+     * @param executor runs the rank-sorting of large tags in parallel, may be <code>null</code> to sort sequentially
+     * @param comparator orders content from the best to the worst
+     */
+    public RankedSizerObeyingTagRules(final int maxItems, final Deadline deadline, final Executor executor, final Comparator<VideoData> comparator) {
         this.maxItems = maxItems;
+        this.deadline = deadline;
+        this.executor = executor;
+        this.comparator = comparator;
     }
 
     private StringBuilder runLog;
@@ -56,7 +100,7 @@ public class RankedSizerObeyingTagRules implements StatefulFilter<VideoData> {
 
         if (n <= maxItems) {
             logBuilder.append("  * The dataset contains only ").append(n).append(" items, only rank-sorting it without applying any rules\n");
-            return source.sort(RankComparator.INSTANCE);
+            return source.sort(comparator);
         }
 
         final DataSet.Builder<VideoData> resultBuilder = new DataSet.Builder<>(source.getDuplicateResolver(), source);
@@ -68,13 +112,23 @@ public class RankedSizerObeyingTagRules implements StatefulFilter<VideoData> {
             limits.forEach((final String tag, final Integer maxItems) -> tagMap.put(tag, new SingleTagData(tag, maxItems, n)));
         }
 
-        if (tagMap.size() < 2) {
+        final boolean isPastDeadline = deadline.isPast();
+        if ((tagMap.size() < 2) || isPastDeadline) {
             // if there are not at least 2 tags to choose from, then there is no sense in applying any rules
-            logBuilder.append("  * There ");
-            if (tagMap.size() == 1) logBuilder.append("is only one tag (").append(tagMap.keySet().iterator().next()).append(")");
-            else logBuilder.append("are no tags");
-            logBuilder.append(" present, only rank-sorting it and returning first ").append(maxItems).append(" items out of ").append(n).append("\n");
-            final Iterator<VideoData> it = source.sort(RankComparator.INSTANCE).iterator();
+            logBuilder.append("  * ");
+            if (isPastDeadline) {
+                // out of time, return the best ranked content
+                deadline.markPartial();
+                logBuilder.append("The deadline passed");
+            }
+            else {
+                logBuilder.append("There ");
+                if (tagMap.size() == 1) logBuilder.append("is only one tag (").append(tagMap.keySet().iterator().next()).append(")");
+                else logBuilder.append("are no tags");
+                logBuilder.append(" present");
+            }
+            logBuilder.append(", only rank-sorting it and returning first ").append(maxItems).append(" items out of ").append(n).append("\n");
+            final Iterator<VideoData> it = source.sort(comparator).iterator();
             int i = maxItems;
             while (it.hasNext() && (i > 0)) {
                 resultBuilder.add(it.next());
@@ -103,10 +157,9 @@ public class RankedSizerObeyingTagRules implements StatefulFilter<VideoData> {
         final int tagCount = tagMap.size();
         final SingleTagData[] datas = new SingleTagData[tagCount];
         int i = 0;
-        for (final SingleTagData entry : tagMap.values()) {
-            entry.rankSort();
-            datas[i++] = entry;
-        }
+        for (final SingleTagData entry : tagMap.values()) datas[i++] = entry;
+        final int parallelCount = rankSort(datas);
+        if (parallelCount > 0) logBuilder.append("  * Rank-sorted ").append(parallelCount).append(" out of ").append(tagCount).append(" tags in parallel\n");
 
         // round-robin iteration among datas until we run out of candidates
         final SingleTagData[] workDatas = Arrays.copyOf(datas, datas.length);
@@ -196,6 +249,57 @@ public class RankedSizerObeyingTagRules implements StatefulFilter<VideoData> {
         return resultBuilder.build();
     }
 
+    /**
+     * Rank-sorts all tags, the large ones in parallel if there is an
+     * executor. Tags are independent, each is sorted by exactly one thread.
+     *
+     * @return the number of tags submitted to be sorted in parallel
+     */
+    private int rankSort(final SingleTagData[] datas) {
+        int largeCount = 0;
+        for (final SingleTagData data : datas) {
+            if (data.count >= PARALLEL_MIN_ITEMS) largeCount++;
+        }
+        if ((executor == null) || (largeCount < 2)) {
+            // nothing to gain from parallelism
+            for (final SingleTagData data : datas) data.rankSort(comparator);
+            return 0;
+        }
+        final List<FutureTask<Void>> tasks = new ArrayList<>(largeCount);
+        for (final SingleTagData data : datas) {
+            if (data.count < PARALLEL_MIN_ITEMS) continue;
+            final FutureTask<Void> task = new FutureTask<>(() -> data.rankSort(comparator), null);
+            try {
+                executor.execute(task);
+            }
+            catch (RejectedExecutionException e) {
+                // the executor is saturated, the task is run below by this thread
+            }
+            tasks.add(task);
+        }
+        for (final SingleTagData data : datas) {
+            if (data.count < PARALLEL_MIN_ITEMS) data.rankSort(comparator);
+        }
+        // run the tasks that didn't start yet, running a task that started or completed does nothing
+        for (final FutureTask<Void> task : tasks) task.run();
+        for (final FutureTask<Void> task : tasks) {
+            try {
+                task.get();
+            }
+            catch (ExecutionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new IllegalStateException("Rank-sorting a tag failed: " + cause, cause);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while rank-sorting tags", e);
+            }
+        }
+        return tasks.size();
+    }
+
     @Override
     public void writeLog(final StringBuilder output) {
         if (runLog == null) return;
@@ -230,8 +334,12 @@ public class RankedSizerObeyingTagRules implements StatefulFilter<VideoData> {
 
         // sorts, and builds the mapping (second phase of usage; this is the point where the builder becomes the container)
         public void rankSort() {
+            rankSort(RankComparator.INSTANCE);
+        }
+
+        public void rankSort(final Comparator<VideoData> comparator) {
             if (count > 1) {
-                Arrays.sort(data, 0, count, RankComparator.INSTANCE);
+                Arrays.sort(data, 0, count, comparator);
                 for (int i = count - 1; i >= 0; i--) {
                     dataById.put(data[i].video.id, i);
                 }
@@ -304,4 +412,18 @@ public class RankedSizerObeyingTagRules implements StatefulFilter<VideoData> {
             return r2.getRank() - r1.getRank();
         }
     }
+
+    /**
+     * Orders content by its prediction, the best first.
+     */
+    public static final class PredictionComparator implements Comparator<VideoData> {
+        public static final PredictionComparator INSTANCE = new PredictionComparator();
+
+        @Override
+        public int compare(final VideoData o1, final VideoData o2) {
+            if (o1 == null) return 1;
+            if (o2 == null) return -1;
+            return Double.compare(o2.prediction, o1.prediction);
+        }
+    }
 }
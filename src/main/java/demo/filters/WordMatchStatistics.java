@@ -0,0 +1,178 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.filters;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Catalogue-level statistics of how often query words match, overall and
+ * in each searched field. Search filters use them to evaluate the rarest
+ * word first and, for each word, the fields most likely to match first.
+ * Statistics are kept for a bounded number of most recently used words.
+ */
+public final class WordMatchStatistics {
+    private static final long MIN_EVALUATED = 100L; // below this the observed match rate is not trusted
+
+    private final int fieldCount;
+    private final Cache<String, WordEntry> words;
+    private final long[] fieldEvaluated; // totals over all words, guarded by this
+    private final long[] fieldMatched; // totals over all words, guarded by this
+
+    public WordMatchStatistics(final int fieldCount, final int maxWords) {
+        this.fieldCount = fieldCount;
+        this.words = CacheBuilder.newBuilder().maximumSize(maxWords).build();
+        this.fieldEvaluated = new long[fieldCount];
+        this.fieldMatched = new long[fieldCount];
+    }
+
+    /**
+     * Returns the estimated probability that an item matches the word in
+     * any field. Without enough observations the estimate is based on the
+     * word length: longer words match less often.
+     */
+    public double wordMatchRate(final String word) {
+        final WordEntry entry = words.getIfPresent(word);
+        if (entry != null) {
+            synchronized (entry) {
+                if (entry.evaluated >= MIN_EVALUATED) return entry.matched / (double) entry.evaluated;
+            }
+        }
+        return 1.0 / (1.0 + word.length());
+    }
+
+    /**
+     * Returns indexes of fields in descending order of their match rate for
+     * the given word. Without enough observations of the word, the match
+     * rates of fields over all words are used.
+     */
+    public int[] fieldOrder(final String word) {
+        final double[] rates = new double[fieldCount];
+        final WordEntry entry = words.getIfPresent(word);
+        boolean known = false;
+        if (entry != null) {
+            synchronized (entry) {
+                if (entry.evaluated >= MIN_EVALUATED) {
+                    known = true;
+                    for (int i = 0; i < fieldCount; i++) rates[i] = rate(entry.fieldMatched[i], entry.fieldEvaluated[i]);
+                }
+            }
+        }
+        if (!known) {
+            synchronized (this) {
+                for (int i = 0; i < fieldCount; i++) rates[i] = rate(fieldMatched[i], fieldEvaluated[i]);
+            }
+        }
+        final Integer[] order = new Integer[fieldCount];
+        for (int i = 0; i < fieldCount; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> { // stable: fields without observations keep their declared order
+            final int c = Double.compare(rates[b], rates[a]);
+            return c != 0 ? c : a - b;
+        });
+        final int[] result = new int[fieldCount];
+        for (int i = 0; i < fieldCount; i++) result[i] = order[i];
+        return result;
+    }
+
+    /**
+     * Adds observations of a word from a single request.
+     *
+     * @param word the query word
+     * @param evaluated the number of items the word was evaluated on
+     * @param matched the number of items matching the word in any field
+     * @param fieldEvaluated the number of items each field was evaluated on
+     * @param fieldMatched the number of items each field matched
+     */
+    public void add(final String word, final long evaluated, final long matched, final long[] fieldEvaluated, final long[] fieldMatched) {
+        if (evaluated == 0L) return;
+        WordEntry entry = words.getIfPresent(word);
+        if (entry == null) {
+            entry = new WordEntry(fieldCount);
+            final WordEntry existing = words.asMap().putIfAbsent(word, entry);
+            if (existing != null) entry = existing;
+        }
+        synchronized (entry) {
+            entry.evaluated += evaluated;
+            entry.matched += matched;
+            for (int i = 0; i < fieldCount; i++) {
+                entry.fieldEvaluated[i] += fieldEvaluated[i];
+                entry.fieldMatched[i] += fieldMatched[i];
+            }
+        }
+        synchronized (this) {
+            for (int i = 0; i < fieldCount; i++) {
+                this.fieldEvaluated[i] += fieldEvaluated[i];
+                this.fieldMatched[i] += fieldMatched[i];
+            }
+        }
+    }
+
+    /**
+     * Returns observations of all words, for each word the array of the
+     * number of evaluated and matched items, followed by the number of
+     * evaluated items of each field and the number of matches of each field.
+     */
+    public Map<String, long[]> export() {
+        final Map<String, long[]> result = new HashMap<>();
+        for (final Map.Entry<String, WordEntry> e : words.asMap().entrySet()) {
+            final WordEntry entry = e.getValue();
+            final long[] values = new long[2 + (2 * fieldCount)];
+            synchronized (entry) {
+                values[0] = entry.evaluated;
+                values[1] = entry.matched;
+                System.arraycopy(entry.fieldEvaluated, 0, values, 2, fieldCount);
+                System.arraycopy(entry.fieldMatched, 0, values, 2 + fieldCount, fieldCount);
+            }
+            result.put(e.getKey(), values);
+        }
+        return result;
+    }
+
+    /**
+     * Adds observations in the form returned by {@link #export()}, ignoring
+     * words observed on a different number of fields.
+     */
+    public void addAll(final Map<String, long[]> observations) {
+        for (final Map.Entry<String, long[]> e : observations.entrySet()) {
+            final long[] values = e.getValue();
+            if ((values == null) || (values.length != 2 + (2 * fieldCount))) continue;
+            add(e.getKey(), values[0], values[1], Arrays.copyOfRange(values, 2, 2 + fieldCount), Arrays.copyOfRange(values, 2 + fieldCount, values.length));
+        }
+    }
+
+    private static double rate(final long matched, final long evaluated) {
+        return evaluated == 0L ? 0.0 : matched / (double) evaluated;
+    }
+
+    private static final class WordEntry {
+        long evaluated = 0L;
+        long matched = 0L;
+        final long[] fieldEvaluated;
+        final long[] fieldMatched;
+
+        WordEntry(final int fieldCount) {
+            fieldEvaluated = new long[fieldCount];
+            fieldMatched = new long[fieldCount];
+        }
+    }
+}
@@ -18,15 +18,18 @@
  */
 package demo.recommenders;
 
+import com.gurucue.recommendations.ResponseException;
 import com.gurucue.recommendations.blender.BlendEnvironment;
 import com.gurucue.recommendations.blender.BlendParameters;
 import com.gurucue.recommendations.blender.BlenderResult;
 import com.gurucue.recommendations.blender.VideoData;
 import com.gurucue.recommendations.recommender.RecommendationSettings;
 import demo.BasicTagger;
+import demo.CandidateSource;
 import demo.DebugFiltersBuilder;
 import demo.Utils;
-import demo.VideoDuplicateResolver;
+import demo.stats.BlendStatistics;
+import demo.stats.StageTimer;
 
 /**
  * Video blender for the "all" recommendations. Collects the available content
@@ -35,24 +38,55 @@ import demo.VideoDuplicateResolver;
  */
 public final class BlenderAll implements RecommendBlender {
 
+    private final CandidateSource candidates;
+
+    public BlenderAll(final CandidateSource candidates) {
+        this.candidates = candidates;
+    }
+
     @Override
     public BlenderResult<VideoData> blend(
             final BlendEnvironment environment,
             final BlendParameters parameters,
             int maxItems,
             final String requestedVideoFormat,
-            final DebugFiltersBuilder debugFiltersBuilder
-    ) {
+            final DebugFiltersBuilder debugFiltersBuilder,
+            final BlendStatistics statistics
+    ) throws ResponseException {
         // set default output size, if not provided
         if (maxItems <= 0) maxItems = 20;
 
-        // initialize and filter the DataSet
-        return VideoData.buildDataSetOfVideosAndTvProgrammes(environment.transaction, environment.partner, environment.consumer, new VideoDuplicateResolver(requestedVideoFormat, environment.requestTimestampMillis), environment.requestTimestampMillis, Utils.MAX_CATCHUP_RETENTION, 0L)
-                .filter(new BasicTagger(environment.requestTimestampMillis, maxItems)) // this is an all-pass tagging filter
+        // the ranking of this consumer, cached for the following pages and visits
+        final StageTimer timer = statistics.timer();
+        final int offset = Utils.offset(parameters);
+        final int limit = maxItems;
+        final RankedProducts ranking = RecommendationCache.INSTANCE.ranking(environment, parameters, requestedVideoFormat, candidates, "all", offset + limit, (content, depth) -> timer.stages(content)
+                    .stage("build")
+                    .filter(statistics.track(new BasicTagger(environment.requestTimestampMillis, depth))) // this is an all-pass tagging filter
+                    .stage("BasicTagger")
+                    .filter(debugFiltersBuilder.allDataLogger(environment.debug))
+                    .stage("debug-all")
+                    .filter(environment.recommenderProvider.recommendationsFilter("demo-all", environment.consumer.id, new RecommendationSettings(depth, false)))
+                    .stage("recommendations")
+                    .filter(debugFiltersBuilder.filteredDataLogger(environment.debug))
+                    .stage("debug-filtered")
+                    .filter(debugFiltersBuilder.resultDataLogger(environment.debug))
+                    .stage("debug-result")
+                    .dataSet());
+
+        // serve the requested page of the ranking, with the tag limits of a page
+        return timer.result(timer.stages(candidates.products(environment, parameters, requestedVideoFormat, ranking.productList()))
+                .stage("page-build")
+                .filter(new BasicTagger(environment.requestTimestampMillis, limit)) // this is an all-pass tagging filter
+                .stage("page-BasicTagger")
                 .filter(debugFiltersBuilder.allDataLogger(environment.debug))
-                .filter(environment.recommenderProvider.recommendationsFilter("demo-all", environment.consumer.id, new RecommendationSettings(maxItems, false)))
+                .stage("page-debug-all")
+                .filter(ranking.pageObeyingTagRules(offset, limit))
+                .stage("page-ranking")
                 .filter(debugFiltersBuilder.filteredDataLogger(environment.debug))
+                .stage("page-debug-filtered")
                 .filter(debugFiltersBuilder.resultDataLogger(environment.debug))
-                .result("all").feedback("recommender", "demo-all");
+                .stage("page-debug-result")
+                .result("all")).feedback("recommender", "demo-all");
     }
 }
@@ -18,11 +18,13 @@
  */
 package demo.recommenders;
 
+import demo.CandidateSource;
 import demo.DebugFiltersBuilder;
 import demo.EpisodeSorter;
 import demo.Utils;
-import demo.VideoDuplicateResolver;
 import demo.filters.AcceptOnlyEpisodesOfSeries;
+import demo.stats.BlendStatistics;
+import demo.stats.StageTimer;
 import com.gurucue.recommendations.ResponseException;
 import com.gurucue.recommendations.ResponseStatus;
 import com.gurucue.recommendations.blender.BlendEnvironment;
@@ -37,13 +39,20 @@ import java.util.Collections;
  * Video blender for retrieving a list of all available episodes in a series.
  */
 public final class BlenderEpisodes implements RecommendBlender {
+    private final CandidateSource candidates;
+
+    public BlenderEpisodes(final CandidateSource candidates) {
+        this.candidates = candidates;
+    }
+
     @Override
     public BlenderResult<VideoData> blend(
             final BlendEnvironment environment,
             final BlendParameters parameters,
             int maxItems,
             final String requestedVideoFormat,
-            final DebugFiltersBuilder debugFiltersBuilder
+            final DebugFiltersBuilder debugFiltersBuilder,
+            final BlendStatistics statistics
     ) throws ResponseException {
         // 1) we need a reference product to determine the series
         final GeneralVideoProduct[] referenceProducts = Utils.referencedProducts(parameters);
@@ -54,25 +63,32 @@ public final class BlenderEpisodes implements RecommendBlender {
         final long seriesId = referenceProduct.seriesId;
 
         // 3) generate the dataset
+        final StageTimer timer = statistics.timer();
         if (seriesId > 0L) {
             // the reference product is part of a series: request all content and filter out just the episodes belonging to the series
 
             // initialize and filter the DataSet
-            return VideoData.buildDataSetOfVideosAndTvProgrammes(environment.transaction, environment.partner, environment.consumer, new VideoDuplicateResolver(requestedVideoFormat, environment.requestTimestampMillis), environment.requestTimestampMillis, Utils.MAX_CATCHUP_RETENTION, 0L)
+            return timer.result(timer.stages(candidates.videosAndTvProgrammes(environment, parameters, requestedVideoFormat))
+                    .stage("build")
                     .filter(debugFiltersBuilder.allDataLogger(environment.debug))
-                    .filter(new AcceptOnlyEpisodesOfSeries(seriesId))
+                    .stage("debug-all")
+                    .filter(statistics.track(new AcceptOnlyEpisodesOfSeries(seriesId)))
+                    .stage("AcceptOnlyEpisodesOfSeries")
                     .filter(new EpisodeSorter())
+                    .stage("EpisodeSorter")
                     .filter(debugFiltersBuilder.resultDataLogger(environment.debug))
-                    .result("episodes")
+                    .stage("debug-result")
+                    .result("episodes"))
                     .feedback("series-id", Long.valueOf(seriesId))
                     .feedback("product-id", Long.valueOf(referenceProduct.id))
                     .feedback("video-id", Long.valueOf(referenceProduct.videoMatchId));
         }
 
         // the reference product is not part of any series: return just the given product
-        return VideoData.buildDataSet(environment.transaction, environment.consumer, new VideoDuplicateResolver(requestedVideoFormat, environment.requestTimestampMillis), environment.requestTimestampMillis, Collections.singletonList(referenceProduct))
+        return timer.result(timer.stages(candidates.products(environment, parameters, requestedVideoFormat, Collections.singletonList(referenceProduct)))
+                .stage("build")
                 .log("The reference product with product_id=" + referenceProduct.id + ", partner_product_code=" + referenceProduct.partnerProductCode + " is not part of a series\n")
-                .result("episodes")
+                .result("episodes"))
                 .feedback("product-id", Long.valueOf(referenceProduct.id))
                 .feedback("video-id", Long.valueOf(referenceProduct.videoMatchId));
     }
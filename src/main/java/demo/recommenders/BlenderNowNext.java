@@ -0,0 +1,104 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.recommenders;
+
+import com.gurucue.recommendations.blender.BlendEnvironment;
+import com.gurucue.recommendations.blender.BlendParameters;
+import com.gurucue.recommendations.blender.BlenderResult;
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.StatefulFilter;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import com.gurucue.recommendations.entity.product.TvProgrammeProduct;
+import com.gurucue.recommendations.recommender.RecommendationSettings;
+import demo.BasicTagger;
+import demo.CandidateSource;
+import demo.DebugFiltersBuilder;
+import demo.Utils;
+import demo.catalogue.NowNextCursors;
+import demo.catalogue.ProgrammeSchedule;
+import demo.filters.AcceptOnlySubscribed;
+import demo.stats.BlendStatistics;
+import demo.stats.StageTimer;
+
+import java.util.List;
+
+/**
+ * Video blender for the "now-next" live-TV grid: the programmes airing now
+ * and next on the tv-channels the consumer is entitled to, in the order of
+ * the tv-channels, or ranked by the recommender if the <code>ranked</code>
+ * input is set. The programmes are looked up with {@link NowNextCursors},
+ * only they are checked for availability and duplicates.
+ */
+public final class BlenderNowNext implements RecommendBlender {
+
+    private final CandidateSource candidates;
+
+    public BlenderNowNext(final CandidateSource candidates) {
+        this.candidates = candidates;
+    }
+
+    @Override
+    public BlenderResult<VideoData> blend(
+            final BlendEnvironment environment,
+            final BlendParameters parameters,
+            final int maxItems,
+            final String requestedVideoFormat,
+            final DebugFiltersBuilder debugFiltersBuilder,
+            final BlendStatistics statistics
+    ) {
+        final StageTimer timer = statistics.timer();
+        final long now = environment.requestTimestampMillis;
+        final DataSet<VideoData> content;
+        final StatefulFilter<VideoData> order;
+        final int limit;
+        if (ProgrammeSchedule.current().isBuilt()) {
+            final List<TvProgrammeProduct> programmes = NowNextCursors.INSTANCE.nowAndNext(now);
+            final RankedProducts grid = new RankedProducts(programmes.toArray(new GeneralVideoProduct[programmes.size()]), new double[programmes.size()]);
+            limit = maxItems > 0 ? maxItems : Math.max(1, grid.size());
+            content = candidates.products(environment, parameters, requestedVideoFormat, grid.productList());
+            order = grid.ranker(limit);
+        }
+        else {
+            // the schedule is not built yet, only the programmes airing now are found among all content
+            limit = maxItems > 0 ? maxItems : Integer.MAX_VALUE;
+            content = candidates.tvProgrammes(environment, parameters, requestedVideoFormat, now, now + 1L);
+            order = source -> RankedProducts.of(source).ranker(limit).transform(source);
+        }
+        final StatefulFilter<VideoData> ranking = Utils.flag(parameters, "ranked") && (environment.consumer != null)
+                ? environment.recommenderProvider.recommendationsFilter("demo-all", environment.consumer.id, new RecommendationSettings(Math.min(limit, 1000), false))
+                : order;
+
+        return timer.result(timer.stages(content)
+                .stage("build")
+                .filter(statistics.track(new AcceptOnlySubscribed()))
+                .stage("AcceptOnlySubscribed")
+                .filter(statistics.track(new BasicTagger(now, limit))) // this is an all-pass tagging filter
+                .stage("BasicTagger")
+                .filter(debugFiltersBuilder.allDataLogger(environment.debug))
+                .stage("debug-all")
+                .filter(ranking)
+                .stage("ranking")
+                .filter(debugFiltersBuilder.filteredDataLogger(environment.debug))
+                .stage("debug-filtered")
+                .filter(debugFiltersBuilder.resultDataLogger(environment.debug))
+                .stage("debug-result")
+                .result("now-next")).feedback("recommender", "demo-all");
+    }
+}
@@ -18,31 +18,45 @@
  */
 package demo.recommenders;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.gurucue.recommendations.ResponseException;
 import com.gurucue.recommendations.ResponseStatus;
 import com.gurucue.recommendations.blender.BlendEnvironment;
 import com.gurucue.recommendations.blender.BlendParameters;
 import com.gurucue.recommendations.blender.BlenderResult;
+import com.gurucue.recommendations.blender.DataSet;
 import com.gurucue.recommendations.blender.VideoData;
 import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
-import com.gurucue.recommendations.recommender.RecommendationSettings;
 import demo.BasicTagger;
+import demo.CandidateSource;
 import demo.DebugFiltersBuilder;
+import demo.PartnerBudget;
 import demo.Utils;
-import demo.VideoDuplicateResolver;
+import demo.stats.BlendStatistics;
+import demo.stats.StageTimer;
 
 /**
- * Video blender for similar content.
+ * Video blender for similar content. Similar products of all the referenced
+ * products are served from the precomputed lists of {@link SimilarItems},
+ * only they are checked for availability and duplicates.
  */
 public final class BlenderSimilar implements RecommendBlender {
 
+    private final CandidateSource candidates;
+
+    public BlenderSimilar(final CandidateSource candidates) {
+        this.candidates = candidates;
+    }
+
     @Override
     public BlenderResult<VideoData> blend(
             final BlendEnvironment environment,
             final BlendParameters parameters,
             int maxItems,
             final String requestedVideoFormat,
-            final DebugFiltersBuilder debugFiltersBuilder
+            final DebugFiltersBuilder debugFiltersBuilder,
+            final BlendStatistics statistics
     ) throws ResponseException {
         // set default output size, if not provided
         if (maxItems <= 0) maxItems = 20;
@@ -50,14 +64,24 @@ public final class BlenderSimilar implements RecommendBlender {
         final GeneralVideoProduct[] referenceProducts = demo.Utils.referencedProducts(parameters);
         if ((referenceProducts == null) || (referenceProducts.length == 0)) throw new ResponseException(ResponseStatus.RECOMMENDER_NEEDS_PRODUCT, "Cannot list similar content: a video or tv-programme product must be specified to determine similar content");
 
+        // look up the precomputed similar products, the whole catalogue is built only if a list is missing or stale
+        final StageTimer timer = statistics.timer();
+        final Supplier<DataSet<VideoData>> catalogue = Suppliers.memoize(() -> candidates.videosAndTvProgrammes(environment, parameters, requestedVideoFormat));
+        final RankedProducts similar = SimilarItems.INSTANCE.similar(referenceProducts, maxItems, requestedVideoFormat, catalogue, environment.recommenderProvider, PartnerBudget.of(environment.partner.username).workers(), ids -> demo.Utils.products(environment, ids));
 
-        // initialize and filter the DataSet
-        return VideoData.buildDataSetOfVideosAndTvProgrammes(environment.transaction, environment.partner, environment.consumer, new VideoDuplicateResolver(requestedVideoFormat, environment.requestTimestampMillis), environment.requestTimestampMillis, Utils.MAX_CATCHUP_RETENTION, 0L)
-                .filter(new BasicTagger(environment.requestTimestampMillis, maxItems)) // this is an all-pass tagging filter
-				.filter(debugFiltersBuilder.allDataLogger(environment.debug))
-                .filter(environment.recommenderProvider.similarFilter("demo-all", new long[]{referenceProducts[0].id}, new RecommendationSettings(maxItems, false)))
+        // initialize and filter the DataSet of similar products
+        return timer.result(timer.stages(candidates.products(environment, parameters, requestedVideoFormat, similar.productList()))
+                .stage("build")
+                .filter(statistics.track(new BasicTagger(environment.requestTimestampMillis, maxItems))) // this is an all-pass tagging filter
+                .stage("BasicTagger")
+                .filter(debugFiltersBuilder.allDataLogger(environment.debug))
+                .stage("debug-all")
+                .filter(similar.rankerObeyingTagRules(maxItems))
+                .stage("similar")
                 .filter(debugFiltersBuilder.filteredDataLogger(environment.debug))
+                .stage("debug-filtered")
                 .filter(debugFiltersBuilder.resultDataLogger(environment.debug))
-                .result("similar").feedback("recommender", "demo-all");
+                .stage("debug-result")
+                .result("similar")).feedback("recommender", "demo-all");
     }
 }
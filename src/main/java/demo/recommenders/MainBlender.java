@@ -26,8 +26,16 @@ import com.gurucue.recommendations.blender.DataValue;
 import com.gurucue.recommendations.blender.TopBlender;
 import com.gurucue.recommendations.blender.VideoData;
 import com.gurucue.recommendations.entity.value.AttributeValues;
+import demo.CandidateSource;
+import demo.DatabaseCandidateSource;
+import demo.Deadline;
 import demo.DebugFiltersBuilder;
+import demo.GenerationHandover;
+import demo.PartnerBudget;
+import demo.SingleFlight;
 import demo.Utils;
+import demo.capture.CapturingCandidateSource;
+import demo.stats.BlendStatistics;
 
 /**
  * Decision logic for demo recommendation blenders: it decides which one to use and
@@ -35,11 +43,32 @@ import demo.Utils;
  */
 public final class MainBlender implements TopBlender {
 
-    public final BlenderAll blenderAll = new BlenderAll();
-    public final BlenderMovies blenderMovies = new BlenderMovies();
-    public final BlenderTvseries blenderTvseries = new BlenderTvseries();
-    public final BlenderEpisodes blenderEpisodes = new BlenderEpisodes();
-    public final BlenderSimilar blenderSimilar = new BlenderSimilar();
+    public final BlenderAll blenderAll;
+    public final BlenderMovies blenderMovies;
+    public final BlenderTvseries blenderTvseries;
+    public final BlenderEpisodes blenderEpisodes;
+    public final BlenderSimilar blenderSimilar;
+    public final BlenderNowNext blenderNowNext;
+
+    public MainBlender() {
+        this(new CapturingCandidateSource(DatabaseCandidateSource.INSTANCE, "recommenders"));
+        GenerationHandover.enable(MainBlender.class); // takes over the state of the previous generation of this partner
+    }
+
+    /**
+     * Creates the blenders with the given source of content, used to run
+     * the blenders offline.
+     *
+     * @param candidates the source of content
+     */
+    public MainBlender(final CandidateSource candidates) {
+        blenderAll = new BlenderAll(candidates);
+        blenderMovies = new BlenderMovies(candidates);
+        blenderTvseries = new BlenderTvseries(candidates);
+        blenderEpisodes = new BlenderEpisodes(candidates);
+        blenderSimilar = new BlenderSimilar(candidates);
+        blenderNowNext = new BlenderNowNext(candidates);
+    }
 
     @SuppressWarnings("unchecked")
     @Override
@@ -47,32 +76,9 @@ public final class MainBlender implements TopBlender {
         if (dataClass != VideoData.class)
             throw new IllegalArgumentException(MainBlender.class.getCanonicalName() + " operates only on VideoData, not on: " + dataClass.getCanonicalName());
 
-        final RecommendBlender blender;
-        if (parameters.blenderName == null) {
-            blender = blenderAll;
-        }
-        else {
-            switch (parameters.blenderName) {
-                case "all":
-                    blender = blenderAll;
-                    break;
-                case "movies":
-                    blender = blenderMovies;
-                    break;
-                case "tv-series":
-                    blender = blenderTvseries;
-                    break;
-                case "episodes":
-                    blender = blenderEpisodes;
-                    break;
-                case "similar":
-                    blender = blenderSimilar;
-                    break;
-                default:
-                    blender = blenderAll;
-                    break;
-            }
-        }
+        final RecommendBlender blender = select(parameters.blenderName);
+
+        GenerationHandover.record(environment);
 
         final AttributeValues attributes = Utils.attributes(parameters);
         // we need the requested video format, if provided
@@ -81,9 +87,50 @@ public final class MainBlender implements TopBlender {
         // and the maximum number of results
         final int maxItems = Utils.maxItems(parameters);
 
+        // the time the client gives us, filters degrade gracefully when it runs out
+        final Deadline deadline = Deadline.of(parameters);
+
         // debugging support: we will create 3 debug logging all-pass filters, for 3 different log outputs (raw dataset, filtered dataset, final result dataset)
-        final DebugFiltersBuilder debugFiltersBuilder = new DebugFiltersBuilder(environment.transaction, environment.partner, environment.consumer, environment.requestTimestampMillis);
+        final DebugFiltersBuilder debugFiltersBuilder = new DebugFiltersBuilder(environment.transaction, environment.partner, environment.consumer, environment.requestTimestampMillis, deadline);
 
-        return (BlenderResult<V>) blender.blend(environment, parameters, maxItems, requestedVideoFormat, debugFiltersBuilder);
+        final SingleFlight.Work<BlenderResult<VideoData>> work = () -> {
+            // filter statistics are aggregated per partner and blender
+            final BlendStatistics statistics = new BlendStatistics(environment.partner.username, blender.getClass().getSimpleName());
+            final BlenderResult<VideoData> blended = blender.blend(environment, parameters, maxItems, requestedVideoFormat, debugFiltersBuilder, statistics);
+            statistics.publish();
+            return blended.feedback("result", deadline.isPartial() ? "partial" : "complete");
+        };
+        // blend within the budget of the partner, so one partner can't starve the others; blenders ranking
+        // through RecommendationCache take a slot only to compute a ranking, identical concurrent requests
+        // wait for it without one
+        final boolean isRanking = (blender == blenderAll) || (blender == blenderMovies) || (blender == blenderTvseries);
+        final BlenderResult<VideoData> result = isRanking ? work.run() : PartnerBudget.of(environment.partner.username).run(work);
+        return (BlenderResult<V>) result;
+    }
+
+    /**
+     * Returns the blender with the given name, the default blender is <code>all</code>.
+     *
+     * @param blenderName the name of the blender, may be <code>null</code>
+     * @return the blender
+     */
+    public RecommendBlender select(final String blenderName) {
+        if (blenderName == null) return blenderAll;
+        switch (blenderName) {
+            case "all":
+                return blenderAll;
+            case "movies":
+                return blenderMovies;
+            case "tv-series":
+                return blenderTvseries;
+            case "episodes":
+                return blenderEpisodes;
+            case "similar":
+                return blenderSimilar;
+            case "now-next":
+                return blenderNowNext;
+            default:
+                return blenderAll;
+        }
     }
 }
@@ -0,0 +1,185 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.recommenders;
+
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.Rank;
+import com.gurucue.recommendations.blender.StatefulFilter;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import demo.Deadline;
+import demo.filters.RankedSizerObeyingTagRules;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An immutable ranking of products, best first, with their predictions.
+ * A ranking is computed by a recommender once and served many times: the
+ * products are put into a new DataSet, which applies the availability and
+ * duplicate rules of the request, and {@link #ranker(int)} restores the
+ * ranking in it, or {@link #rankerObeyingTagRules(int)} also applies the
+ * tag limits of the request, or {@link #pageObeyingTagRules(int, int)}
+ * applies them to every page of the ranking. Search results keep their
+ * search ranks too, see {@link #ofMatches(DataSet)}.
+ */
+public final class RankedProducts {
+    public static final RankedProducts EMPTY = new RankedProducts(new GeneralVideoProduct[0], new double[0]);
+
+    public final GeneralVideoProduct[] products;
+    public final double[] predictions;
+    /** The search ranks, <code>null</code> when the products are not search results. */
+    public final Rank[] ranks;
+
+    public RankedProducts(final GeneralVideoProduct[] products, final double[] predictions) {
+        this(products, predictions, null);
+    }
+
+    public RankedProducts(final GeneralVideoProduct[] products, final double[] predictions, final Rank[] ranks) {
+        this.products = products;
+        this.predictions = predictions;
+        this.ranks = ranks;
+    }
+
+    /**
+     * Returns the ranking of the items in the DataSet, in the order of the DataSet.
+     */
+    public static RankedProducts of(final DataSet<VideoData> dataSet) {
+        final int n = dataSet.size();
+        final GeneralVideoProduct[] products = new GeneralVideoProduct[n];
+        final double[] predictions = new double[n];
+        int i = 0;
+        for (final VideoData videoData : dataSet) {
+            products[i] = videoData.video;
+            predictions[i] = videoData.prediction;
+            i++;
+        }
+        return i == n ? new RankedProducts(products, predictions) : new RankedProducts(Arrays.copyOf(products, i), Arrays.copyOf(predictions, i));
+    }
+
+    /**
+     * Returns the ranking of the search results in the DataSet, in the order
+     * of the DataSet, with their search ranks.
+     */
+    public static RankedProducts ofMatches(final DataSet<VideoData> dataSet) {
+        final RankedProducts ranked = of(dataSet);
+        final Rank[] ranks = new Rank[ranked.products.length];
+        int i = 0;
+        for (final VideoData videoData : dataSet) {
+            if (i >= ranks.length) break;
+            ranks[i++] = videoData.rank;
+        }
+        return new RankedProducts(ranked.products, ranked.predictions, ranks);
+    }
+
+    public int size() {
+        return products.length;
+    }
+
+    /**
+     * Returns at most <code>limit</code> products starting at <code>offset</code>.
+     */
+    public RankedProducts page(final int offset, final int limit) {
+        final int from = Math.max(0, Math.min(offset, products.length));
+        final int to = Math.max(from, Math.min(products.length, from + Math.max(0, limit)));
+        if ((from == 0) && (to == products.length)) return this;
+        return new RankedProducts(Arrays.copyOfRange(products, from, to), Arrays.copyOfRange(predictions, from, to), ranks == null ? null : Arrays.copyOfRange(ranks, from, to));
+    }
+
+    public List<GeneralVideoProduct> productList() {
+        return Arrays.asList(products);
+    }
+
+    /**
+     * Returns a filter that keeps only the ranked items of a DataSet, gives
+     * them their predictions and search ranks, orders them by the ranking,
+     * and keeps the first <code>maxItems</code> of them.
+     */
+    public StatefulFilter<VideoData> ranker(final int maxItems) {
+        return source -> {
+            final TLongIntMap positions = new TLongIntHashMap(products.length);
+            for (int i = 0; i < products.length; i++) positions.putIfAbsent(products[i].id, i);
+            final VideoData[] ranked = new VideoData[products.length];
+            for (final VideoData videoData : source) {
+                if (!positions.containsKey(videoData.video.id)) continue;
+                final int position = positions.get(videoData.video.id);
+                videoData.prediction = predictions[position];
+                if (ranks != null) videoData.rank = ranks[position];
+                ranked[position] = videoData;
+            }
+            final DataSet.Builder<VideoData> builder = new DataSet.Builder<>(source.getDuplicateResolver(), source);
+            int remaining = maxItems;
+            for (int i = 0; (i < ranked.length) && (remaining > 0); i++) {
+                if (ranked[i] == null) continue; // not available to the consumer, or a duplicate
+                builder.add(ranked[i]);
+                remaining--;
+            }
+            return builder.build();
+        };
+    }
+
+    /**
+     * Returns a filter like {@link #ranker(int)}, which also obeys the
+     * MAX_ITEMS limits of the tags: it keeps the best ranked items of every
+     * tag within its limit, in the order of the ranking.
+     */
+    public StatefulFilter<VideoData> rankerObeyingTagRules(final int maxItems) {
+        final StatefulFilter<VideoData> all = ranker(Integer.MAX_VALUE);
+        final StatefulFilter<VideoData> sizer = new RankedSizerObeyingTagRules(maxItems, Deadline.NONE, null, RankedSizerObeyingTagRules.PredictionComparator.INSTANCE);
+        final StatefulFilter<VideoData> order = ranker(maxItems);
+        return source -> order.transform(sizer.transform(all.transform(source)));
+    }
+
+    /**
+     * Returns a filter that lays the ranked items of a DataSet out in pages
+     * of <code>limit</code> items, each page with the best ranked items left
+     * within the MAX_ITEMS limits of the tags, in the order of the ranking,
+     * and keeps <code>limit</code> items starting at <code>offset</code>.
+     * The limits are set for a page, so the DataSet is tagged with the size
+     * of a page.
+     */
+    public StatefulFilter<VideoData> pageObeyingTagRules(final int offset, final int limit) {
+        final StatefulFilter<VideoData> all = ranker(Integer.MAX_VALUE);
+        return source -> {
+            DataSet<VideoData> remaining = all.transform(source);
+            final List<VideoData> laidOut = new ArrayList<>(offset + limit);
+            while ((laidOut.size() < (offset + limit)) && (remaining.size() > 0)) {
+                final TLongSet page = new TLongHashSet(limit);
+                for (final VideoData videoData : new RankedSizerObeyingTagRules(limit, Deadline.NONE, null, RankedSizerObeyingTagRules.PredictionComparator.INSTANCE).transform(remaining)) {
+                    page.add(videoData.video.id);
+                }
+                if (page.isEmpty()) break;
+                final DataSet.Builder<VideoData> rest = new DataSet.Builder<>(remaining.getDuplicateResolver(), remaining);
+                for (final VideoData videoData : remaining) {
+                    if (page.contains(videoData.video.id)) laidOut.add(videoData);
+                    else rest.add(videoData);
+                }
+                remaining = rest.build();
+            }
+            final DataSet.Builder<VideoData> builder = new DataSet.Builder<>(source.getDuplicateResolver(), source);
+            for (int i = offset; (i < laidOut.size()) && (i < (offset + limit)); i++) builder.add(laidOut.get(i));
+            return builder.build();
+        };
+    }
+}
@@ -24,6 +24,7 @@ import com.gurucue.recommendations.blender.BlendParameters;
 import com.gurucue.recommendations.blender.BlenderResult;
 import com.gurucue.recommendations.blender.VideoData;
 import demo.DebugFiltersBuilder;
+import demo.stats.BlendStatistics;
 
 /**
  * The blender interface specification for demo recommenders.
@@ -34,6 +35,7 @@ public interface RecommendBlender {
             BlendParameters parameters,
             int maxItems,
             String requestedVideoFormat,
-            DebugFiltersBuilder debugFiltersBuilder
+            DebugFiltersBuilder debugFiltersBuilder,
+            BlendStatistics statistics
     ) throws ResponseException;
 }
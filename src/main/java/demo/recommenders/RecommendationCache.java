@@ -0,0 +1,305 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.recommenders;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.gurucue.recommendations.ResponseException;
+import com.gurucue.recommendations.blender.BlendEnvironment;
+import com.gurucue.recommendations.blender.BlendParameters;
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import demo.CandidateSource;
+import demo.PartnerBudget;
+import demo.SingleFlight;
+import demo.Utils;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Short-lived cache of the rankings computed by recommenders, per consumer.
+ * Clients page through recommendation rails and request them again on every
+ * visit of a screen; with a cached ranking the following pages and visits
+ * don't run the recommender again. A ranking is computed deeper than the
+ * requested page, so the following pages are in it.
+ * <p>
+ * Rankings are kept per partner, bounded by the quota of cached products
+ * of its {@link PartnerBudget}, half of it for rankings and half of it for
+ * candidates, so a partner with many consumers can't evict the rankings of
+ * the others. Within a partner, rankings are keyed by the consumer, the blender, the requested video
+ * format and a time bucket of the request timestamp, the length of a bucket
+ * being the time-to-live. Requests with debugging enabled always compute
+ * the ranking, so their debug logs are complete.
+ * <p>
+ * Computing a ranking from the whole catalogue is expensive, so when it is
+ * done the recommender is asked for more products than needed, and they
+ * are kept as the candidates of the consumer for a longer time. Rankings
+ * are then computed candidate-first: only the candidates are put into the
+ * DataSet, filtered and ranked again by the recommender. If too few of them
+ * survive, the ranking is computed from the whole catalogue, unless the
+ * candidates are all the recommender ranked: it returned fewer products
+ * than asked for, and not because a tag reached its MAX_ITEMS limit.
+ * Content added to the catalogue is considered when the candidates expire.
+ * <p>
+ * Identical concurrent requests, e.g. from devices of the same consumer,
+ * compute a ranking only once, see {@link SingleFlight}, and only the
+ * request computing it takes a slot of the {@link PartnerBudget}. Rankings are
+ * immutable, so they are shared, and every request serves its page in its
+ * own DataSet.
+ * The cache is configured with system properties:
+ * <ul>
+ *     <li><code>demo.blenders.rankings.ttlSeconds</code>: the time-to-live of a ranking, 300 by default, 0 disables the cache,</li>
+ *     <li><code>demo.blenders.rankings.depth</code>: the minimum number of ranked products, 200 by default,</li>
+ *     <li><code>demo.blenders.rankings.candidateFactor</code>: how many times more candidates than ranked products are kept, 5 by default, 0 disables candidate-first ranking,</li>
+ *     <li><code>demo.blenders.rankings.candidateTtlSeconds</code>: the time-to-live of candidates, 3600 by default.</li>
+ * </ul>
+ */
+public final class RecommendationCache {
+    public static final RecommendationCache INSTANCE = new RecommendationCache(
+            Long.getLong("demo.blenders.rankings.ttlSeconds", 300L) * 1000L,
+            Integer.getInteger("demo.blenders.rankings.depth", 200),
+            Integer.getInteger("demo.blenders.rankings.candidateFactor", 5),
+            Long.getLong("demo.blenders.rankings.candidateTtlSeconds", 3600L) * 1000L
+    );
+
+    private final long ttlMillis;
+    private final int depth;
+    private final int candidateFactor;
+    private final long candidateTtlMillis;
+    private final ConcurrentMap<String, Partition> partitions = new ConcurrentHashMap<>();
+    private final AtomicLong candidateFirst = new AtomicLong();
+    private final AtomicLong fullCatalogue = new AtomicLong();
+    private final SingleFlight<RankedProducts> flights = new SingleFlight<>("rankings", Utils.singleFlightMaxWaitMillis());
+
+    public RecommendationCache(final long ttlMillis, final int depth, final int candidateFactor, final long candidateTtlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.depth = depth;
+        this.candidateFactor = candidateFactor;
+        this.candidateTtlMillis = candidateTtlMillis;
+    }
+
+    private Partition partition(final String partnerUsername) {
+        final Partition existing = partitions.get(partnerUsername);
+        if (existing != null) return existing;
+        final Partition created = new Partition(PartnerBudget.of(partnerUsername).getMaxCachedProducts() / 2L, ttlMillis, candidateTtlMillis);
+        final Partition raced = partitions.putIfAbsent(partnerUsername, created);
+        return raced == null ? created : raced;
+    }
+
+    /**
+     * Returns the cached ranking, or computes and caches it.
+     *
+     * @param environment the blending environment
+     * @param parameters the blending parameters
+     * @param requestedVideoFormat the video format requested by the client, may be <code>null</code>
+     * @param source the source of content
+     * @param blenderName the name of the blender
+     * @param minSize the number of products needed: the offset plus the size of the page
+     * @param recommender filters the given content and ranks it with the recommender
+     * @return the ranking
+     * @throws ResponseException if computing the ranking fails
+     */
+    public RankedProducts ranking(
+            final BlendEnvironment environment,
+            final BlendParameters parameters,
+            final String requestedVideoFormat,
+            final CandidateSource source,
+            final String blenderName,
+            final int minSize,
+            final Recommender recommender
+    ) throws ResponseException {
+        // only computing a ranking runs within the budget of the partner, requests waiting for an identical ranking hold no slot
+        final PartnerBudget budget = PartnerBudget.of(environment.partner.username);
+        if (ttlMillis <= 0L) return budget.run(() -> RankedProducts.of(recommender.recommend(source.videosAndTvProgrammes(environment, parameters, requestedVideoFormat), minSize)));
+        final Partition partition = partition(environment.partner.username);
+        final Cache<String, Ranking> rankings = partition.rankings;
+        final Cache<String, Ranking> candidates = partition.candidates;
+        final String consumerKey = environment.consumer.id + "\t" + blenderName + "\t" + requestedVideoFormat;
+        final String key = consumerKey + "\t" + (environment.requestTimestampMillis / ttlMillis);
+        if (!environment.debug) {
+            final Ranking cached = rankings.getIfPresent(key);
+            if ((cached != null) && cached.covers(minSize)) return cached.ranked;
+        }
+        final int size = Math.max(depth, minSize);
+        // identical concurrent requests compute the ranking once and share it
+        final String flightKey = environment.debug ? null : environment.partner.username + "\t" + key + "\t" + size;
+        return flights.run(flightKey, () -> budget.run(() -> {
+            // candidate-first: rank again only the candidates of the consumer
+            final Ranking consumerCandidates = (environment.debug || (candidateFactor <= 0)) ? null : candidates.getIfPresent(consumerKey);
+            if ((consumerCandidates != null) && consumerCandidates.covers(size)) {
+                final DataSet<VideoData> recommended = recommender.recommend(source.products(environment, parameters, requestedVideoFormat, consumerCandidates.ranked.productList()), size);
+                final RankedProducts ranked = RankedProducts.of(recommended);
+                // enough of them survived, or there's not more in the whole catalogue
+                if ((ranked.size() >= size) || consumerCandidates.isExhaustive) {
+                    candidateFirst.incrementAndGet();
+                    rankings.put(key, new Ranking(ranked, size, consumerCandidates.isExhaustive && isExhaustive(recommended, size)));
+                    return ranked;
+                }
+            }
+
+            // rank the whole catalogue, keeping more than needed as the candidates
+            fullCatalogue.incrementAndGet();
+            final int candidateCount = candidateFactor <= 0 ? size : size * candidateFactor;
+            final DataSet<VideoData> recommended = recommender.recommend(source.videosAndTvProgrammes(environment, parameters, requestedVideoFormat), candidateCount);
+            final RankedProducts ranked = RankedProducts.of(recommended);
+            final boolean isExhaustive = isExhaustive(recommended, candidateCount);
+            if (candidateFactor > 0) candidates.put(consumerKey, new Ranking(ranked, candidateCount, isExhaustive));
+            final RankedProducts result = ranked.page(0, size);
+            rankings.put(key, new Ranking(result, size, isExhaustive && (result.size() < size)));
+            return result;
+        }));
+    }
+
+    /**
+     * Returns whether the recommender ranked all there is: it returned fewer
+     * products than requested, and no tag reached its MAX_ITEMS limit, which
+     * would leave out products of that tag.
+     */
+    private static boolean isExhaustive(final DataSet<VideoData> recommended, final int requestedSize) {
+        if (recommended.size() >= requestedSize) return false;
+        final Map<String, Integer> limits = recommended.getLimitTags();
+        if ((limits == null) || limits.isEmpty()) return true;
+        final TObjectIntMap<String> counts = new TObjectIntHashMap<>();
+        for (final VideoData videoData : recommended) {
+            for (final String tag : videoData.tags) {
+                if (limits.containsKey(tag)) counts.adjustOrPutValue(tag, 1, 1);
+            }
+        }
+        for (final Map.Entry<String, Integer> e : limits.entrySet()) {
+            if ((e.getValue() != null) && (counts.get(e.getKey()) >= e.getValue())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the cached rankings, or the cached candidates, keyed by the
+     * partner username and the key, separated by a tab.
+     */
+    public Map<String, Entry> export(final boolean areCandidates) {
+        final Map<String, Entry> result = new HashMap<>();
+        for (final Map.Entry<String, Partition> p : partitions.entrySet()) {
+            final Cache<String, Ranking> cache = areCandidates ? p.getValue().candidates : p.getValue().rankings;
+            for (final Map.Entry<String, Ranking> e : cache.asMap().entrySet()) {
+                final Ranking ranking = e.getValue();
+                result.put(p.getKey() + "\t" + e.getKey(), new Entry(ranking.ranked.products, ranking.ranked.predictions, ranking.requestedSize, ranking.isExhaustive));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds rankings, or candidates, in the form returned by {@link #export(boolean)}.
+     * Their time-to-live starts again.
+     */
+    public void addAll(final Map<String, Entry> exported, final boolean areCandidates) {
+        for (final Map.Entry<String, Entry> e : exported.entrySet()) {
+            final int tab = e.getKey().indexOf('\t');
+            if (tab < 0) continue;
+            final Entry v = e.getValue();
+            final Partition partition = partition(e.getKey().substring(0, tab));
+            (areCandidates ? partition.candidates : partition.rankings).put(e.getKey().substring(tab + 1), new Ranking(new RankedProducts(v.products, v.predictions), v.requestedSize, v.isExhaustive));
+        }
+    }
+
+    /** The number of rankings computed from the candidates of the consumer. */
+    public long getCandidateFirst() {
+        return candidateFirst.get();
+    }
+
+    /** The number of rankings computed from the whole catalogue. */
+    public long getFullCatalogue() {
+        return fullCatalogue.get();
+    }
+
+    public SingleFlight<RankedProducts> getFlights() {
+        return flights;
+    }
+
+    /**
+     * Filters content and ranks it with the recommender: the filter chain of a blender.
+     */
+    public interface Recommender {
+        /**
+         * @param content the content to rank
+         * @param size the number of products to rank
+         * @return the ranked content
+         */
+        DataSet<VideoData> recommend(DataSet<VideoData> content, int size);
+    }
+
+    /**
+     * The caches of a partner, weighed by the number of products.
+     */
+    private static final class Partition {
+        final Cache<String, Ranking> rankings;
+        final Cache<String, Ranking> candidates;
+
+        Partition(final long maxProducts, final long ttlMillis, final long candidateTtlMillis) {
+            rankings = CacheBuilder.newBuilder().maximumWeight(maxProducts).weigher(Ranking.WEIGHER).expireAfterWrite(Math.max(1L, ttlMillis), TimeUnit.MILLISECONDS).build();
+            candidates = CacheBuilder.newBuilder().maximumWeight(maxProducts).weigher(Ranking.WEIGHER).expireAfterWrite(Math.max(1L, candidateTtlMillis), TimeUnit.MILLISECONDS).build();
+        }
+    }
+
+    /**
+     * An exported ranking: the products, best first, their predictions, the
+     * size that was requested and whether the ranking contains all there is.
+     */
+    public static final class Entry {
+        public final GeneralVideoProduct[] products;
+        public final double[] predictions;
+        public final int requestedSize;
+        public final boolean isExhaustive;
+
+        public Entry(final GeneralVideoProduct[] products, final double[] predictions, final int requestedSize, final boolean isExhaustive) {
+            if (products.length != predictions.length) throw new IllegalArgumentException("There are " + products.length + " products and " + predictions.length + " predictions");
+            this.products = products;
+            this.predictions = predictions;
+            this.requestedSize = requestedSize;
+            this.isExhaustive = isExhaustive;
+        }
+    }
+
+    private static final class Ranking {
+        static final Weigher<String, Ranking> WEIGHER = (key, ranking) -> ranking.ranked.size() + 1;
+
+        final RankedProducts ranked;
+        final int requestedSize;
+        /** Whether the ranking contains all there is. */
+        final boolean isExhaustive;
+
+        Ranking(final RankedProducts ranked, final int requestedSize, final boolean isExhaustive) {
+            this.ranked = ranked;
+            this.requestedSize = requestedSize;
+            this.isExhaustive = isExhaustive;
+        }
+
+        boolean covers(final int size) {
+            return (requestedSize >= size) || isExhaustive;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.recommenders;
+
+import com.google.common.base.Supplier;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.StatefulFilter;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import com.gurucue.recommendations.recommender.RecommendationSettings;
+import com.gurucue.recommendations.recommender.RecommenderProvider;
+import demo.CatalogueSnapshot;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongDoubleMap;
+import gnu.trove.map.hash.TLongDoubleHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Precomputed lists of the most similar products of a product, as scored
+ * by the similar filter of the recommender, which remains the source of
+ * truth. Lists are kept separately for HD and for other video formats,
+ * because they are computed from a catalogue with duplicates resolved by
+ * the format. A list is computed in the background the first time a product is
+ * referenced, and after it is older than the refresh interval; meanwhile
+ * the old list, or no list, is served. Lists of products that
+ * are not referenced for a day are evicted.
+ * <p>
+ * Computing a list needs the catalogue and the recommender of a request,
+ * so the request that found lists missing or stale builds the catalogue,
+ * and hands it over to a job on the worker threads of the partner, which
+ * computes all of them. The catalogue is built only for the job, so it is
+ * not copied. After a server start, lists missing from the store are
+ * taken from the {@link CatalogueSnapshot}, and refreshed as usual when stale.
+ * The store is configured with system properties:
+ * <ul>
+ *     <li><code>demo.blenders.similar.listSize</code>: the number of similar products kept per product, 100 by default,</li>
+ *     <li><code>demo.blenders.similar.refreshMinutes</code>: after how long a list is refreshed, 360 by default,</li>
+ *     <li><code>demo.blenders.similar.maxProducts</code>: the maximum number of products with a list, per variant, 200000 by default.</li>
+ * </ul>
+ */
+public final class SimilarItems {
+    private static final Logger log = LogManager.getLogger(SimilarItems.class);
+    private static final String RECOMMENDER_NAME = "demo-all";
+    /** The variant of lists for the HD video format. */
+    public static final String HD = "HD";
+    /** The variant of lists for all other video formats. */
+    public static final String DEFAULT = "default";
+
+    public static final SimilarItems INSTANCE = new SimilarItems(
+            Integer.getInteger("demo.blenders.similar.listSize", 100),
+            Long.getLong("demo.blenders.similar.refreshMinutes", 360L) * 60000L,
+            Integer.getInteger("demo.blenders.similar.maxProducts", 200000)
+    );
+
+    private final int listSize;
+    private final long refreshMillis;
+    private final Variant defaultVariant;
+    private final Variant hdVariant;
+
+    public SimilarItems(final int listSize, final long refreshMillis, final int maxProducts) {
+        this.listSize = listSize < 1 ? 1 : listSize;
+        this.refreshMillis = refreshMillis;
+        this.defaultVariant = new Variant(DEFAULT, maxProducts);
+        this.hdVariant = new Variant(HD, maxProducts);
+    }
+
+    /**
+     * Returns the variant of lists for the requested video format, as the
+     * duplicates of the catalogue are resolved by the {@link demo.VideoDuplicateResolver}.
+     */
+    public static String variant(final String requestedVideoFormat) {
+        return HD.equalsIgnoreCase(requestedVideoFormat) ? HD : DEFAULT;
+    }
+
+    private Variant lists(final String variant) {
+        return HD.equals(variant) ? hdVariant : defaultVariant;
+    }
+
+    /**
+     * Returns the most similar products of all the reference products,
+     * merged by their highest prediction, best first. Reference products
+     * themselves are not included. Missing, too short and stale lists are
+     * computed in the background, meanwhile the lists there are, if any, are used.
+     *
+     * @param references the reference products
+     * @param maxItems how many products are needed
+     * @param requestedVideoFormat the video format requested by the client, may be <code>null</code>
+     * @param catalogue the catalogue of the request, built only when lists need to be computed, and used only by the background job
+     * @param recommenderProvider the recommender of the request
+     * @param workers runs the background job
+     * @param resolver looks up products by their IDs, for lists taken from the snapshot
+     * @return the merged list
+     */
+    public RankedProducts similar(final GeneralVideoProduct[] references, final int maxItems, final String requestedVideoFormat, final Supplier<DataSet<VideoData>> catalogue, final RecommenderProvider recommenderProvider, final Executor workers, final Function<long[], List<GeneralVideoProduct>> resolver) {
+        final long now = System.currentTimeMillis();
+        final Variant variant = lists(variant(requestedVideoFormat));
+        final List<Neighbours> lists = new ArrayList<>(references.length);
+        final List<GeneralVideoProduct> toCompute = new ArrayList<>();
+        final TIntArrayList sizes = new TIntArrayList();
+        for (final GeneralVideoProduct reference : references) {
+            Neighbours list = variant.lists.getIfPresent(reference.id);
+            if (list == null) {
+                list = fromSnapshot(variant.name, reference.id, resolver);
+                if (list != null) variant.lists.put(reference.id, list);
+            }
+            final boolean missing = (list == null) || (list.requestedSize < maxItems);
+            if ((missing || ((now - list.computedMillis) >= refreshMillis)) && variant.refreshing.add(reference.id)) {
+                toCompute.add(reference);
+                sizes.add(Math.max(Math.max(listSize, maxItems), list == null ? 0 : list.requestedSize));
+            }
+            if (list != null) lists.add(list);
+        }
+        if (!toCompute.isEmpty()) schedule(variant, toCompute, sizes.toArray(), catalogue.get(), recommenderProvider, workers);
+        if (lists.isEmpty()) return RankedProducts.EMPTY;
+        return (references.length == 1) && (lists.size() == 1) ? lists.get(0).ranked : merge(references, lists);
+    }
+
+    public long size() {
+        return defaultVariant.lists.size() + hdVariant.lists.size();
+    }
+
+    /**
+     * Returns all lists of the variant, by product ID.
+     *
+     * @param variant {@link #DEFAULT} or {@link #HD}
+     */
+    public Map<Long, Entry> export(final String variant) {
+        final Map<Long, Entry> result = new HashMap<>();
+        for (final Map.Entry<Long, Neighbours> e : lists(variant).lists.asMap().entrySet()) {
+            final Neighbours list = e.getValue();
+            result.put(e.getKey(), new Entry(list.ranked.products, list.ranked.predictions, list.requestedSize, list.computedMillis));
+        }
+        return result;
+    }
+
+    /**
+     * Adds lists of the variant in the form returned by {@link #export(String)}.
+     */
+    public void addAll(final String variant, final Map<Long, Entry> exported) {
+        final Cache<Long, Neighbours> lists = lists(variant).lists;
+        for (final Map.Entry<Long, Entry> e : exported.entrySet()) {
+            final Entry v = e.getValue();
+            if (v != null) lists.put(e.getKey(), new Neighbours(new RankedProducts(v.products, v.predictions), v.requestedSize, v.computedMillis));
+        }
+    }
+
+    /**
+     * Computes the lists in the background, one after another: the
+     * similar filter sets the predictions of the items of the catalogue,
+     * so the catalogue can't be shared by concurrent computations.
+     */
+    private static void schedule(final Variant variant, final List<GeneralVideoProduct> references, final int[] sizes, final DataSet<VideoData> catalogue, final RecommenderProvider recommenderProvider, final Executor workers) {
+        final Runnable job = () -> {
+            for (int i = 0; i < references.size(); i++) {
+                final GeneralVideoProduct reference = references.get(i);
+                try {
+                    variant.lists.put(reference.id, compute(reference, sizes[i], catalogue, recommenderProvider, System.currentTimeMillis()));
+                }
+                catch (RuntimeException e) {
+                    log.error("Failed to compute similar products of product " + reference.id + ": " + e.toString(), e);
+                }
+                finally {
+                    variant.refreshing.remove(reference.id);
+                }
+            }
+        };
+        try {
+            workers.execute(job);
+        }
+        catch (RejectedExecutionException e) {
+            // too many jobs queued, try again with the next request
+            for (final GeneralVideoProduct reference : references) variant.refreshing.remove(reference.id);
+        }
+    }
+
+    /**
+     * Returns the list of the product from the snapshot, without the products that no longer exist.
+     */
+    private static Neighbours fromSnapshot(final String variant, final long productId, final Function<long[], List<GeneralVideoProduct>> resolver) {
+        final CatalogueSnapshot.SimilarList snapshot = CatalogueSnapshot.current().similar(variant, productId);
+        if (snapshot == null) return null;
+        final List<GeneralVideoProduct> resolved = resolver.apply(snapshot.productIds);
+        final int n = resolved.size();
+        final GeneralVideoProduct[] products = resolved.toArray(new GeneralVideoProduct[n]);
+        final double[] predictions = new double[n];
+        int j = 0;
+        for (int i = 0; i < n; i++) {
+            while (snapshot.productIds[j] != products[i].id) j++; // resolved products keep the order of their IDs
+            predictions[i] = snapshot.predictions[j++];
+        }
+        return new Neighbours(new RankedProducts(products, predictions), snapshot.requestedSize, snapshot.computedMillis);
+    }
+
+    private static Neighbours compute(final GeneralVideoProduct reference, final int size, final DataSet<VideoData> catalogue, final RecommenderProvider recommenderProvider, final long now) {
+        final StatefulFilter<VideoData> filter = recommenderProvider.similarFilter(RECOMMENDER_NAME, new long[]{reference.id}, new RecommendationSettings(size, false));
+        final DataSet<VideoData> similar = filter.transform(catalogue);
+        final List<VideoData> items = new ArrayList<>(similar.size());
+        for (final VideoData videoData : similar) {
+            if (videoData.video.id != reference.id) items.add(videoData);
+        }
+        items.sort(PredictionComparator.INSTANCE);
+        final int n = Math.min(items.size(), size);
+        final GeneralVideoProduct[] products = new GeneralVideoProduct[n];
+        final double[] predictions = new double[n];
+        for (int i = 0; i < n; i++) {
+            final VideoData videoData = items.get(i);
+            products[i] = videoData.video;
+            predictions[i] = videoData.prediction;
+        }
+        return new Neighbours(new RankedProducts(products, predictions), size, now);
+    }
+
+    private static RankedProducts merge(final GeneralVideoProduct[] references, final List<Neighbours> lists) {
+        final TLongSet referenceIds = new TLongHashSet(references.length);
+        for (final GeneralVideoProduct reference : references) referenceIds.add(reference.id);
+        final TLongDoubleMap bestPredictions = new TLongDoubleHashMap();
+        final List<GeneralVideoProduct> products = new ArrayList<>();
+        for (final Neighbours list : lists) {
+            final RankedProducts ranked = list.ranked;
+            for (int i = 0; i < ranked.products.length; i++) {
+                final long id = ranked.products[i].id;
+                if (referenceIds.contains(id)) continue;
+                final double prediction = ranked.predictions[i];
+                if (!bestPredictions.containsKey(id)) {
+                    products.add(ranked.products[i]);
+                    bestPredictions.put(id, prediction);
+                }
+                else if (prediction > bestPredictions.get(id)) bestPredictions.put(id, prediction);
+            }
+        }
+        products.sort((a, b) -> Double.compare(bestPredictions.get(b.id), bestPredictions.get(a.id)));
+        final int n = products.size();
+        final double[] predictions = new double[n];
+        for (int i = 0; i < n; i++) predictions[i] = bestPredictions.get(products.get(i).id);
+        return new RankedProducts(products.toArray(new GeneralVideoProduct[n]), predictions);
+    }
+
+    /**
+     * An exported list: the similar products of a product, best first,
+     * their predictions, the size that was requested and when it was computed.
+     */
+    public static final class Entry {
+        public final GeneralVideoProduct[] products;
+        public final double[] predictions;
+        public final int requestedSize;
+        public final long computedMillis;
+
+        public Entry(final GeneralVideoProduct[] products, final double[] predictions, final int requestedSize, final long computedMillis) {
+            if (products.length != predictions.length) throw new IllegalArgumentException("There are " + products.length + " products and " + predictions.length + " predictions");
+            this.products = products;
+            this.predictions = predictions;
+            this.requestedSize = requestedSize;
+            this.computedMillis = computedMillis;
+        }
+    }
+
+    /**
+     * Similar products of a product, and when they were computed.
+     */
+    private static final class Neighbours {
+        final RankedProducts ranked;
+        final int requestedSize;
+        final long computedMillis;
+
+        Neighbours(final RankedProducts ranked, final int requestedSize, final long computedMillis) {
+            this.ranked = ranked;
+            this.requestedSize = requestedSize;
+            this.computedMillis = computedMillis;
+        }
+    }
+
+    /**
+     * The lists of a variant, and the IDs of products whose lists are being computed.
+     */
+    private static final class Variant {
+        final String name;
+        final Cache<Long, Neighbours> lists;
+        final Set<Long> refreshing = ConcurrentHashMap.newKeySet();
+
+        Variant(final String name, final int maxProducts) {
+            this.name = name;
+            this.lists = CacheBuilder.newBuilder().maximumSize(maxProducts).expireAfterAccess(1L, TimeUnit.DAYS).build();
+        }
+    }
+
+    private static final class PredictionComparator implements Comparator<VideoData> {
+        static final PredictionComparator INSTANCE = new PredictionComparator();
+
+        @Override
+        public int compare(final VideoData o1, final VideoData o2) {
+            return Double.compare(o2.prediction, o1.prediction);
+        }
+    }
+}
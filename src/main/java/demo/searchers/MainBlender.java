@@ -23,43 +23,59 @@ import com.gurucue.recommendations.ResponseStatus;
 import com.gurucue.recommendations.blender.BlendEnvironment;
 import com.gurucue.recommendations.blender.BlendParameters;
 import com.gurucue.recommendations.blender.BlenderResult;
+import com.gurucue.recommendations.blender.DataSet;
 import com.gurucue.recommendations.blender.DataValue;
 import com.gurucue.recommendations.blender.TopBlender;
 import com.gurucue.recommendations.blender.VideoData;
 import com.gurucue.recommendations.entity.value.AttributeValues;
+import demo.CandidateSource;
+import demo.DatabaseCandidateSource;
+import demo.Deadline;
 import demo.DebugFiltersBuilder;
+import demo.GenerationHandover;
+import demo.PartnerBudget;
+import demo.SingleFlight;
 import demo.Utils;
+import demo.capture.CapturingCandidateSource;
+import demo.recommenders.RankedProducts;
+import demo.stats.BlendStatistics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Decision logic for demo search blenders: it decides which one to use and
  * invokes it with appropriate parameters.
  */
 public final class MainBlender implements TopBlender {
-    public final SearcherAll searcherAll = new SearcherAll();
-	public final SearcherActors searcherActors = new SearcherActors();
+    public final SearcherAll searcherAll;
+    public final SearcherActors searcherActors;
+    private final CandidateSource candidates;
+    private final SingleFlight<Matches> flights = new SingleFlight<>("searchers", Utils.singleFlightMaxWaitMillis());
+
+    public MainBlender() {
+        this(new CapturingCandidateSource(DatabaseCandidateSource.INSTANCE, "searchers"));
+        GenerationHandover.enable(MainBlender.class); // takes over the state of the previous generation of this partner
+    }
+
+    /**
+     * Creates the searchers with the given source of content, used to run
+     * the searchers offline.
+     *
+     * @param candidates the source of content
+     */
+    public MainBlender(final CandidateSource candidates) {
+        this.candidates = candidates;
+        searcherAll = new SearcherAll(candidates);
+        searcherActors = new SearcherActors(candidates);
+    }
 
     @SuppressWarnings("unchecked")
     @Override
     public <V extends DataValue> BlenderResult<V> blend(final Class<V> dataClass, final BlendEnvironment environment, final BlendParameters parameters) throws ResponseException {
         if (dataClass != VideoData.class) throw new IllegalArgumentException(MainBlender.class.getCanonicalName() + " operates only on VideoData, not on: " + dataClass.getCanonicalName());
 
-        final SearchBlender blender;
-        if (parameters.blenderName == null) {
-            blender = searcherAll;
-        }
-        else {
-            switch (parameters.blenderName) {
-                case "all":
-                    blender = searcherAll;
-                    break;
-                case "actors":
-                    blender = searcherActors;
-                    break;
-                default:
-                    blender = searcherAll;
-                    break;
-            }
-        }
+        final SearchBlender blender = select(parameters.blenderName);
 
         // get the query string
         final String query;
@@ -72,6 +88,8 @@ public final class MainBlender implements TopBlender {
         }
         if (query == null) throw new ResponseException(ResponseStatus.UNKNOWN_ERROR, "No query string");
 
+        GenerationHandover.record(environment);
+
         final AttributeValues attributes = Utils.attributes(parameters);
         // we need the requested video format, if provided
         final String requestedVideoFormat = attributes.getAsString(environment.dataProvider.getAttributeCodes().videoFormat);
@@ -79,10 +97,86 @@ public final class MainBlender implements TopBlender {
         // and the maximum number of results
         final int maxItems = Utils.maxItems(parameters);
 
+        // the time the client gives us, filters degrade gracefully when it runs out
+        final Deadline deadline = Deadline.of(parameters);
+
         // debugging support: we will create 3 debug logging all-pass filters, for 3 different log outputs (raw dataset, filtered dataset, final result dataset)
-        final DebugFiltersBuilder debugFiltersBuilder = new DebugFiltersBuilder(environment.transaction, environment.partner, environment.consumer, environment.requestTimestampMillis);
+        final DebugFiltersBuilder debugFiltersBuilder = new DebugFiltersBuilder(environment.transaction, environment.partner, environment.consumer, environment.requestTimestampMillis, deadline);
 
-        return (BlenderResult<V>)blender.blend(environment, parameters, maxItems, requestedVideoFormat, debugFiltersBuilder, query)
-                .feedback("query", query);
+        // identical concurrent searches, e.g. when a popular event starts, are blended only once
+        final String flightKey = environment.debug ? null : flightKey(environment, parameters, requestedVideoFormat, maxItems, query);
+        // the leader blends within the budget of the partner, so one partner can't starve the others
+        final PartnerBudget budget = PartnerBudget.of(environment.partner.username);
+        final AtomicReference<BlenderResult<VideoData>> blended = new AtomicReference<>();
+        final Matches matches = flights.run(flightKey, () -> budget.run(() -> {
+            // filter statistics are aggregated per partner and blender
+            final BlendStatistics statistics = new BlendStatistics(environment.partner.username, blender.getClass().getSimpleName());
+            final DataSet<VideoData> found = blender.blend(environment, parameters, maxItems, requestedVideoFormat, debugFiltersBuilder, statistics, deadline, query);
+            final Matches shared = flightKey == null ? null : new Matches(RankedProducts.ofMatches(found), deadline.isPartial());
+            blended.set(statistics.timer().result(found.result("all")));
+            statistics.publish();
+            return shared;
+        }));
+
+        final BlenderResult<VideoData> result;
+        final boolean isPartial;
+        if (blended.get() != null) {
+            result = blended.get();
+            isPartial = deadline.isPartial();
+        }
+        else {
+            // a follower serves the matches of the leader in its own DataSet, the result of the leader is not shared
+            result = candidates.products(environment, parameters, requestedVideoFormat, matches.ranked.productList())
+                    .filter(matches.ranked.ranker(Integer.MAX_VALUE))
+                    .result("all");
+            isPartial = matches.isPartial;
+        }
+        return (BlenderResult<V>)result.feedback("query", query).feedback("result", isPartial ? "partial" : "complete");
+    }
+
+    /**
+     * Returns the key of requests with the same result: search results
+     * depend on the content offered, so requests of consumers with the same
+     * entitlements, searching for the same within the same second, have the
+     * same result.
+     */
+    private static String flightKey(final BlendEnvironment environment, final BlendParameters parameters, final String requestedVideoFormat, final int maxItems, final String query) {
+        return environment.partner.username + "\t" + Utils.entitlementsKey(environment) + "\t" + parameters.blenderName + "\t" + requestedVideoFormat
+                + "\t" + maxItems + "\t" + (environment.requestTimestampMillis / 1000L) + "\t" + Arrays.toString(Utils.timeRange(parameters)) + "\t" + query;
+    }
+
+    public SingleFlight<?> getFlights() {
+        return flights;
+    }
+
+    /**
+     * Returns the searcher with the given name, the default searcher is <code>all</code>.
+     *
+     * @param blenderName the name of the searcher, may be <code>null</code>
+     * @return the searcher
+     */
+    public SearchBlender select(final String blenderName) {
+        if (blenderName == null) return searcherAll;
+        switch (blenderName) {
+            case "all":
+                return searcherAll;
+            case "actors":
+                return searcherActors;
+            default:
+                return searcherAll;
+        }
+    }
+
+    /**
+     * The search results of a leader, shared with its followers.
+     */
+    private static final class Matches {
+        final RankedProducts ranked;
+        final boolean isPartial;
+
+        Matches(final RankedProducts ranked, final boolean isPartial) {
+            this.ranked = ranked;
+            this.isPartial = isPartial;
+        }
     }
 }
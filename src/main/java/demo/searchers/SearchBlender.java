@@ -21,20 +21,26 @@ package demo.searchers;
 import com.gurucue.recommendations.ResponseException;
 import com.gurucue.recommendations.blender.BlendEnvironment;
 import com.gurucue.recommendations.blender.BlendParameters;
-import com.gurucue.recommendations.blender.BlenderResult;
+import com.gurucue.recommendations.blender.DataSet;
 import com.gurucue.recommendations.blender.VideoData;
+import demo.Deadline;
 import demo.DebugFiltersBuilder;
+import demo.stats.BlendStatistics;
 
 /**
- * The blender interface specification for demo search.
+ * The blender interface specification for demo search. A searcher returns
+ * the search results, ranked, and {@link MainBlender} turns them into the
+ * result of the request.
  */
 public interface SearchBlender {
-    BlenderResult<VideoData> blend(
+    DataSet<VideoData> blend(
             BlendEnvironment environment,
             BlendParameters parameters,
             int maxItems,
             String requestedVideoFormat,
             DebugFiltersBuilder debugFiltersBuilder,
+            BlendStatistics statistics,
+            Deadline deadline,
             String query
     ) throws ResponseException;
 }
@@ -21,37 +21,60 @@ package demo.searchers;
 import com.gurucue.recommendations.ResponseException;
 import com.gurucue.recommendations.blender.BlendEnvironment;
 import com.gurucue.recommendations.blender.BlendParameters;
-import com.gurucue.recommendations.blender.BlenderResult;
+import com.gurucue.recommendations.blender.DataSet;
 import com.gurucue.recommendations.blender.VideoData;
+import demo.CandidateSource;
+import demo.Deadline;
 import demo.DebugFiltersBuilder;
+import demo.PartnerBudget;
 import demo.Utils;
-import demo.VideoDuplicateResolver;
 import demo.filters.ActorsSearchFilter;
 import demo.filters.RankedSizerObeyingTagRules;
+import demo.stats.BlendStatistics;
+import demo.stats.StageTimer;
 
 /**
  * Restricted search: it applies all the marketing rules from the BlenderAll.
  */
 public final class SearcherActors implements SearchBlender {
+    private final CandidateSource candidates;
+
+    public SearcherActors(final CandidateSource candidates) {
+        this.candidates = candidates;
+    }
+
     @Override
-    public BlenderResult<VideoData> blend(
+    public DataSet<VideoData> blend(
             final BlendEnvironment environment,
             final BlendParameters parameters,
             int maxItems,
             final String requestedVideoFormat,
             final DebugFiltersBuilder debugFiltersBuilder,
+            final BlendStatistics statistics,
+            final Deadline deadline,
             final String query
     ) throws ResponseException {
         // set default output size, if not provided
         if (maxItems <= 0) maxItems = 20;
 
-        // initialize and filter the DataSet
-        return VideoData.buildDataSetOfVideosAndTvProgrammes(environment.transaction, environment.partner, environment.consumer, new VideoDuplicateResolver(requestedVideoFormat, environment.requestTimestampMillis), environment.requestTimestampMillis, Utils.MAX_CATCHUP_RETENTION, 0L)
+        // initialize and filter the DataSet, only of tv-programmes within the time range if one is requested
+        final StageTimer timer = statistics.timer();
+        final long[] timeRange = Utils.timeRange(parameters);
+        final DataSet<VideoData> content = timeRange == null
+                ? candidates.videosAndTvProgrammes(environment, parameters, requestedVideoFormat)
+                : candidates.tvProgrammes(environment, parameters, requestedVideoFormat, timeRange[0], timeRange[1]);
+        return timer.stages(content)
+                .stage("build")
                 .filter(debugFiltersBuilder.allDataLogger(environment.debug))
+                .stage("debug-all")
                 .filter(debugFiltersBuilder.filteredDataLogger(environment.debug))
-                .filter(new ActorsSearchFilter(query)) // pass through only items matching the search query
-                .filter(new RankedSizerObeyingTagRules(maxItems))
+                .stage("debug-filtered")
+                .filter(statistics.track(new ActorsSearchFilter(query, deadline, timeRange == null))) // pass through only items matching the search query
+                .stage("ActorsSearchFilter")
+                .filter(new RankedSizerObeyingTagRules(maxItems, deadline, PartnerBudget.of(environment.partner.username).workers()))
+                .stage("RankedSizerObeyingTagRules")
                 .filter(debugFiltersBuilder.resultDataLogger(environment.debug))
-                .result("all");
+                .stage("debug-result")
+                .dataSet();
     }
 }
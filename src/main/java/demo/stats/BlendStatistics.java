@@ -0,0 +1,74 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects statistics of filters used in a single blend request. Filters
+ * are registered with {@link #track(StatisticsProvider)} while the filter
+ * chain is assembled, and once the request is done {@link #publish()}
+ * adds their counters to the {@link BlenderStatistics} of the partner and
+ * the blender.
+ */
+public final class BlendStatistics {
+    public final String partnerUsername;
+    public final String blenderName;
+    private final List<FilterStatistics> tracked = new ArrayList<>();
+    private StageTimer timer = null;
+
+    public BlendStatistics(final String partnerUsername, final String blenderName) {
+        this.partnerUsername = partnerUsername;
+        this.blenderName = blenderName;
+    }
+
+    /**
+     * Registers the filter's statistics for aggregation and returns the
+     * filter, so it can be used inline in a filter chain.
+     *
+     * @param filter the filter to track
+     * @param <F> the type of the filter
+     * @return the given filter
+     */
+    public <F extends StatisticsProvider> F track(final F filter) {
+        tracked.add(filter.getStatistics());
+        return filter;
+    }
+
+    /**
+     * Returns the stage timer of the request. Whether the request is
+     * sampled is decided on the first invocation, which should be done
+     * just before the DataSet is built.
+     *
+     * @return the stage timer, disabled if the request is not sampled
+     */
+    public StageTimer timer() {
+        if (timer == null) timer = StageTimer.start(partnerUsername, blenderName);
+        return timer;
+    }
+
+    /**
+     * Adds statistics of all tracked filters to the aggregated statistics
+     * of the partner and the blender.
+     */
+    public void publish() {
+        BlenderStatistics.get(partnerUsername, blenderName).add(tracked);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.stats;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Filter statistics of a blender of a partner, aggregated across requests
+ * since the blenders were (re)loaded or since the last {@link #reset()}.
+ * All methods are thread-safe.
+ */
+public final class BlenderStatistics {
+    private static final ConcurrentMap<String, BlenderStatistics> registry = new ConcurrentHashMap<>();
+
+    public final String partnerUsername;
+    public final String blenderName;
+    private final Map<String, FilterStatistics> filters = new LinkedHashMap<>();
+    private long requestCount = 0L;
+    private long startMillis = System.currentTimeMillis();
+
+    private BlenderStatistics(final String partnerUsername, final String blenderName) {
+        this.partnerUsername = partnerUsername;
+        this.blenderName = blenderName;
+    }
+
+    /**
+     * Returns the aggregated statistics of the given blender of the given
+     * partner, creating it if it doesn't exist yet.
+     *
+     * @param partnerUsername the username of the partner
+     * @param blenderName the name of the blender
+     * @return the aggregated statistics
+     */
+    public static BlenderStatistics get(final String partnerUsername, final String blenderName) {
+        final String key = partnerUsername + "/" + blenderName;
+        final BlenderStatistics existing = registry.get(key);
+        if (existing != null) return existing;
+        final BlenderStatistics created = new BlenderStatistics(partnerUsername, blenderName);
+        final BlenderStatistics raced = registry.putIfAbsent(key, created);
+        return raced == null ? created : raced;
+    }
+
+    /**
+     * Returns the aggregated statistics of all blenders of all partners.
+     *
+     * @return a list of all aggregated statistics
+     */
+    public static List<BlenderStatistics> all() {
+        return new ArrayList<>(registry.values());
+    }
+
+    synchronized void add(final List<FilterStatistics> requestStatistics) {
+        requestCount++;
+        for (final FilterStatistics statistics : requestStatistics) {
+            FilterStatistics aggregate = filters.get(statistics.filterName);
+            if (aggregate == null) {
+                aggregate = statistics.split();
+                filters.put(statistics.filterName, aggregate);
+            }
+            aggregate.merge(statistics);
+        }
+    }
+
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized List<String> getFilterNames() {
+        return new ArrayList<>(filters.keySet());
+    }
+
+    /**
+     * Returns a copy of the aggregated statistics of the named filter, or
+     * <code>null</code> if there are no statistics for the filter.
+     *
+     * @param filterName the name of the filter
+     * @return the copy of the aggregated statistics, or <code>null</code>
+     */
+    public synchronized FilterStatistics getFilterStatistics(final String filterName) {
+        final FilterStatistics aggregate = filters.get(filterName);
+        if (aggregate == null) return null;
+        final FilterStatistics copy = aggregate.split();
+        copy.merge(aggregate);
+        return copy;
+    }
+
+    public synchronized double getSelectivity(final String filterName) {
+        final FilterStatistics aggregate = filters.get(filterName);
+        if (aggregate == null) return 1.0;
+        return aggregate.getSelectivity();
+    }
+
+    /**
+     * Returns the number of items per second that the named filter
+     * evaluated since the aggregation started.
+     *
+     * @param filterName the name of the filter
+     * @return the average number of items evaluated per second
+     */
+    public synchronized double getThroughput(final String filterName) {
+        final FilterStatistics aggregate = filters.get(filterName);
+        if (aggregate == null) return 0.0;
+        final long elapsedMillis = System.currentTimeMillis() - startMillis;
+        if (elapsedMillis <= 0L) return 0.0;
+        return (aggregate.getEvaluated() * 1000.0) / elapsedMillis;
+    }
+
+    public synchronized void reset() {
+        filters.clear();
+        requestCount = 0L;
+        startMillis = System.currentTimeMillis();
+    }
+
+    public synchronized void writeLog(final StringBuilder output) {
+        output.append(partnerUsername).append("/").append(blenderName).append(": ").append(requestCount).append(" requests\n");
+        for (final FilterStatistics aggregate : filters.values()) aggregate.writeLog(output);
+    }
+}
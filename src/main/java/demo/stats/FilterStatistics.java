@@ -0,0 +1,164 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.stats;
+
+import java.util.Arrays;
+
+/**
+ * Counters of a single filter. A filter updates its counters from within
+ * its test() method without any synchronization, so when a filter is
+ * evaluated by several workers, each worker must get its own instance
+ * obtained with {@link #split()}, and the instances must be combined with
+ * {@link #merge(FilterStatistics)} when the workers are done.
+ * The first two counters are always the number of accepted and the number
+ * of rejected items, any further counters are filter-specific.
+ */
+public final class FilterStatistics {
+    public static final int ACCEPTED = 0;
+    public static final int REJECTED = 1;
+
+    public final String filterName;
+    private final String[] counterNames;
+    private final long[] counters;
+
+    /**
+     * Creates empty statistics for the named filter.
+     *
+     * @param filterName the name under which the filter is logged and aggregated, usually the class name with any parameters
+     * @param extraCounterNames names of filter-specific counters, their indexes start with 2
+     */
+    public FilterStatistics(final String filterName, final String... extraCounterNames) {
+        this.filterName = filterName;
+        final int n = extraCounterNames.length;
+        final String[] counterNames = new String[n + 2];
+        counterNames[ACCEPTED] = "accepted";
+        counterNames[REJECTED] = "rejected";
+        System.arraycopy(extraCounterNames, 0, counterNames, 2, n);
+        this.counterNames = counterNames;
+        this.counters = new long[n + 2];
+    }
+
+    private FilterStatistics(final String filterName, final String[] counterNames, final long[] counters) {
+        this.filterName = filterName;
+        this.counterNames = counterNames;
+        this.counters = counters;
+    }
+
+    /**
+     * Counts an accepted item and returns <code>true</code>, so it can be
+     * used directly as the return value of a filter's test() method.
+     *
+     * @return always <code>true</code>
+     */
+    public boolean accepted() {
+        counters[ACCEPTED]++;
+        return true;
+    }
+
+    /**
+     * Counts a rejected item and returns <code>false</code>, so it can be
+     * used directly as the return value of a filter's test() method.
+     *
+     * @return always <code>false</code>
+     */
+    public boolean rejected() {
+        counters[REJECTED]++;
+        return false;
+    }
+
+    public void increment(final int counterIndex) {
+        counters[counterIndex]++;
+    }
+
+    public long get(final int counterIndex) {
+        return counters[counterIndex];
+    }
+
+    public int getCounterCount() {
+        return counters.length;
+    }
+
+    public String getCounterName(final int counterIndex) {
+        return counterNames[counterIndex];
+    }
+
+    public long getAccepted() {
+        return counters[ACCEPTED];
+    }
+
+    public long getRejected() {
+        return counters[REJECTED];
+    }
+
+    public long getEvaluated() {
+        return counters[ACCEPTED] + counters[REJECTED];
+    }
+
+    /**
+     * Returns the ratio of accepted items among all evaluated items, or 1.0
+     * if nothing was evaluated yet.
+     *
+     * @return the fraction of items that passed the filter
+     */
+    public double getSelectivity() {
+        final long evaluated = getEvaluated();
+        if (evaluated == 0L) return 1.0;
+        return (double) counters[ACCEPTED] / (double) evaluated;
+    }
+
+    /**
+     * Returns new empty statistics with the same name and counters, to be
+     * used by another worker evaluating the same filter.
+     *
+     * @return empty statistics compatible with this instance
+     */
+    public FilterStatistics split() {
+        return new FilterStatistics(filterName, counterNames, new long[counterNames.length]);
+    }
+
+    /**
+     * Adds counters of the given statistics to this instance. The given
+     * statistics must have the same counters, which is the case when they
+     * are from the same filter class or obtained with {@link #split()}.
+     *
+     * @param other the statistics to add
+     */
+    public void merge(final FilterStatistics other) {
+        if ((other.counterNames != counterNames) && !Arrays.equals(other.counterNames, counterNames)) {
+            throw new IllegalArgumentException("Cannot merge statistics of " + other.filterName + " into statistics of " + filterName + ": the counters differ");
+        }
+        final long[] otherCounters = other.counters;
+        for (int i = counters.length - 1; i >= 0; i--) counters[i] += otherCounters[i];
+    }
+
+    /**
+     * Renders all counters in the traditional filter log format, one
+     * counter per line.
+     *
+     * @param output where to append the log
+     */
+    public void writeLog(final StringBuilder output) {
+        output.append(filterName).append(" rejected: ").append(counters[REJECTED]).append("\n");
+        output.append(filterName).append(" accepted: ").append(counters[ACCEPTED]).append("\n");
+        final int n = counters.length;
+        for (int i = 2; i < n; i++) {
+            output.append(filterName).append(" ").append(counterNames[i]).append(": ").append(counters[i]).append("\n");
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.stats;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which requests are sampled for stage metrics. The sampling
+ * interval is read from the <code>demo.blenders.metrics.samplingInterval</code>
+ * system property and can be changed at runtime through JMX. A change is
+ * written back to the system property, so it survives recompilation of
+ * the blenders.
+ */
+public final class MetricsControl implements MetricsControlMXBean {
+    private static final Logger log = LogManager.getLogger(MetricsControl.class);
+    public static final String SAMPLING_INTERVAL_PROPERTY = "demo.blenders.metrics.samplingInterval";
+    public static final String JMX_DOMAIN = "demo.blenders";
+    public static final MetricsControl INSTANCE = new MetricsControl();
+
+    static {
+        register(INSTANCE, JMX_DOMAIN + ":type=MetricsControl");
+    }
+
+    private volatile int samplingInterval;
+    private final AtomicLong requestCounter = new AtomicLong();
+    private final AtomicLong sampledRequests = new AtomicLong();
+
+    private MetricsControl() {
+        int interval = 0;
+        try {
+            interval = Integer.parseInt(System.getProperty(SAMPLING_INTERVAL_PROPERTY, "0"), 10);
+        }
+        catch (NumberFormatException e) {
+            log.error("Invalid value of " + SAMPLING_INTERVAL_PROPERTY + ", stage metrics sampling is off: " + e.toString(), e);
+        }
+        samplingInterval = interval < 0 ? 0 : interval;
+    }
+
+    /**
+     * Returns whether the current request should be sampled. When sampling
+     * is off this is a single volatile read.
+     *
+     * @return whether to collect stage metrics for the current request
+     */
+    public boolean sample() {
+        final int interval = samplingInterval;
+        if (interval <= 0) return false;
+        if ((interval > 1) && ((requestCounter.incrementAndGet() % interval) != 0L)) return false;
+        sampledRequests.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public int getSamplingInterval() {
+        return samplingInterval;
+    }
+
+    @Override
+    public void setSamplingInterval(final int samplingInterval) {
+        final int interval = samplingInterval < 0 ? 0 : samplingInterval;
+        this.samplingInterval = interval;
+        System.setProperty(SAMPLING_INTERVAL_PROPERTY, Integer.toString(interval));
+    }
+
+    @Override
+    public long getSampledRequests() {
+        return sampledRequests.get();
+    }
+
+    /**
+     * Registers the MBean under the given name, replacing any MBean left
+     * registered under the same name by a previous generation of blenders.
+     *
+     * @param mbean the MBean to register
+     * @param name the object name
+     */
+    public static void register(final Object mbean, final String name) {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) server.unregisterMBean(objectName);
+            server.registerMBean(mbean, objectName);
+        }
+        catch (JMException e) {
+            log.error("Failed to register the MBean " + name + ": " + e.toString(), e);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.stats;
+
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies and input/output sizes of a stage of a blender of a partner,
+ * aggregated across the sampled requests and exported through JMX as
+ * <code>demo.blenders:type=StageMetrics,partner=...,blender=...,stage=...</code>.
+ */
+public final class StageMetrics implements StageMetricsMXBean {
+    private static final ConcurrentMap<String, StageMetrics> registry = new ConcurrentHashMap<>();
+
+    public final String partnerUsername;
+    public final String blenderName;
+    public final String stageName;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final AtomicLong sizedCount = new AtomicLong();
+    private final AtomicLong inputSizeSum = new AtomicLong();
+    private final AtomicLong outputSizeSum = new AtomicLong();
+
+    private StageMetrics(final String partnerUsername, final String blenderName, final String stageName) {
+        this.partnerUsername = partnerUsername;
+        this.blenderName = blenderName;
+        this.stageName = stageName;
+    }
+
+    /**
+     * Returns the metrics of the given stage, creating and registering them
+     * with JMX if they don't exist yet.
+     *
+     * @param partnerUsername the username of the partner
+     * @param blenderName the name of the blender
+     * @param stageName the name of the stage within the blender
+     * @return the stage metrics
+     */
+    public static StageMetrics get(final String partnerUsername, final String blenderName, final String stageName) {
+        final String key = partnerUsername + "/" + blenderName + "/" + stageName;
+        final StageMetrics existing = registry.get(key);
+        if (existing != null) return existing;
+        final StageMetrics created = new StageMetrics(partnerUsername, blenderName, stageName);
+        final StageMetrics raced = registry.putIfAbsent(key, created);
+        if (raced != null) return raced;
+        MetricsControl.register(created, MetricsControl.JMX_DOMAIN + ":type=StageMetrics,partner=" + ObjectName.quote(partnerUsername)
+                + ",blender=" + ObjectName.quote(blenderName) + ",stage=" + ObjectName.quote(stageName));
+        return created;
+    }
+
+    public static List<StageMetrics> all() {
+        return new ArrayList<>(registry.values());
+    }
+
+    /**
+     * Records one execution of the stage.
+     *
+     * @param elapsedNanos how long the stage took
+     * @param inputSize the size of the input, or a negative value if not known
+     * @param outputSize the size of the output
+     */
+    public void record(final long elapsedNanos, final int inputSize, final int outputSize) {
+        latencies.record(elapsedNanos);
+        if (inputSize >= 0) {
+            sizedCount.incrementAndGet();
+            inputSizeSum.addAndGet(inputSize);
+            outputSizeSum.addAndGet(outputSize);
+        }
+    }
+
+    @Override
+    public String getPartnerUsername() {
+        return partnerUsername;
+    }
+
+    @Override
+    public String getBlenderName() {
+        return blenderName;
+    }
+
+    @Override
+    public String getStageName() {
+        return stageName;
+    }
+
+    @Override
+    public long getCount() {
+        return latencies.getCount();
+    }
+
+    @Override
+    public long getLatencyP50Micros() {
+        return latencies.getValueAtPercentile(50.0) / 1000L;
+    }
+
+    @Override
+    public long getLatencyP99Micros() {
+        return latencies.getValueAtPercentile(99.0) / 1000L;
+    }
+
+    @Override
+    public long getLatencyMaxMicros() {
+        return latencies.getMax() / 1000L;
+    }
+
+    @Override
+    public double getLatencyMeanMicros() {
+        return latencies.getMean() / 1000.0;
+    }
+
+    @Override
+    public double getMeanInputSize() {
+        final long n = sizedCount.get();
+        if (n == 0L) return 0.0;
+        return (double) inputSizeSum.get() / (double) n;
+    }
+
+    @Override
+    public double getMeanOutputSize() {
+        final long n = sizedCount.get();
+        if (n == 0L) return 0.0;
+        return (double) outputSizeSum.get() / (double) n;
+    }
+
+    @Override
+    public double getSelectivity() {
+        final long input = inputSizeSum.get();
+        if (input == 0L) return 1.0;
+        return (double) outputSizeSum.get() / (double) input;
+    }
+
+    @Override
+    public void reset() {
+        latencies.reset();
+        sizedCount.set(0L);
+        inputSizeSum.set(0L);
+        outputSizeSum.set(0L);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.stats;
+
+/**
+ * JMX view of the latencies and sizes of a single stage of a blender.
+ * Latencies are in microseconds.
+ */
+public interface StageMetricsMXBean {
+    String getPartnerUsername();
+    String getBlenderName();
+    String getStageName();
+    long getCount();
+    long getLatencyP50Micros();
+    long getLatencyP99Micros();
+    long getLatencyMaxMicros();
+    double getLatencyMeanMicros();
+    double getMeanInputSize();
+    double getMeanOutputSize();
+    double getSelectivity();
+    void reset();
+}
@@ -0,0 +1,176 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.stats;
+
+import com.gurucue.recommendations.blender.BlenderResult;
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.StatefulFilter;
+import com.gurucue.recommendations.blender.StatelessFilter;
+import com.gurucue.recommendations.blender.VideoData;
+
+/**
+ * Times the stages of a blender's filter chain in a single request. The
+ * chain is built through {@link #stages(DataSet)}, and a stage probe, added
+ * with {@link Stages#stage(String)}, is put into the filter chain after the
+ * stage it measures; it passes the DataSet through unchanged and
+ * records the time elapsed since the previous probe together with the
+ * DataSet size before and after the stage. The first probe measures the
+ * time since the timer was created, which should be just before the
+ * DataSet is built.
+ * When the request is not sampled, a disabled timer is used which doesn't
+ * put probes into the chain, so stateless stages stay fused.
+ */
+public final class StageTimer {
+    /** The timer of requests that are not sampled. */
+    public static final StageTimer DISABLED = new StageTimer();
+
+    private final String partnerUsername;
+    private final String blenderName;
+    private long lastNanos;
+    private int lastSize = -1;
+
+    private StageTimer() {
+        this.partnerUsername = null;
+        this.blenderName = null;
+    }
+
+    private StageTimer(final String partnerUsername, final String blenderName) {
+        this.partnerUsername = partnerUsername;
+        this.blenderName = blenderName;
+        this.lastNanos = System.nanoTime();
+    }
+
+    /**
+     * Returns a new timer if the current request is sampled, otherwise the
+     * disabled timer.
+     *
+     * @param partnerUsername the username of the partner
+     * @param blenderName the name of the blender
+     * @return the timer to use in the current request
+     */
+    public static StageTimer start(final String partnerUsername, final String blenderName) {
+        if (!MetricsControl.INSTANCE.sample()) return DISABLED;
+        return new StageTimer(partnerUsername, blenderName);
+    }
+
+    public boolean isEnabled() {
+        return this != DISABLED;
+    }
+
+    /**
+     * Starts a filter chain on the DataSet, with stage probes put into it
+     * only when the request is sampled.
+     *
+     * @param dataSet the DataSet the chain starts from
+     * @return the chain
+     */
+    public Stages stages(final DataSet<VideoData> dataSet) {
+        return new Stages(dataSet);
+    }
+
+    /**
+     * Records the stage completed since the last probe, which is the
+     * conversion of the DataSet into the result, and returns the result.
+     *
+     * @param result the result of the blender
+     * @param <T> the type of the result
+     * @return the given result
+     */
+    public <T> T result(final T result) {
+        if (this == DISABLED) return result;
+        final long now = System.nanoTime();
+        StageMetrics.get(partnerUsername, blenderName, "result").record(now - lastNanos, lastSize, lastSize);
+        lastNanos = now;
+        return result;
+    }
+
+    /**
+     * A filter chain with stage probes.
+     */
+    public final class Stages {
+        private DataSet<VideoData> dataSet;
+
+        Stages(final DataSet<VideoData> dataSet) {
+            this.dataSet = dataSet;
+        }
+
+        public Stages filter(final StatelessFilter<VideoData> filter) {
+            dataSet = dataSet.filter(filter);
+            return this;
+        }
+
+        public Stages filter(final StatefulFilter<VideoData> filter) {
+            dataSet = dataSet.filter(filter);
+            return this;
+        }
+
+        public Stages log(final String message) {
+            dataSet = dataSet.log(message);
+            return this;
+        }
+
+        /**
+         * Records the stage which has just completed in the filter chain.
+         *
+         * @param stageName the name of the completed stage
+         * @return this chain
+         */
+        public Stages stage(final String stageName) {
+            if (StageTimer.this != DISABLED) dataSet = dataSet.filter(new Probe(StageMetrics.get(partnerUsername, blenderName, stageName)));
+            return this;
+        }
+
+        public DataSet<VideoData> dataSet() {
+            return dataSet;
+        }
+
+        public BlenderResult<VideoData> result(final String name) {
+            return dataSet.result(name);
+        }
+    }
+
+    private final class Probe implements StatefulFilter<VideoData> {
+        private final StageMetrics metrics;
+        private long elapsedNanos;
+        private int inputSize;
+        private int outputSize;
+
+        Probe(final StageMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        @Override
+        public DataSet<VideoData> transform(final DataSet<VideoData> source) {
+            elapsedNanos = System.nanoTime() - lastNanos;
+            inputSize = lastSize;
+            outputSize = source.size();
+            metrics.record(elapsedNanos, inputSize, outputSize);
+            lastSize = outputSize;
+            lastNanos = System.nanoTime(); // don't count the recording
+            return source;
+        }
+
+        @Override
+        public void writeLog(final StringBuilder output) {
+            output.append("Stage ").append(metrics.stageName).append(": ").append(elapsedNanos / 1000L).append(" us");
+            if (inputSize >= 0) output.append(", ").append(inputSize).append(" -> ").append(outputSize).append(" items\n");
+            else output.append(", ").append(outputSize).append(" items\n");
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.tools;
+
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.NullStatelessFilter;
+import com.gurucue.recommendations.blender.StatelessFilter;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.data.DataProvider;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import demo.BasicTagger;
+import demo.DebugFiltersBuilder;
+import demo.DebugLogSink;
+import demo.catalogue.FoldedTextIndex;
+import demo.catalogue.PersonIndex;
+import demo.filters.AcceptOnlyAnySeries;
+import demo.filters.AcceptOnlyEpisodesOfSeries;
+import demo.filters.ActorsSearchFilter;
+import demo.filters.CommonSearchFilter;
+import demo.filters.CommutativeFilters;
+import demo.filters.GenreWhitelist;
+import demo.filters.MinimumRuntime;
+import demo.recommenders.BlenderMovies;
+import demo.stats.BlendStatistics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Allocation-budget gate for hot filters: runs every filter over a
+ * synthetic DataSet, measures the bytes allocated by the running thread
+ * and fails when a filter allocates more per item than its budget.
+ * Every run filters a new DataSet with new items and tag sets, built
+ * before the measurement starts, so filters that only allocate on the first
+ * encounter of an item, like the tagging, are measured every time. The allocation of filtering the
+ * DataSet itself is measured with an all-pass filter and subtracted.
+ * <p>
+ * With <code>-calibrate</code> the measured allocation is reported together
+ * with a suggested budget, and the exit code is always 0. A budget is only
+ * changed together with the allocation measured this way, which is
+ * written down next to it. The gate is part of the build check.
+ * <p>
+ * Usage: <code>AllocationBudget [-catalogue size] [-calibrate]</code>; the exit code is 1 when a budget is exceeded.
+ */
+public final class AllocationBudget {
+    private static final long REQUEST_TIMESTAMP_MILLIS = 1500000000000L;
+    private static final int WARMUP_RUNS = 20;
+    private static final int MEASURED_RUNS = 5;
+    private static final long INDEX_TIMEOUT_MILLIS = 30000L;
+
+    private static final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final ReplayCandidateSource source;
+    private final List<Budget> budgets = new ArrayList<>();
+
+    AllocationBudget(final ReplayCandidateSource source, final DebugLogSink sink) {
+        this.source = source;
+        final DataProvider dataProvider = StandIns.dataProvider(StandIns.attributeCodes());
+        final String searchQuery = SyntheticCatalogue.word(2, 0) + " " + SyntheticCatalogue.word(4, 1);
+        final String actorsQuery = SyntheticCatalogue.personName(7);
+        final StringBuilder debugPrefix = new StringBuilder("DataSet for the allocation budget");
+        // budgets in bytes per item, with the allocation measured by -calibrate on JDK 17 over the default catalogue of 20000 items
+        stateless("MinimumRuntime", 0L, () -> new MinimumRuntime(65)); // measured 0.0
+        stateless("GenreWhitelist", 0L, () -> new GenreWhitelist(BlenderMovies.whiteGenres)); // measured 0.0
+        stateless("AcceptOnlyAnySeries", 0L, AcceptOnlyAnySeries::new); // measured 0.0
+        stateless("CommutativeFilters", 0L, () -> new CommutativeFilters(new BlendStatistics("demo", "AllocationBudget"), "content", new MinimumRuntime(65), new GenreWhitelist(BlenderMovies.whiteGenres))); // measured 0.0
+        stateless("AcceptOnlyEpisodesOfSeries", 0L, () -> new AcceptOnlyEpisodesOfSeries(1L)); // measured 0.0
+        stateless("BasicTagger", 192L, () -> new BasicTagger(REQUEST_TIMESTAMP_MILLIS, 20)); // measured 144.0, tag set entries
+        stateless("CommonSearchFilter", 80L, () -> new CommonSearchFilter(searchQuery, dataProvider)); // measured 56.6, the ranks of matches
+        stateless("ActorsSearchFilter", 0L, () -> new ActorsSearchFilter(actorsQuery)); // measured 0.4, within the per-run allowance
+        stateless("DebugLoggingFilter", 784L, () -> new DebugFiltersBuilder.DebugLoggingFilter("demo.allocation", "allocation budget", debugPrefix, sink)); // measured 621.9, the CSV row
+    }
+
+    private void stateless(final String name, final long bytesPerItem, final Supplier<StatelessFilter<VideoData>> filter) {
+        budgets.add(new Budget(name, bytesPerItem, filter));
+    }
+
+    /**
+     * Returns the minimum number of bytes the current thread allocated in
+     * a run of the filter, after warming it up. Every run filters a new
+     * DataSet, the DataSet and the filter are created before the measurement.
+     */
+    long measure(final Supplier<StatelessFilter<VideoData>> filter) {
+        for (int i = 0; i < WARMUP_RUNS; i++) source.newDataSet().filter(filter.get()).size();
+        final long threadId = Thread.currentThread().getId();
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_RUNS; i++) {
+            final DataSet<VideoData> dataSet = source.newDataSet();
+            final StatelessFilter<VideoData> f = filter.get();
+            final long before = threads.getThreadAllocatedBytes(threadId);
+            dataSet.filter(f).size();
+            final long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+            if (allocated < min) min = allocated;
+        }
+        return min;
+    }
+
+    /**
+     * Builds the catalogue indexes the search filters read, which are
+     * otherwise built in the background while the filters are warmed up,
+     * and waits for them.
+     */
+    private void indexCatalogue() {
+        final List<GeneralVideoProduct> products = new ArrayList<>();
+        for (final VideoData videoData : source.newDataSet()) products.add(videoData.video);
+        FoldedTextIndex.replace(products);
+        PersonIndex.replace(products);
+        final long deadline = System.currentTimeMillis() + INDEX_TIMEOUT_MILLIS;
+        while ((FoldedTextIndex.current().size() == 0) || (PersonIndex.current().productCount() == 0)) {
+            if (System.currentTimeMillis() > deadline) throw new IllegalStateException("The catalogue was not indexed within " + INDEX_TIMEOUT_MILLIS + " ms");
+            try {
+                Thread.sleep(10L);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Measures all filters and returns whether they are within their budgets.
+     *
+     * @param calibrate whether to only report the measurements and suggested budgets
+     */
+    boolean check(final boolean calibrate) {
+        final int n = source.newDataSet().size();
+        indexCatalogue();
+        final long baseline = measure(NullStatelessFilter::getNullFilter);
+        System.out.println("items: " + n + ", baseline: " + (baseline / n) + " bytes/item");
+        System.out.println("filter\tbytes/item\tbudget\tstatus");
+        boolean ok = true;
+        for (final Budget budget : budgets) {
+            final long allocated = Math.max(0L, measure(budget.filter) - baseline);
+            final double perItem = allocated / (double) n;
+            if (calibrate) {
+                // a quarter of headroom, rounded up to 16 bytes; a filter that doesn't allocate keeps a budget of 0
+                final long suggested = allocated <= 65536L ? 0L : ((((long) Math.ceil(perItem * 1.25)) + 15L) / 16L) * 16L;
+                System.out.println(String.format("%s\t%.1f\t%d\tsuggested %d", budget.name, perItem, budget.bytesPerItem, suggested));
+                continue;
+            }
+            // a small absolute allowance covers the per-run allocation of the filter instance and its log
+            final boolean within = allocated <= (budget.bytesPerItem * n) + 65536L;
+            ok &= within;
+            System.out.println(String.format("%s\t%.1f\t%d\t%s", budget.name, perItem, budget.bytesPerItem, within ? "OK" : "OVER BUDGET"));
+        }
+        return ok;
+    }
+
+    public static void main(final String[] args) throws IOException {
+        int catalogueSize = 20000;
+        boolean calibrate = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("-catalogue".equals(args[i])) catalogueSize = Integer.parseInt(args[++i]);
+            else if ("-calibrate".equals(args[i])) calibrate = true;
+            else {
+                System.err.println("Usage: AllocationBudget [-catalogue size] [-calibrate]");
+                System.exit(1);
+            }
+        }
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.err.println("The JVM doesn't support measuring thread allocation");
+            System.exit(1);
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final SyntheticCatalogue catalogue = new SyntheticCatalogue(catalogueSize, 42L, REQUEST_TIMESTAMP_MILLIS);
+        final ReplayCandidateSource source = new ReplayCandidateSource(catalogue.request("recommenders", "all", null, 20));
+        final DebugLogSink sink = new DebugLogSink(Files.createTempDirectory("allocation-budget"), 1024L * 1024L, 1, 16);
+        final boolean ok = new AllocationBudget(source, sink).check(calibrate);
+        System.exit(ok || calibrate ? 0 : 1);
+    }
+
+    private static final class Budget {
+        final String name;
+        final long bytesPerItem;
+        final Supplier<StatelessFilter<VideoData>> filter;
+
+        Budget(final String name, final long bytesPerItem, final Supplier<StatelessFilter<VideoData>> filter) {
+            this.name = name;
+            this.bytesPerItem = bytesPerItem;
+            this.filter = filter;
+        }
+    }
+}
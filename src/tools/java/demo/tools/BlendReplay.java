@@ -0,0 +1,163 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.tools;
+
+import com.gurucue.recommendations.ResponseException;
+import com.gurucue.recommendations.blender.BlendEnvironment;
+import com.gurucue.recommendations.blender.BlendParameters;
+import com.gurucue.recommendations.blender.BlenderResult;
+import com.gurucue.recommendations.blender.TopBlender;
+import com.gurucue.recommendations.blender.VideoData;
+import demo.capture.BlendCapture;
+import demo.stats.LatencyHistogram;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays captured requests through the blenders, offline and without a
+ * database, and reports the latency of each capture.
+ * <p>
+ * Usage: <code>BlendReplay [-iterations N] [-warmup N] &lt;capture file or directory&gt;...</code>
+ */
+public final class BlendReplay {
+    /** The property of the time-to-live of cached rankings, set to 0 to rank on every replay. */
+    public static final String RANKINGS_TTL_PROPERTY = "demo.blenders.rankings.ttlSeconds";
+
+    private final BlendCapture capture;
+    private final ReplayCandidateSource candidates;
+    private final TopBlender topBlender;
+    private final BlendEnvironment environment;
+    private final BlendParameters parameters;
+
+    public BlendReplay(final BlendCapture capture) {
+        this(capture, new ReplayCandidateSource(capture));
+    }
+
+    /**
+     * Replays the request of the given capture with candidates from the
+     * given source, so many requests can share the same candidates.
+     */
+    public BlendReplay(final BlendCapture capture, final ReplayCandidateSource candidates) {
+        this.capture = capture;
+        this.candidates = candidates;
+        switch (capture.topBlender) {
+            case "recommenders":
+                topBlender = new demo.recommenders.MainBlender(candidates);
+                break;
+            case "searchers":
+                topBlender = new demo.searchers.MainBlender(candidates);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown top blender in the capture: " + capture.topBlender);
+        }
+        environment = StandIns.environment(
+                StandIns.partner(capture.partnerUsername),
+                StandIns.consumer(capture.consumerId, capture.consumerUsername),
+                capture.requestTimestampMillis,
+                StandIns.dataProvider(StandIns.attributeCodes()),
+                StandIns.recommenderProvider(new StandInRecommender(capture.consumerId))
+        );
+        parameters = StandIns.parameters(capture.blenderName, newInput());
+    }
+
+    private Map<String, Object> newInput() {
+        final Map<String, Object> input = new HashMap<>(capture.input);
+        input.put("referencedProducts", ReplayCandidateSource.materialize(capture.referencedProducts));
+        return input;
+    }
+
+    /**
+     * Runs the captured request once.
+     *
+     * @return the result of the blender
+     */
+    public BlenderResult<VideoData> blend() throws ResponseException {
+        return topBlender.blend(VideoData.class, environment, parameters);
+    }
+
+    /**
+     * Runs the captured request once.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    public long run() throws ResponseException {
+        final long start = System.nanoTime();
+        blend();
+        return System.nanoTime() - start;
+    }
+
+    public static void main(final String[] args) throws IOException, ResponseException {
+        int iterations = 100;
+        int warmup = 20;
+        final List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-iterations":
+                    iterations = Integer.parseInt(args[++i]);
+                    break;
+                case "-warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    collect(Paths.get(args[i]), files);
+                    break;
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("Usage: BlendReplay [-iterations N] [-warmup N] <capture file or directory>...");
+            System.exit(1);
+        }
+
+        System.out.println("capture\tcandidates\titerations\tmean_us\tp50_us\tp99_us\tmax_us");
+        for (final Path file : files) {
+            final BlendCapture capture = BlendCapture.readFile(file);
+            final BlendReplay replay = new BlendReplay(capture);
+            for (int i = 0; i < warmup; i++) replay.run();
+            final LatencyHistogram histogram = new LatencyHistogram();
+            for (int i = 0; i < iterations; i++) histogram.record(replay.run());
+            System.out.println(file.getFileName() + "\t" + capture.candidates.size + "\t" + iterations + "\t" +
+                    (long) (histogram.getMean() / 1000.0) + "\t" +
+                    (histogram.getValueAtPercentile(50.0) / 1000L) + "\t" +
+                    (histogram.getValueAtPercentile(99.0) / 1000L) + "\t" +
+                    (histogram.getMax() / 1000L));
+        }
+    }
+
+    static void collect(final Path path, final List<Path> files) throws IOException {
+        if (!Files.isDirectory(path)) {
+            files.add(path);
+            return;
+        }
+        final List<Path> found = new ArrayList<>();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(path, "*.capture.gz")) {
+            for (final Path file : stream) found.add(file);
+        }
+        Collections.sort(found);
+        files.addAll(found);
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.tools;
+
+import demo.PartnerBudget;
+import demo.capture.BlendCapture;
+import demo.stats.LatencyHistogram;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load-generation harness: replays a request log against both top blenders
+ * from a number of threads, on a synthetic catalogue, and periodically
+ * reports throughput and latency percentiles per blender. In soak mode it
+ * also samples the heap after a full GC and fails when the retained heap
+ * keeps growing.
+ * <p>
+ * The request log is a text file with one request per line:
+ * <code>recommenders|searchers &lt;TAB&gt; blender name &lt;TAB&gt; maxItems [&lt;TAB&gt; query]</code>,
+ * empty lines and lines starting with <code>#</code> are ignored. Without a
+ * log, a synthetic mix of requests is generated. All requests replay the
+ * same consumer and timestamp, so the ranking cache is disabled unless its
+ * time-to-live is set explicitly, otherwise the recommender blenders would
+ * only measure its hits.
+ * <p>
+ * Usage: <code>LoadHarness [-threads N] [-duration seconds] [-catalogue size] [-report seconds] [-log file] [-soak] [-maxGrowth MB/hour]</code>
+ */
+public final class LoadHarness {
+    private static final Logger log = LogManager.getLogger(LoadHarness.class);
+    private static final long REQUEST_TIMESTAMP_MILLIS = 1500000000000L;
+    private static final long SEED = 42L;
+
+    private final List<Request> requests;
+    private final Map<String, Stats> stats = new TreeMap<>();
+
+    LoadHarness(final SyntheticCatalogue catalogue, final List<String[]> log) {
+        final ReplayCandidateSource candidates = new ReplayCandidateSource(catalogue.request("recommenders", "all", null, 20));
+        final Map<String, BlendReplay> replays = new HashMap<>(); // the same request is replayed by the same instance
+        requests = new ArrayList<>(log.size());
+        for (final String[] entry : log) {
+            final String key = String.join("\t", entry);
+            BlendReplay replay = replays.get(key);
+            if (replay == null) {
+                final BlendCapture capture = catalogue.request(entry[0], entry[1], entry.length > 3 ? entry[3] : null, Integer.parseInt(entry[2]));
+                replay = new BlendReplay(capture, candidates);
+                replays.put(key, replay);
+            }
+            final String blender = entry[0] + "/" + entry[1];
+            Stats s = stats.get(blender);
+            if (s == null) {
+                s = new Stats();
+                stats.put(blender, s);
+            }
+            requests.add(new Request(replay, s));
+        }
+    }
+
+    /**
+     * Generates a synthetic mix of requests, weighted roughly as observed in production.
+     */
+    static List<String[]> syntheticLog(final int count, final long seed) {
+        final Random rnd = new Random(seed);
+        final int[] maxItems = {10, 20, 20, 50};
+        final List<String[]> log = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String items = Integer.toString(maxItems[rnd.nextInt(maxItems.length)]);
+            final int p = rnd.nextInt(100);
+            if (p < 30) log.add(new String[]{"recommenders", "all", items});
+            else if (p < 45) log.add(new String[]{"recommenders", "movies", items});
+            else if (p < 55) log.add(new String[]{"recommenders", "tv-series", items});
+            else if (p < 65) log.add(new String[]{"recommenders", "episodes", items});
+            else if (p < 75) log.add(new String[]{"recommenders", "similar", items});
+            else if (p < 95) {
+                final int language = rnd.nextInt(3);
+                String query = SyntheticCatalogue.word(rnd.nextInt(24), language);
+                if (rnd.nextBoolean()) query = query + " " + SyntheticCatalogue.word(rnd.nextInt(24), language);
+                log.add(new String[]{"searchers", "all", items, query});
+            }
+            else log.add(new String[]{"searchers", "actors", items, SyntheticCatalogue.personName(rnd.nextInt(400))});
+        }
+        return log;
+    }
+
+    static List<String[]> readLog(final String file) throws IOException {
+        final List<String[]> log = new ArrayList<>();
+        try (final BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                final String[] entry = line.split("\t");
+                if ((entry.length < 3) || (!"recommenders".equals(entry[0]) && !"searchers".equals(entry[0]))) throw new IOException("Invalid request log line: " + line);
+                log.add(entry);
+            }
+        }
+        if (log.isEmpty()) throw new IOException("The request log is empty: " + file);
+        return log;
+    }
+
+    /**
+     * Runs the load for the given duration and returns whether there were no errors.
+     */
+    boolean run(final int threadCount, final long durationMillis, final long reportMillis, final Soak soak) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + durationMillis;
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong overloaded = new AtomicLong();
+        final Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int offset = (requests.size() * t) / threadCount;
+            threads[t] = new Thread(() -> {
+                int i = offset;
+                while (System.currentTimeMillis() < deadline) {
+                    final Request request = requests.get(i);
+                    if (++i >= requests.size()) i = 0;
+                    try {
+                        final long elapsed = request.replay.run();
+                        request.stats.histogram.record(elapsed);
+                        request.stats.total.record(elapsed);
+                    }
+                    catch (PartnerBudget.OverloadedException e) {
+                        overloaded.incrementAndGet(); // shed by the partner budget, not an error
+                    }
+                    catch (Exception e) {
+                        if (errors.incrementAndGet() <= 10L) log.error("Request failed: " + e.toString(), e);
+                    }
+                }
+            }, "load-" + t);
+            threads[t].start();
+        }
+
+        long lastReport = System.currentTimeMillis();
+        final long start = lastReport;
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(Math.max(1L, Math.min(reportMillis, deadline - System.currentTimeMillis())));
+            final long now = System.currentTimeMillis();
+            report("interval " + ((now - start) / 1000L) + " s", now - lastReport, false);
+            if (soak != null) soak.sample(now - start);
+            lastReport = now;
+        }
+        for (final Thread thread : threads) thread.join();
+        report("total", System.currentTimeMillis() - start, true);
+        if (overloaded.get() > 0L) System.out.println("rejected as overloaded: " + overloaded.get());
+        if (errors.get() > 0L) System.out.println("errors: " + errors.get());
+        return errors.get() == 0L;
+    }
+
+    private void report(final String heading, final long elapsedMillis, final boolean total) {
+        System.out.println("--- " + heading);
+        System.out.println("blender\trequests\treq/s\tp50_ms\tp95_ms\tp99_ms\tp999_ms\tmax_ms");
+        for (final Map.Entry<String, Stats> entry : stats.entrySet()) {
+            final LatencyHistogram h = total ? entry.getValue().total : entry.getValue().histogram;
+            final long count = h.getCount();
+            System.out.println(entry.getKey() + "\t" + count + "\t" +
+                    String.format("%.1f", (count * 1000.0) / Math.max(1L, elapsedMillis)) + "\t" +
+                    millis(h.getValueAtPercentile(50.0)) + "\t" +
+                    millis(h.getValueAtPercentile(95.0)) + "\t" +
+                    millis(h.getValueAtPercentile(99.0)) + "\t" +
+                    millis(h.getValueAtPercentile(99.9)) + "\t" +
+                    millis(h.getMax()));
+            if (!total) h.reset();
+        }
+    }
+
+    private static String millis(final long nanos) {
+        return String.format("%.2f", nanos / 1000000.0);
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        long durationSeconds = 60L;
+        long reportSeconds = 10L;
+        int catalogueSize = 100000;
+        String logFile = null;
+        boolean soak = false;
+        double maxGrowthMBPerHour = 50.0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-duration":
+                    durationSeconds = Long.parseLong(args[++i]);
+                    break;
+                case "-report":
+                    reportSeconds = Long.parseLong(args[++i]);
+                    break;
+                case "-catalogue":
+                    catalogueSize = Integer.parseInt(args[++i]);
+                    break;
+                case "-log":
+                    logFile = args[++i];
+                    break;
+                case "-soak":
+                    soak = true;
+                    break;
+                case "-maxGrowth":
+                    maxGrowthMBPerHour = Double.parseDouble(args[++i]);
+                    break;
+                default:
+                    System.err.println("Usage: LoadHarness [-threads N] [-duration seconds] [-catalogue size] [-report seconds] [-log file] [-soak] [-maxGrowth MB/hour]");
+                    System.exit(1);
+            }
+        }
+
+        if (System.getProperty(BlendReplay.RANKINGS_TTL_PROPERTY) == null) System.setProperty(BlendReplay.RANKINGS_TTL_PROPERTY, "0");
+        System.out.println("Generating a synthetic catalogue of " + catalogueSize + " items");
+        final SyntheticCatalogue catalogue = new SyntheticCatalogue(catalogueSize, SEED, REQUEST_TIMESTAMP_MILLIS);
+        final List<String[]> log = logFile == null ? syntheticLog(10000, SEED) : readLog(logFile);
+        final LoadHarness harness = new LoadHarness(catalogue, log);
+        System.out.println("Running " + log.size() + " requests in a loop from " + threads + " threads for " + durationSeconds + " s");
+        final Soak soakSampler = soak ? new Soak() : null;
+        boolean ok = harness.run(threads, durationSeconds * 1000L, reportSeconds * 1000L, soakSampler);
+        if (soakSampler != null) ok &= soakSampler.check(maxGrowthMBPerHour);
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static final class Request {
+        final BlendReplay replay;
+        final Stats stats;
+
+        Request(final BlendReplay replay, final Stats stats) {
+            this.replay = replay;
+            this.stats = stats;
+        }
+    }
+
+    private static final class Stats {
+        final LatencyHistogram histogram = new LatencyHistogram(); // the current interval
+        final LatencyHistogram total = new LatencyHistogram();
+    }
+
+    /**
+     * Samples the heap retained after a full GC and estimates its growth
+     * with a least-squares fit over the second half of the run, after the
+     * caches and the JIT have settled.
+     */
+    static final class Soak {
+        private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        private final List<long[]> samples = new ArrayList<>(); // {elapsed millis, used bytes}
+
+        void sample(final long elapsedMillis) {
+            System.gc();
+            final long used = memory.getHeapMemoryUsage().getUsed();
+            samples.add(new long[]{elapsedMillis, used});
+            System.out.println("retained heap: " + (used / (1024L * 1024L)) + " MB");
+        }
+
+        boolean check(final double maxGrowthMBPerHour) {
+            final int from = samples.size() / 2;
+            final int n = samples.size() - from;
+            if (n < 3) {
+                System.out.println("soak: too few heap samples to estimate growth, run longer or report more often");
+                return true;
+            }
+            double sumX = 0.0, sumY = 0.0, sumXY = 0.0, sumXX = 0.0;
+            for (int i = from; i < samples.size(); i++) {
+                final double x = samples.get(i)[0] / 3600000.0; // hours
+                final double y = samples.get(i)[1] / (1024.0 * 1024.0); // MB
+                sumX += x;
+                sumY += y;
+                sumXY += x * y;
+                sumXX += x * x;
+            }
+            final double slope = ((n * sumXY) - (sumX * sumY)) / ((n * sumXX) - (sumX * sumX));
+            final boolean ok = slope <= maxGrowthMBPerHour;
+            System.out.println(String.format("soak: retained heap grows by %.1f MB/hour, the limit is %.1f MB/hour: %s", slope, maxGrowthMBPerHour, ok ? "OK" : "FAILED"));
+            return ok;
+        }
+    }
+}
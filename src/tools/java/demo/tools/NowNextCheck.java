@@ -0,0 +1,128 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.tools;
+
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.TvChannelData;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import com.gurucue.recommendations.entity.product.TvChannelProduct;
+import com.gurucue.recommendations.entity.product.TvProgrammeProduct;
+import com.gurucue.recommendations.entity.product.VideoProduct;
+import demo.Utils;
+import demo.VideoDuplicateResolver;
+import demo.catalogue.NowNextCursors;
+import demo.catalogue.ProgrammeSchedule;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Now-next gate: offers the content of a request to the programme schedule
+ * the way {@link demo.DatabaseCandidateSource} does, and fails unless the
+ * programmes the duplicate resolution chose against show up in the now-next
+ * grid: a repeat airing, which loses to the earlier airing, and a programme
+ * with a VOD duplicate, which loses to the VOD.
+ * <p>
+ * Usage: <code>NowNextCheck</code>; the exit code is 1 when a programme is missing.
+ */
+public final class NowNextCheck {
+    private static final long MINUTE_MILLIS = 60000L;
+    private static final long BUILD_TIMEOUT_MILLIS = 10000L;
+
+    public static void main(final String[] args) throws InterruptedException {
+        final long now = System.currentTimeMillis();
+        final TvChannelData first = channel(1001L);
+        final TvChannelData second = channel(1002L);
+        final TvChannelData third = channel(1003L);
+
+        // the same video airing now, and again next on another tv-channel
+        final VideoData airing = programme(2001L, 7001L, now - (10L * MINUTE_MILLIS), now + (20L * MINUTE_MILLIS), first);
+        final VideoData repeat = programme(2002L, 7001L, now + (60L * MINUTE_MILLIS), now + (90L * MINUTE_MILLIS), second);
+        // a programme airing now, also available as VOD
+        final VideoData programme = programme(2003L, 7003L, now - (5L * MINUTE_MILLIS), now + (40L * MINUTE_MILLIS), third);
+        final VideoData vod = vod(2004L, 7003L);
+
+        final ProgrammeSchedule.Collector resolver = new ProgrammeSchedule.Collector(new VideoDuplicateResolver("SD", now));
+        final DataSet<VideoData> dataSet = new DataSet.Builder<>(resolver, null)
+                .add(resolver.resolve(airing, repeat))
+                .add(resolver.resolve(programme, vod))
+                .build();
+        ProgrammeSchedule.offer(dataSet, resolver, now, Utils.MAX_CATCHUP_RETENTION);
+
+        final long deadline = System.currentTimeMillis() + BUILD_TIMEOUT_MILLIS;
+        while (!ProgrammeSchedule.current().isBuilt()) {
+            if (System.currentTimeMillis() > deadline) {
+                System.out.println("The programme schedule was not built within " + BUILD_TIMEOUT_MILLIS + " ms");
+                System.exit(1);
+            }
+            Thread.sleep(10L);
+        }
+
+        final List<TvProgrammeProduct> grid = NowNextCursors.INSTANCE.nowAndNext(now);
+        final boolean ok = check("airing", grid, airing) & check("repeat airing", grid, repeat) & check("programme with a VOD duplicate", grid, programme);
+        System.exit(ok ? 0 : 1);
+    }
+
+    private static boolean check(final String name, final List<TvProgrammeProduct> grid, final VideoData expected) {
+        final boolean found = grid.contains(expected.video);
+        System.out.println(name + "\t" + (found ? "OK" : "MISSING from the now-next grid"));
+        return found;
+    }
+
+    private static TvChannelData channel(final long id) {
+        final TvChannelProduct tvChannel = StandIns.allocate(TvChannelProduct.class);
+        StandIns.set(tvChannel, "id", id);
+        StandIns.set(tvChannel, "videoFormat", "SD");
+        final TvChannelData channel = StandIns.allocate(TvChannelData.class);
+        StandIns.set(channel, "tvChannel", tvChannel);
+        StandIns.set(channel, "productPackages", Collections.emptySet());
+        return channel;
+    }
+
+    private static VideoData programme(final long id, final long videoMatchId, final long beginMillis, final long endMillis, final TvChannelData channel) {
+        final TvProgrammeProduct tvProgramme = StandIns.allocate(TvProgrammeProduct.class);
+        StandIns.set(tvProgramme, "beginTimeMillis", beginMillis);
+        StandIns.set(tvProgramme, "endTimeMillis", endMillis);
+        return videoData(tvProgramme, id, videoMatchId, true, Collections.singleton(channel));
+    }
+
+    private static VideoData vod(final long id, final long videoMatchId) {
+        final VideoProduct vod = StandIns.allocate(VideoProduct.class);
+        StandIns.set(vod, "price", 0.0);
+        return videoData(vod, id, videoMatchId, false, Collections.emptySet());
+    }
+
+    private static VideoData videoData(final GeneralVideoProduct video, final long id, final long videoMatchId, final boolean isTvProgramme, final Set<TvChannelData> channels) {
+        StandIns.set(video, "id", id);
+        StandIns.set(video, "videoMatchId", videoMatchId);
+        StandIns.set(video, "videoFormat", "SD");
+        final VideoData videoData = StandIns.allocate(VideoData.class);
+        StandIns.set(videoData, "video", video);
+        StandIns.set(videoData, "isTvProgramme", isTvProgramme);
+        StandIns.set(videoData, "isSubscribed", true);
+        StandIns.set(videoData, "tags", new HashSet<String>());
+        StandIns.set(videoData, "availableTvChannels", new HashSet<>(channels));
+        StandIns.set(videoData, "chosenTvChannels", new HashSet<>(channels));
+        StandIns.set(videoData, "productPackages", new HashSet<>());
+        return videoData;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.tools;
+
+import com.google.common.collect.ImmutableMap;
+import com.gurucue.recommendations.blender.BlendEnvironment;
+import com.gurucue.recommendations.blender.BlendParameters;
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.TvChannelData;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import com.gurucue.recommendations.entity.product.PackageProduct;
+import com.gurucue.recommendations.entity.product.TvChannelProduct;
+import com.gurucue.recommendations.entity.product.TvProgrammeProduct;
+import com.gurucue.recommendations.entity.product.VideoProduct;
+import com.gurucue.recommendations.entity.value.TranslatableValue;
+import demo.CandidateSource;
+import demo.VideoDuplicateResolver;
+import demo.capture.BlendCapture;
+import demo.capture.CandidateColumns;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Candidate source that returns the captured candidates instead of
+ * building them from the database. Products are materialized once, but
+ * every call returns a new DataSet with new <code>VideoData</code>
+ * instances, because filters modify them (tags, predictions, chosen
+ * tv-channels).
+ * Translatable values are restored with their translations only, the
+ * translation keys are strings, not languages.
+ */
+public final class ReplayCandidateSource implements CandidateSource {
+    private final BlendCapture capture;
+    private final PackageProduct[] packages;
+    private final TvChannelData[] channels;
+    private final GeneralVideoProduct[] products;
+
+    public ReplayCandidateSource(final BlendCapture capture) {
+        this.capture = capture;
+        final CandidateColumns c = capture.candidates;
+        packages = new PackageProduct[c.packageIds.length];
+        for (int i = packages.length - 1; i >= 0; i--) {
+            final PackageProduct p = StandIns.allocate(PackageProduct.class);
+            StandIns.set(p, "id", c.packageIds[i]);
+            StandIns.set(p, "partnerProductCode", c.packageCodes[i]);
+            packages[i] = p;
+        }
+        channels = new TvChannelData[c.channelIds.length];
+        for (int i = channels.length - 1; i >= 0; i--) {
+            final TvChannelProduct tvChannel = StandIns.allocate(TvChannelProduct.class);
+            StandIns.set(tvChannel, "id", c.channelIds[i]);
+            StandIns.set(tvChannel, "partnerProductCode", c.channelCodes[i]);
+            StandIns.set(tvChannel, "title", text(c.channelTitles[i]));
+            StandIns.set(tvChannel, "videoFormat", c.channelVideoFormats[i]);
+            final TvChannelData channel = StandIns.allocate(TvChannelData.class);
+            StandIns.set(channel, "tvChannel", tvChannel);
+            StandIns.set(channel, "productPackages", packageSet(c.channelPackages[i]));
+            channels[i] = channel;
+        }
+        products = materialize(c);
+    }
+
+    /**
+     * Returns a new DataSet of the captured candidates.
+     */
+    public DataSet<VideoData> newDataSet() {
+        final CandidateColumns c = capture.candidates;
+        final DataSet.Builder<VideoData> builder = new DataSet.Builder<>(new VideoDuplicateResolver(capture.requestedVideoFormat, capture.requestTimestampMillis), null);
+        for (int i = 0; i < c.size; i++) {
+            if (!c.hasVideoData(i)) continue;
+            final VideoData videoData = StandIns.allocate(VideoData.class);
+            StandIns.set(videoData, "video", products[i]);
+            StandIns.set(videoData, "isTvProgramme", c.isTvProgramme(i));
+            StandIns.set(videoData, "isSubscribed", c.isSubscribed(i));
+            final Set<String> tags = new HashSet<>();
+            Collections.addAll(tags, c.tags[i]);
+            StandIns.set(videoData, "tags", tags);
+            StandIns.set(videoData, "availableTvChannels", channelSet(c.availableTvChannels[i]));
+            StandIns.set(videoData, "chosenTvChannels", channelSet(c.chosenTvChannels[i]));
+            StandIns.set(videoData, "productPackages", packageSet(c.productPackages[i]));
+            builder.add(videoData);
+        }
+        return builder.build();
+    }
+
+    @Override
+    public DataSet<VideoData> videosAndTvProgrammes(final BlendEnvironment environment, final BlendParameters parameters, final String requestedVideoFormat) {
+        return newDataSet();
+    }
+
+    @Override
+    public DataSet<VideoData> products(final BlendEnvironment environment, final BlendParameters parameters, final String requestedVideoFormat, final List<? extends GeneralVideoProduct> products) {
+        return newDataSet(); // the capture contains exactly the DataSet of the requested products
+    }
+
+    private Set<TvChannelData> channelSet(final int[] indexes) {
+        final Set<TvChannelData> result = new HashSet<>();
+        if (indexes == null) return result; // empty sets are captured as null
+        for (final int index : indexes) result.add(channels[index]);
+        return result;
+    }
+
+    private Set<PackageProduct> packageSet(final int[] indexes) {
+        final Set<PackageProduct> result = new HashSet<>();
+        if (indexes == null) return result; // empty sets are captured as null
+        for (final int index : indexes) result.add(packages[index]);
+        return result;
+    }
+
+    /**
+     * Creates stand-in products from the given columns.
+     */
+    public static GeneralVideoProduct[] materialize(final CandidateColumns c) {
+        final GeneralVideoProduct[] result = new GeneralVideoProduct[c.size];
+        for (int i = 0; i < c.size; i++) {
+            final GeneralVideoProduct video;
+            if (c.isTvProgramme(i)) {
+                video = StandIns.allocate(TvProgrammeProduct.class);
+                StandIns.set(video, "beginTimeMillis", c.beginTimes[i]);
+                StandIns.set(video, "endTimeMillis", c.endTimes[i]);
+            }
+            else {
+                video = StandIns.allocate(VideoProduct.class);
+                StandIns.set(video, "price", c.prices[i]);
+                StandIns.set(video, "catalogueId", c.catalogueIds[i]);
+                StandIns.set(video, "vodCategories", c.vodCategories[i]);
+            }
+            StandIns.set(video, "id", c.productIds[i]);
+            StandIns.set(video, "partnerProductCode", c.partnerProductCodes[i]);
+            StandIns.set(video, "videoMatchId", c.videoMatchIds[i]);
+            StandIns.set(video, "seriesId", c.seriesIds[i]);
+            StandIns.set(video, "seasonNumber", c.seasonNumbers[i]);
+            StandIns.set(video, "episodeNumber", c.episodeNumbers[i]);
+            StandIns.set(video, "airDate", c.airDates[i]);
+            StandIns.set(video, "productionYear", c.productionYears[i]);
+            StandIns.set(video, "runTime", c.runTimes[i]);
+            StandIns.set(video, "parentalRating", c.parentalRatings[i]);
+            StandIns.set(video, "isAdult", c.isAdult(i));
+            StandIns.set(video, "title", text(c.titles[i]));
+            StandIns.set(video, "title2", text(c.titles2[i]));
+            StandIns.set(video, "directors", texts(c.directors[i]));
+            StandIns.set(video, "actors", texts(c.actors[i]));
+            StandIns.set(video, "screenplayWriters", texts(c.screenplayWriters[i]));
+            StandIns.set(video, "genres", c.genres[i]);
+            StandIns.set(video, "videoCategory", c.videoCategories[i]);
+            StandIns.set(video, "imdbLink", c.imdbLinks[i]);
+            StandIns.set(video, "videoFormat", c.videoFormats[i]);
+            result[i] = video;
+        }
+        return result;
+    }
+
+    private static TranslatableValue text(final String[] text) {
+        if (text == null) return null;
+        final ImmutableMap.Builder<String, String> translations = ImmutableMap.builder();
+        for (int i = 2; i < text.length; i += 2) translations.put(text[i - 1], text[i]);
+        return StandIns.set(StandIns.allocate(TranslatableValue.class), "translations", translations.build());
+    }
+
+    private static TranslatableValue[] texts(final String[][] texts) {
+        if (texts == null) return null;
+        final TranslatableValue[] result = new TranslatableValue[texts.length];
+        for (int i = texts.length - 1; i >= 0; i--) result[i] = text(texts[i]);
+        return result;
+    }
+}
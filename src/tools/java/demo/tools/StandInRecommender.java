@@ -0,0 +1,52 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.tools;
+
+import com.gurucue.recommendations.blender.DataSet;
+import com.gurucue.recommendations.blender.StatefulFilter;
+import com.gurucue.recommendations.blender.VideoData;
+
+/**
+ * A deterministic stand-in for the recommender and similarity filters of
+ * the REST API: every item gets a prediction derived from its product ID
+ * and the seed, and the dataset is sorted by descending prediction.
+ * It exercises the same code paths in the blenders without a recommender.
+ */
+public final class StandInRecommender implements StatefulFilter<VideoData> {
+    private final long seed;
+
+    public StandInRecommender(final long seed) {
+        this.seed = seed;
+    }
+
+    @Override
+    public DataSet<VideoData> transform(final DataSet<VideoData> source) {
+        for (final VideoData videoData : source) {
+            long h = (videoData.video.id ^ seed) * 0x9E3779B97F4A7C15L;
+            h ^= h >>> 32;
+            videoData.prediction = (h & 0xFFFFFFL) / (double) 0x1000000L;
+        }
+        return source.sort((left, right) -> Double.compare(right.prediction, left.prediction));
+    }
+
+    @Override
+    public void writeLog(final StringBuilder output) {
+        output.append("StandInRecommender(").append(seed).append(")\n");
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.tools;
+
+import com.gurucue.recommendations.blender.BlendEnvironment;
+import com.gurucue.recommendations.blender.BlendParameters;
+import com.gurucue.recommendations.data.AttributeCodes;
+import com.gurucue.recommendations.data.DataProvider;
+import com.gurucue.recommendations.dto.ConsumerEntity;
+import com.gurucue.recommendations.entity.Attribute;
+import com.gurucue.recommendations.entity.Partner;
+import com.gurucue.recommendations.recommender.RecommenderProvider;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates stand-ins for the REST API classes the blenders use, so the
+ * blenders can run outside of the REST API, without a database.
+ * Instances are allocated without invoking any constructor and their
+ * fields are set reflectively, which makes the stand-ins independent of
+ * the constructors the REST API classes happen to have. Interfaces are
+ * implemented with dynamic proxies.
+ */
+public final class StandIns {
+    // sun.misc.Unsafe is accessed reflectively, so this compiles regardless of the JDK's restrictions on internal APIs
+    private static final Object UNSAFE;
+    private static final Method ALLOCATE_INSTANCE;
+
+    static {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field f = unsafeClass.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            UNSAFE = f.get(null);
+            ALLOCATE_INSTANCE = unsafeClass.getMethod("allocateInstance", Class.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // fields by name, per class, so setting a field doesn't involve a lookup
+    private static final ClassValue<ConcurrentMap<String, Field>> FIELDS = new ClassValue<ConcurrentMap<String, Field>>() {
+        @Override
+        protected ConcurrentMap<String, Field> computeValue(final Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    private StandIns() {}
+
+    /**
+     * Allocates an instance of the given class without invoking its constructor.
+     */
+    public static <T> T allocate(final Class<T> type) {
+        try {
+            return type.cast(ALLOCATE_INSTANCE.invoke(UNSAFE, type));
+        }
+        catch (IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Cannot allocate a stand-in of " + type.getCanonicalName() + ": " + e.toString(), e);
+        }
+    }
+
+    /**
+     * Sets the field with the given name, declared in the class of the target
+     * or any of its superclasses.
+     *
+     * @return the target
+     */
+    public static <T> T set(final T target, final String fieldName, final Object value) {
+        final Field field = FIELDS.get(target.getClass()).computeIfAbsent(fieldName, name -> findField(target.getClass(), name));
+        try {
+            field.set(target, value);
+            return target;
+        }
+        catch (IllegalAccessException | IllegalArgumentException e) {
+            throw new IllegalStateException("Cannot set " + field.getDeclaringClass().getCanonicalName() + "." + fieldName + ": " + e.toString(), e);
+        }
+    }
+
+    private static Field findField(final Class<?> type, final String fieldName) {
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            final Field field;
+            try {
+                field = c.getDeclaredField(fieldName);
+            }
+            catch (NoSuchFieldException e) {
+                continue;
+            }
+            if (Modifier.isStatic(field.getModifiers())) break;
+            field.setAccessible(true);
+            return field;
+        }
+        throw new IllegalStateException("There is no field " + fieldName + " in " + type.getCanonicalName());
+    }
+
+    /**
+     * Implements the given interface with the given handler. Methods of
+     * <code>Object</code> are handled by the stand-in itself.
+     */
+    public static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+        if (!type.isInterface()) throw new IllegalStateException("Cannot create a stand-in of " + type.getCanonicalName() + ": it is not an interface");
+        return type.cast(Proxy.newProxyInstance(StandIns.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "toString":
+                    if (method.getParameterCount() == 0) return "StandIn(" + type.getSimpleName() + ")";
+                    break;
+                case "hashCode":
+                    if (method.getParameterCount() == 0) return System.identityHashCode(proxy);
+                    break;
+                case "equals":
+                    if (method.getParameterCount() == 1) return proxy == args[0];
+                    break;
+            }
+            return handler.invoke(proxy, method, args);
+        }));
+    }
+
+    public static Partner partner(final String username) {
+        return set(allocate(Partner.class), "username", username);
+    }
+
+    public static ConsumerEntity consumer(final long id, final String username) {
+        return set(set(allocate(ConsumerEntity.class), "id", id), "username", username);
+    }
+
+    /**
+     * Returns attribute codes where every attribute is a stand-in with the
+     * identifier equal to the name of its field.
+     */
+    public static AttributeCodes attributeCodes() {
+        final AttributeCodes codes = allocate(AttributeCodes.class);
+        for (final Field field : AttributeCodes.class.getFields()) {
+            if ((field.getType() != Attribute.class) || Modifier.isStatic(field.getModifiers())) continue;
+            set(codes, field.getName(), set(allocate(Attribute.class), "identifier", field.getName()));
+        }
+        return codes;
+    }
+
+    public static DataProvider dataProvider(final AttributeCodes attributeCodes) {
+        return proxy(DataProvider.class, (proxy, method, args) -> {
+            if ("getAttributeCodes".equals(method.getName())) return attributeCodes;
+            throw new UnsupportedOperationException("The stand-in DataProvider doesn't implement " + method.getName());
+        });
+    }
+
+    /**
+     * Returns a recommender provider whose recommendation and similarity
+     * filters are all the given filter.
+     */
+    public static RecommenderProvider recommenderProvider(final StandInRecommender recommender) {
+        return proxy(RecommenderProvider.class, (proxy, method, args) -> {
+            if (method.getReturnType().isInstance(recommender)) return recommender;
+            throw new UnsupportedOperationException("The stand-in RecommenderProvider doesn't implement " + method.getName());
+        });
+    }
+
+    /**
+     * Returns a blending environment without a transaction, with debugging
+     * turned off.
+     */
+    public static BlendEnvironment environment(final Partner partner, final ConsumerEntity consumer, final long requestTimestampMillis, final DataProvider dataProvider, final RecommenderProvider recommenderProvider) {
+        final BlendEnvironment environment = allocate(BlendEnvironment.class);
+        set(environment, "partner", partner);
+        set(environment, "consumer", consumer);
+        set(environment, "requestTimestampMillis", requestTimestampMillis);
+        set(environment, "debug", false);
+        set(environment, "dataProvider", dataProvider);
+        set(environment, "recommenderProvider", recommenderProvider);
+        return environment;
+    }
+
+    public static BlendParameters parameters(final String blenderName, final Map<String, Object> input) {
+        return set(set(allocate(BlendParameters.class), "blenderName", blenderName), "input", input);
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * This file is part of Guru Cue Search & Recommendation Engine.
+ * Copyright (C) 2017 Guru Cue Ltd.
+ *
+ * Guru Cue Search & Recommendation Engine is free software: you can
+ * redistribute it and/or modify it under the terms of the GNU General
+ * Public License as published by the Free Software Foundation, either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * Guru Cue Search & Recommendation Engine is distributed in the hope
+ * that it will be useful, but WITHOUT ANY WARRANTY; without even the
+ * implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Guru Cue Search & Recommendation Engine. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package demo.tools;
+
+import com.google.common.collect.ImmutableMap;
+import com.gurucue.recommendations.blender.TvChannelData;
+import com.gurucue.recommendations.blender.VideoData;
+import com.gurucue.recommendations.entity.product.GeneralVideoProduct;
+import com.gurucue.recommendations.entity.product.PackageProduct;
+import com.gurucue.recommendations.entity.product.TvChannelProduct;
+import com.gurucue.recommendations.entity.product.TvProgrammeProduct;
+import com.gurucue.recommendations.entity.product.VideoProduct;
+import com.gurucue.recommendations.entity.value.TranslatableValue;
+import demo.capture.BlendCapture;
+import demo.capture.CandidateColumns;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates a reproducible synthetic catalogue of VOD and tv-programme
+ * content: series with seasons and episodes, genres, titles translated
+ * into several languages with accented letters, and actors. The catalogue
+ * is kept in columnar form, the same as a captured request, so it can be
+ * used wherever a capture can.
+ */
+public final class SyntheticCatalogue {
+    public static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
+    public static final String[] GENRES = {
+            "Movies", "Drama", "Comedy", "Action", "Documentary", "Kids",
+            "Sports", "News", "Series", "Thriller", "Romance", "Animation"
+    };
+    private static final String[] LANGUAGES = {"sl", "en", "de"};
+    private static final String[][] WORDS = { // the same word in every language
+            {"\u010carobni", "Magic", "Zauber"}, {"\u017divljenje", "Life", "Leben"}, {"No\u010d", "Night", "Nacht"},
+            {"Ljubezen", "Love", "Liebe"}, {"Zgodba", "Story", "Geschichte"}, {"Reka", "River", "Fluss"},
+            {"Sanje", "Dream", "Traum"}, {"Sonce", "Sun", "Sonne"}, {"\u0160ola", "School", "Schule"},
+            {"Morilec", "Killer", "M\u00f6rder"}, {"Ulica", "Street", "Stra\u00dfe"}, {"Konec", "End", "Ende"},
+            {"Mesto", "City", "Stadt"}, {"\u017doga", "Ball", "Ball"}, {"Pozdrav", "Greeting", "Gr\u00fc\u00dfe"},
+            {"Gore", "Mountains", "Berge"}, {"Morje", "Sea", "Meer"}, {"Zima", "Winter", "Winter"},
+            {"Poletje", "Summer", "Sommer"}, {"Skrivnost", "Secret", "Geheimnis"}, {"Vojna", "War", "Krieg"},
+            {"Otok", "Island", "Insel"}, {"\u010cas", "Time", "Zeit"}, {"Hi\u0161a", "House", "Haus"}
+    };
+    private static final String[] FIRST_NAMES = {
+            "Ana", "Marko", "J\u00fcrgen", "Zo\u00eb", "Luka", "\u0160pela", "Nina", "Toma\u017e", "Ren\u00e9", "S\u00f8ren",
+            "Maja", "Peter", "Chlo\u00e9", "Nejc", "Ur\u0161ka", "John", "M\u00e1ria", "\u017diga", "Fran\u00e7ois", "Eva"
+    };
+    private static final String[] LAST_NAMES = {
+            "Novak", "Horvat", "M\u00fcller", "Kova\u010di\u010d", "Smith", "Garc\u00eda", "Dubois", "Krajnc", "Rossi", "Zupan\u010di\u010d",
+            "Sch\u00e4fer", "Poto\u010dnik", "Jensen", "Kos", "Vidmar", "Brown", "N\u00fa\u00f1ez", "Golob", "Lef\u00e8vre", "Turk"
+    };
+    private static final int CHANNEL_COUNT = 50;
+    private static final int PACKAGE_COUNT = 10;
+    private static final int ENTITLED_PACKAGE_COUNT = 4;
+
+    public final int size;
+    public final long seed;
+    public final long requestTimestampMillis;
+    public final long[] entitlements;
+    public final CandidateColumns candidates;
+    private final GeneralVideoProduct seriesProduct; // an episode of a series, referenced by the episodes and similar blenders
+
+    public SyntheticCatalogue(final int size, final long seed, final long requestTimestampMillis) {
+        this.size = size;
+        this.seed = seed;
+        this.requestTimestampMillis = requestTimestampMillis;
+        final Random rnd = new Random(seed);
+
+        final PackageProduct[] packages = new PackageProduct[PACKAGE_COUNT];
+        for (int i = 0; i < PACKAGE_COUNT; i++) {
+            packages[i] = StandIns.allocate(PackageProduct.class);
+            StandIns.set(packages[i], "id", 100L + i);
+            StandIns.set(packages[i], "partnerProductCode", "package-" + i);
+        }
+        entitlements = new long[ENTITLED_PACKAGE_COUNT];
+        for (int i = 0; i < ENTITLED_PACKAGE_COUNT; i++) entitlements[i] = packages[i].id;
+
+        final TvChannelData[] channels = new TvChannelData[CHANNEL_COUNT];
+        for (int i = 0; i < CHANNEL_COUNT; i++) {
+            final TvChannelProduct tvChannel = StandIns.allocate(TvChannelProduct.class);
+            StandIns.set(tvChannel, "id", 1000L + i);
+            StandIns.set(tvChannel, "partnerProductCode", "channel-" + i);
+            StandIns.set(tvChannel, "title", text(new String[]{"Kanal " + i, "Channel " + i, "Sender " + i}));
+            StandIns.set(tvChannel, "videoFormat", (i % 3) == 0 ? "HD" : "SD");
+            channels[i] = StandIns.allocate(TvChannelData.class);
+            StandIns.set(channels[i], "tvChannel", tvChannel);
+            StandIns.set(channels[i], "productPackages", Collections.singleton(packages[i % PACKAGE_COUNT]));
+        }
+
+        final int actorCount = Math.max(100, size / 50);
+        final int seriesCount = Math.max(1, size / 20);
+        final CandidateColumns.Builder builder = new CandidateColumns.Builder();
+        GeneralVideoProduct seriesProduct = null;
+        long previousVideoMatchId = 0L;
+        for (int i = 0; i < size; i++) {
+            final long id = 100000L + i;
+            final boolean isTvProgramme = rnd.nextInt(100) < 55;
+            final int packageIndex = rnd.nextInt(PACKAGE_COUNT);
+            final GeneralVideoProduct video;
+            final Set<TvChannelData> availableTvChannels;
+            final Set<PackageProduct> productPackages = new HashSet<>();
+            if (isTvProgramme) {
+                final TvProgrammeProduct tvProgramme = StandIns.allocate(TvProgrammeProduct.class);
+                final long begin = requestTimestampMillis - (7L * DAY_MILLIS) + (long) (rnd.nextDouble() * 14.0 * DAY_MILLIS);
+                StandIns.set(tvProgramme, "beginTimeMillis", begin);
+                StandIns.set(tvProgramme, "endTimeMillis", begin + ((15L + rnd.nextInt(166)) * 60000L));
+                availableTvChannels = new HashSet<>();
+                availableTvChannels.add(channels[rnd.nextInt(CHANNEL_COUNT)]);
+                if (rnd.nextInt(4) == 0) availableTvChannels.add(channels[rnd.nextInt(CHANNEL_COUNT)]);
+                for (final TvChannelData channel : availableTvChannels) productPackages.addAll(channel.productPackages);
+                video = tvProgramme;
+            }
+            else {
+                final VideoProduct vod = StandIns.allocate(VideoProduct.class);
+                StandIns.set(vod, "price", rnd.nextInt(3) == 0 ? 0.0 : (rnd.nextBoolean() ? 2.99 : 4.99));
+                StandIns.set(vod, "catalogueId", "catalogue-" + rnd.nextInt(5));
+                StandIns.set(vod, "vodCategories", new String[]{GENRES[rnd.nextInt(GENRES.length)]});
+                availableTvChannels = new HashSet<>();
+                productPackages.add(packages[packageIndex]);
+                video = vod;
+            }
+            StandIns.set(video, "id", id);
+            StandIns.set(video, "partnerProductCode", "product-" + i);
+            // about 5% of content is the same video as the previous item, as with VOD and tv-programme sources of the same movie
+            final long videoMatchId = (previousVideoMatchId > 0L) && (rnd.nextInt(20) == 0) ? previousVideoMatchId : id;
+            previousVideoMatchId = videoMatchId;
+            StandIns.set(video, "videoMatchId", videoMatchId);
+            final boolean isEpisode = rnd.nextInt(100) < 35;
+            if (isEpisode) {
+                StandIns.set(video, "seriesId", 1L + rnd.nextInt(seriesCount));
+                StandIns.set(video, "seasonNumber", 1L + rnd.nextInt(5));
+                StandIns.set(video, "episodeNumber", 1L + rnd.nextInt(24));
+                if (seriesProduct == null) seriesProduct = video;
+            }
+            StandIns.set(video, "productionYear", 1950 + rnd.nextInt(71));
+            StandIns.set(video, "runTime", isEpisode ? 20 + rnd.nextInt(40) : 20 + rnd.nextInt(161));
+            StandIns.set(video, "parentalRating", rnd.nextInt(4) * 6);
+            StandIns.set(video, "isAdult", false);
+            final String[] genres = new String[1 + rnd.nextInt(3)];
+            for (int g = 0; g < genres.length; g++) genres[g] = GENRES[rnd.nextInt(GENRES.length)];
+            StandIns.set(video, "genres", genres);
+            StandIns.set(video, "title", title(rnd, 2 + rnd.nextInt(3)));
+            if (rnd.nextInt(4) == 0) StandIns.set(video, "title2", title(rnd, 1 + rnd.nextInt(2)));
+            final TranslatableValue[] actors = new TranslatableValue[rnd.nextInt(7)];
+            for (int a = 0; a < actors.length; a++) actors[a] = person(rnd.nextInt(actorCount));
+            StandIns.set(video, "actors", actors);
+            StandIns.set(video, "directors", new TranslatableValue[]{person(actorCount + rnd.nextInt(actorCount / 10))});
+            StandIns.set(video, "videoFormat", rnd.nextInt(3) == 0 ? "HD" : "SD");
+
+            final VideoData videoData = StandIns.allocate(VideoData.class);
+            StandIns.set(videoData, "video", video);
+            StandIns.set(videoData, "isTvProgramme", isTvProgramme);
+            boolean isSubscribed = false;
+            for (final PackageProduct p : productPackages) isSubscribed |= p.id < 100L + ENTITLED_PACKAGE_COUNT;
+            StandIns.set(videoData, "isSubscribed", isSubscribed);
+            StandIns.set(videoData, "tags", new HashSet<String>());
+            StandIns.set(videoData, "availableTvChannels", availableTvChannels);
+            StandIns.set(videoData, "chosenTvChannels", new HashSet<>(availableTvChannels));
+            StandIns.set(videoData, "productPackages", productPackages);
+            builder.add(videoData);
+        }
+        candidates = builder.build();
+        this.seriesProduct = seriesProduct;
+    }
+
+    /**
+     * Returns a word from the catalogue's vocabulary, in the given language,
+     * to be used in search queries.
+     */
+    public static String word(final int index, final int language) {
+        return WORDS[index % WORDS.length][language % LANGUAGES.length];
+    }
+
+    /**
+     * Returns the name of the person with the given index.
+     */
+    public static String personName(final int index) {
+        return FIRST_NAMES[index % FIRST_NAMES.length] + " " + LAST_NAMES[(index / FIRST_NAMES.length) % LAST_NAMES.length];
+    }
+
+    /**
+     * Returns a request against this catalogue, in the form of a capture.
+     *
+     * @param topBlender <code>recommenders</code> or <code>searchers</code>
+     * @param blenderName the name of the blender
+     * @param query the search query, <code>null</code> for recommenders
+     * @param maxItems the requested number of items
+     * @return the request
+     */
+    public BlendCapture request(final String topBlender, final String blenderName, final String query, final int maxItems) {
+        final boolean needsReference = "episodes".equals(blenderName) || "similar".equals(blenderName);
+        final CandidateColumns.Builder referenced = new CandidateColumns.Builder();
+        if (needsReference && (seriesProduct != null)) referenced.add(seriesProduct);
+        final Map<String, Object> input = new HashMap<>();
+        input.put("maxItems", maxItems);
+        if (query != null) input.put("query", query);
+        return new BlendCapture(topBlender, "synthetic", 1L, "synthetic", requestTimestampMillis, entitlements, blenderName, input, null, referenced.build(), candidates);
+    }
+
+    private static TranslatableValue title(final Random rnd, final int wordCount) {
+        final StringBuilder[] titles = new StringBuilder[LANGUAGES.length];
+        for (int l = 0; l < LANGUAGES.length; l++) titles[l] = new StringBuilder(64);
+        for (int w = 0; w < wordCount; w++) {
+            final String[] word = WORDS[rnd.nextInt(WORDS.length)];
+            for (int l = 0; l < LANGUAGES.length; l++) {
+                if (w > 0) titles[l].append(' ');
+                titles[l].append(word[l]);
+            }
+        }
+        final String[] result = new String[LANGUAGES.length];
+        for (int l = 0; l < LANGUAGES.length; l++) result[l] = titles[l].toString();
+        return text(result);
+    }
+
+    private static TranslatableValue person(final int index) {
+        final String name = personName(index);
+        return text(new String[]{name, name, name});
+    }
+
+    private static TranslatableValue text(final String[] translations) {
+        final ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        for (int l = 0; l < LANGUAGES.length; l++) builder.put(LANGUAGES[l], translations[l]);
+        return StandIns.set(StandIns.allocate(TranslatableValue.class), "translations", builder.build());
+    }
+}